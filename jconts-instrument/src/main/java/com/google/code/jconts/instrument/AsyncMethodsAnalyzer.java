@@ -64,15 +64,32 @@ public class AsyncMethodsAnalyzer extends EmptyVisitor {
 					boolean visible) {
 				// FIXME: Validate return type!
 				boolean isAsync = desc.equals(Constants.IS_ASYNC_ANNOTATION_DESC);
-				boolean isCoroutine = desc.equals(Constants.IS_COROUTINE_ANNOTATION_DESC);
+				final boolean isCoroutine = desc.equals(Constants.IS_COROUTINE_ANNOTATION_DESC);
 				if (isAsync || isCoroutine) {
-					if (methods == null) {
-						methods = new HashMap<String, MethodContext>();
-					}
-					methods.put(MethodContext.keyOf(methodName, methodDesc),
-							new MethodContext(owner, ownerSource, access,
-									methodName, methodDesc, signature,
-									exceptions, isCoroutine));
+					// Method is registered when all annotation values are read
+					return new EmptyVisitor() {
+						private String resumeOn;
+
+						@Override
+						public void visit(String name, Object value) {
+							if (Constants.IS_ASYNC_RESUME_ON.equals(name)
+									&& !"".equals(value)) {
+								resumeOn = (String) value;
+							}
+						}
+
+						@Override
+						public void visitEnd() {
+							if (methods == null) {
+								methods = new HashMap<String, MethodContext>();
+							}
+							methods.put(MethodContext.keyOf(methodName,
+									methodDesc), new MethodContext(owner,
+									ownerSource, access, methodName,
+									methodDesc, signature, exceptions,
+									isCoroutine, resumeOn));
+						}
+					};
 				}
 				return null;
 			}
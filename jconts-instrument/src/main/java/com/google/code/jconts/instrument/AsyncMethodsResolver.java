@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Opcodes;
+
+import com.google.code.jconts.instrument.context.MethodContext;
+
+/**
+ * Looks up asynchronous methods of the class being transformed and of the
+ * other classes in the same package (by reading their bytecode from the class
+ * loader).
+ * <p>
+ * Only methods that could not be overridden are resolved (static, private or
+ * final ones), so the computation they return is known to be an instance of
+ * the generated class.
+ */
+public class AsyncMethodsResolver {
+
+	private final ClassLoader loader;
+	private final String owner;
+	private final Map<String, Map<String, MethodContext>> classes = new HashMap<String, Map<String, MethodContext>>();
+
+	public AsyncMethodsResolver(ClassLoader loader, String owner,
+			Map<String, MethodContext> methods) {
+		this.loader = loader != null ? loader : ClassLoader
+				.getSystemClassLoader();
+		this.owner = owner;
+		classes.put(owner, methods);
+	}
+
+	/**
+	 * Resolves the asynchronous method invoked by given instruction.
+	 *
+	 * @return context of the method, or <code>null</code> if method is not
+	 *         known to be asynchronous
+	 */
+	public MethodContext resolve(int opcode, String owner, String name,
+			String desc) {
+		if (opcode == Opcodes.INVOKEINTERFACE || !samePackage(owner)) {
+			return null;
+		}
+
+		MethodContext method = methods(owner).get(
+				MethodContext.keyOf(name, desc));
+		if (method == null) {
+			return null;
+		}
+		int access = method.access;
+		if ((access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL)) == 0) {
+			return null;
+		}
+		return method;
+	}
+
+	private boolean samePackage(String other) {
+		int index = owner.lastIndexOf('/');
+		return other.lastIndexOf('/') == index
+				&& owner.regionMatches(0, other, 0, index + 1);
+	}
+
+	private Map<String, MethodContext> methods(String name) {
+		Map<String, MethodContext> methods = classes.get(name);
+		if (methods == null) {
+			methods = read(name);
+			classes.put(name, methods);
+		}
+		return methods;
+	}
+
+	private Map<String, MethodContext> read(String name) {
+		InputStream in = loader.getResourceAsStream(name + ".class");
+		if (in == null) {
+			return Collections.emptyMap();
+		}
+		try {
+			try {
+				return AsyncMethodsAnalyzer.analyze(new ClassReader(in));
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return Collections.emptyMap();
+		}
+	}
+}
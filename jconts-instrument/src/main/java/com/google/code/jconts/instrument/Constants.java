@@ -27,6 +27,7 @@ public final class Constants {
 	public static String THROWABLE_DESC = 'L' + THROWABLE_NAME + ';';
 
 	public static String IS_ASYNC_ANNOTATION_DESC = "Lcom/google/code/jconts/IsAsync;";
+	public static String IS_ASYNC_RESUME_ON = "resumeOn";
 	public static Type IS_ASYNC_ANNOTATION_TYPE = Type
 			.getType(IS_ASYNC_ANNOTATION_DESC);
 
@@ -50,10 +51,40 @@ public final class Constants {
 	
 	public static String CONTINUATION_FIELD = "continuation";
 
+	public static String STATE_BASE_NAME = "com/google/code/jconts/util/AbstractState";
+	public static String STATE_BEGIN_AWAIT_NAME = "beginAwait";
+	public static String STATE_BEGIN_AWAIT_DESC = "()I";
+	public static String STATE_SUSPEND_NAME = "suspend";
+	public static String STATE_SUSPEND_DESC = "(I)I";
+	public static String STATE_RESUME_NAME = "resume";
+	public static String STATE_RESUME_DESC = "(I)Z";
+
 	public static String COMPUTATION_EXECUTE_NAME = "execute";
 	public static String COMPUTATION_EXECUTE_DESC = '(' + CONTINUATION_DESC
 			+ ")V";
 
+	public static String EXECUTOR_DESC = "Ljava/util/concurrent/Executor;";
+	public static String RESUME_ON_NAME = "resumeOn";
+	public static String RESUME_ON_DESC = '(' + COMPUTATION_DESC
+			+ EXECUTOR_DESC + ')' + COMPUTATION_DESC;
+
+	public static String TOKEN_NAME = "com/google/code/jconts/CancellationToken";
+	public static String TOKEN_DESC = 'L' + TOKEN_NAME + ';';
+	public static String TOKEN_HOLDER_NAME = TOKEN_NAME + "$Holder";
+	public static String TOKEN_FIELD = "token";
+	public static String TOKEN_GET_NAME = "getCancellationToken";
+	public static String TOKEN_GET_DESC = "()" + TOKEN_DESC;
+	public static String TOKEN_OF_NAME = "of";
+	public static String TOKEN_OF_DESC = '(' + CONTINUATION_DESC + ')'
+			+ TOKEN_DESC;
+	public static String TOKEN_CANCELLATION_NAME = "cancellation";
+	public static String TOKEN_CANCELLATION_DESC = '(' + TOKEN_DESC
+			+ ")Ljava/util/concurrent/CancellationException;";
+
+	public static String COMPLETED_NAME = "com/google/code/jconts/util/CompletedComputation";
+	public static String COMPLETED_GET_VALUE_NAME = "getValue";
+	public static String COMPLETED_GET_VALUE_DESC = "()Ljava/lang/Object;";
+
 	public static String CTOR_NAME = "<init>";
 	public static String DEFAULT_CTOR_DESC = "()V";
 
@@ -64,6 +95,12 @@ public final class Constants {
 	public static String AWAIT_NAME = "await";
 	public static String AWAIT_DESC = "(Lcom/google/code/jconts/Computation;)Ljava/lang/Object;";
 
+	public static String FUTURES_NAME = "com/google/code/jconts/java8/Futures";
+	public static String FUTURES_AWAIT_DESC = "(Ljava/util/concurrent/CompletionStage;)Ljava/lang/Object;";
+	public static String FUTURES_FROM_FUTURE_NAME = "fromFuture";
+	public static String FUTURES_FROM_FUTURE_DESC = "(Ljava/util/concurrent/CompletionStage;)"
+			+ COMPUTATION_DESC;
+
 	public static String IS_COROUTINE_ANNOTATION_DESC = "Lcom/google/code/jconts/IsCoroutine;";
 	public static String COROUTINES_NAME = "com/google/code/jconts/Coroutines";
 	public static String COROUTINES_YIELD_NAME = "yield";
@@ -80,7 +80,8 @@ public class Main {
 
 				final Map<String, byte[]> classes;
 				try {
-					classes = Transformer.transformClass(classfileBuffer);
+					classes = Transformer.transformClass(classfileBuffer,
+							loader);
 				} catch (Exception e) {
 					e.printStackTrace();
 					return null;
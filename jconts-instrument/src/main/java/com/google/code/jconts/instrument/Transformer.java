@@ -32,6 +32,22 @@ import com.google.code.jconts.instrument.util.TransformationContext;
 public final class Transformer {
 
 	public static Map<String, byte[]> transformClass(byte[] source) {
+		return transformClass(source, null);
+	}
+
+	/**
+	 * Transforms the class.
+	 *
+	 * @param source
+	 *            bytecode of the class
+	 * @param loader
+	 *            class loader to look up other classes in, <code>null</code>
+	 *            for the system class loader
+	 * @return map of the transformed and generated classes, or
+	 *         <code>null</code> if class has no asynchronous methods
+	 */
+	public static Map<String, byte[]> transformClass(byte[] source,
+			ClassLoader loader) {
 		ClassReader reader = new ClassReader(source);
 
 		// First, we look for the methods to transform
@@ -42,14 +58,16 @@ public final class Transformer {
 		}
 
 		// Then, transform
-		TransformationContext context = new TransformationContext();
+		TransformationContext context = new TransformationContext(loader);
 
 		ClassVisitor writer = context.writer();
 		if (Config.isCheckClasses()) {
 			writer = new CheckClassAdapter(writer);
 		}
+		AsyncMethodsResolver resolver = new AsyncMethodsResolver(loader,
+				reader.getClassName(), methods);
 		AsyncClassAdapter adapter = new AsyncClassAdapter(context, writer,
-				methods);
+				methods, resolver);
 
 		reader.accept(adapter, 0);
 		return context.getCode();
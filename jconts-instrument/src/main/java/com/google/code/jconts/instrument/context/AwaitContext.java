@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.context;
+
+import java.util.BitSet;
+
+import org.objectweb.asm.Type;
+
+/**
+ * Information about the single <code>await</code> invocation, collected by
+ * analyzing the method before transforming it.
+ */
+public final class AwaitContext {
+	/** Local variables live after the await, indexed by slot */
+	public final BitSet live;
+	/**
+	 * Types of the local variables before the await, indexed by slot.
+	 * <code>null</code> elements are types unknown from the analysis.
+	 */
+	public final Type[] types;
+	/** If result of the await is immediately returned by areturn */
+	public final boolean tail;
+	/**
+	 * Asynchronous method that produced the awaited computation, or
+	 * <code>null</code> if unknown.
+	 */
+	public final MethodContext callee;
+
+	public AwaitContext(BitSet live, Type[] types, boolean tail,
+			MethodContext callee) {
+		this.live = live;
+		this.types = types;
+		this.tail = tail;
+		this.callee = callee;
+	}
+
+	/**
+	 * @return internal name of the class awaited computation is known to be
+	 *         instance of, or <code>null</code> if unknown
+	 */
+	public String computationClassName() {
+		if (callee == null) {
+			return null;
+		}
+		return callee.singleClass ? callee.stateClassName
+				: callee.computationClassName;
+	}
+}
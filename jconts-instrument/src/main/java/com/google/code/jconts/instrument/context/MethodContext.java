@@ -15,12 +15,21 @@
  */
 package com.google.code.jconts.instrument.context;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.signature.SignatureReader;
 import org.objectweb.asm.signature.SignatureVisitor;
 import org.objectweb.asm.signature.SignatureWriter;
 
+import com.google.code.jconts.instrument.Constants;
+import com.google.code.jconts.instrument.util.Config;
 import com.google.code.jconts.instrument.util.SignatureAdapter;
 
 /**
@@ -62,7 +71,7 @@ public final class MethodContext {
 	public final String[] entryLocalsVars;
 
 	/** Object to track which field do we need to generate in state class */
-	public final MethodStateContext tracker = new MethodStateContext();
+	public final MethodStateContext tracker;
 
 	/** Internal name of the state class */
 	public final String stateClassName;
@@ -78,10 +87,45 @@ public final class MethodContext {
 	public final String continuationSimpleName;
 	/** If method is actually coroutine */
 	private final boolean coroutine;
+	/**
+	 * If synchronously completed awaits should continue in the same frame.
+	 * State class extends <code>AbstractState</code> in that case.
+	 */
+	public final boolean trampoline;
+	/** Internal name of the state class superclass */
+	public final String stateSuperName;
+	/**
+	 * If state class also implements computation and continuation (and keeps
+	 * the index to resume from).
+	 */
+	public final boolean singleClass;
+	/**
+	 * Class declaring the static field with the executor to resume on after
+	 * awaits, or <code>null</code> if method resumes on any thread.
+	 */
+	public final String resumeOnOwner;
+	/** Name of the static field with the executor to resume on */
+	public final String resumeOnField;
+	/**
+	 * Result types of the primitive awaits used by the method. Collected while
+	 * transforming the method body.
+	 */
+	public final Set<Type> primitiveResults = new HashSet<Type>();
+	/**
+	 * Result types of the primitive awaits by the index they are resumed
+	 * with. Collected while transforming the method body.
+	 */
+	public final Map<Integer, Type> primitiveResumes = new HashMap<Integer, Type>();
+	/**
+	 * Awaits taking the value of the completed computation directly, in the
+	 * order of appearance: index the await is resumed with and number of
+	 * locals saved before it. Collected while transforming the method body.
+	 */
+	public final List<int[]> completedAwaits = new ArrayList<int[]>();
 
 	public MethodContext(String owner, String ownerSource, int access,
 			String name, String desc, String signature, String[] exceptions,
-			boolean coroutine) {
+			boolean coroutine, String resumeOn) {
 		this.owner = owner;
 		this.ownerSource = ownerSource;
 		this.access = access;
@@ -94,6 +138,7 @@ public final class MethodContext {
 
 		this.valueSignature = valueSignature();
 		this.entryLocals = Type.getArgumentTypes(desc);
+		this.tracker = new MethodStateContext(Config.isCompactState());
 		this.entryLocalsVars = tracker.stateFields(entryLocals);
 
 		this.stateSimpleName = name + "_State";
@@ -106,6 +151,24 @@ public final class MethodContext {
 		this.continuationSimpleName = name + "_Continuation";
 		this.continuationClassName = owner + '$' + continuationSimpleName;
 		this.coroutine = coroutine;
+
+		this.trampoline = Config.isTrampoline();
+		this.stateSuperName = trampoline ? Constants.STATE_BASE_NAME
+				: Constants.OBJECT_NAME;
+		this.singleClass = Config.isSingleClass();
+
+		// Either field of this class or fully qualified one
+		if (resumeOn == null) {
+			this.resumeOnOwner = null;
+			this.resumeOnField = null;
+		} else if (resumeOn.indexOf('.') < 0) {
+			this.resumeOnOwner = owner;
+			this.resumeOnField = resumeOn;
+		} else {
+			int dot = resumeOn.lastIndexOf('.');
+			this.resumeOnOwner = resumeOn.substring(0, dot).replace('.', '/');
+			this.resumeOnField = resumeOn.substring(dot + 1);
+		}
 	}
 
 	/**
@@ -15,33 +15,48 @@
  */
 package com.google.code.jconts.instrument.context;
 
+import static com.google.code.jconts.instrument.Constants.OBJECT_TYPE;
+
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 /**
  * The purpose of this class is to track which variables are required for
  * storing the state of the asynchronous method when await is invoked.
  * <p>
- * Currently, each invocation of <code>await</code> uses separate set of fields.
+ * Each invocation of <code>await</code> reuses fields of the same type
+ * allocated for other invocations. In compact mode, fields are shared even
+ * more aggressively: all references are stored in <code>Object</code> fields,
+ * <code>float</code> and all integer types up to <code>int</code> are stored
+ * in <code>int</code> fields and <code>double</code> is stored in
+ * <code>long</code> fields.
  */
 public class MethodStateContext {
 	private int counter;
+	private final boolean compact;
 
 	private List<String> fieldNames = new ArrayList<String>();
 	private List<Type> fieldTypes = new ArrayList<Type>();
 
+	public MethodStateContext(boolean compact) {
+		this.compact = compact;
+	}
+
 	public String[] stateFields(Type... types) {
 		String[] result = new String[types.length];
 		
 		// Try to reuse existing field.
 		Set<Integer> used = new HashSet<Integer>();
 		outer: for (int i = 0; i < types.length; ++i) {
+			Type type = storageType(types[i]);
 			for (int field = 0; field < fieldNames.size(); ++field) {
-				if (types[i].equals(fieldTypes.get(field)) && used.add(field)) {
+				if (type.equals(fieldTypes.get(field)) && used.add(field)) {
 					result[i] = fieldNames.get(field);
 					continue outer;
 				}
@@ -49,12 +64,79 @@ public class MethodStateContext {
 			
 			// Not found, add new one
 			String field = "var" + counter++;
+			used.add(fieldNames.size());
 			result[i] = field;
 			fieldNames.add(field);
-			fieldTypes.add(types[i]);
+			fieldTypes.add(type);
 		}
 		return result;
 	}
+
+	/**
+	 * Type of the field used to store the value of given type.
+	 */
+	public Type storageType(Type type) {
+		if (!compact) {
+			return type;
+		}
+		switch (type.getSort()) {
+		case Type.BOOLEAN:
+		case Type.CHAR:
+		case Type.BYTE:
+		case Type.SHORT:
+		case Type.INT:
+		case Type.FLOAT:
+			return Type.INT_TYPE;
+		case Type.LONG:
+		case Type.DOUBLE:
+			return Type.LONG_TYPE;
+		default:
+			return OBJECT_TYPE;
+		}
+	}
+
+	/**
+	 * Generates code storing the value into the state field. State and the
+	 * value should be on the stack.
+	 */
+	public void putField(MethodVisitor mv, String owner, String field,
+			Type type) {
+		Type storage = storageType(type);
+		if (type.getSort() == Type.FLOAT && storage.getSort() == Type.INT) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float",
+					"floatToRawIntBits", "(F)I");
+		} else if (type.getSort() == Type.DOUBLE
+				&& storage.getSort() == Type.LONG) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double",
+					"doubleToRawLongBits", "(D)J");
+		}
+		mv.visitFieldInsn(Opcodes.PUTFIELD, owner, field,
+				storage.getDescriptor());
+	}
+
+	/**
+	 * Generates code loading the value from the state field. State should be
+	 * on the stack.
+	 */
+	public void getField(MethodVisitor mv, String owner, String field,
+			Type type) {
+		Type storage = storageType(type);
+		mv.visitFieldInsn(Opcodes.GETFIELD, owner, field,
+				storage.getDescriptor());
+		if (type.getSort() == Type.FLOAT && storage.getSort() == Type.INT) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Float",
+					"intBitsToFloat", "(I)F");
+		} else if (type.getSort() == Type.DOUBLE
+				&& storage.getSort() == Type.LONG) {
+			mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Double",
+					"longBitsToDouble", "(J)D");
+		} else if (!type.equals(storage)
+				&& (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY)) {
+			mv.visitTypeInsn(Opcodes.CHECKCAST,
+					type.getSort() == Type.ARRAY ? type.getDescriptor() : type
+							.getInternalName());
+		}
+	}
 	
 	public List<String> getFieldNames() {
 		return fieldNames;
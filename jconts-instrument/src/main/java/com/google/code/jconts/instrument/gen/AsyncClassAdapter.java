@@ -15,6 +15,11 @@
  */
 package com.google.code.jconts.instrument.gen;
 
+import static com.google.code.jconts.instrument.Constants.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
 import java.util.Map;
 
 import org.objectweb.asm.ClassAdapter;
@@ -22,8 +27,16 @@ import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
 
+import com.google.code.jconts.instrument.AsyncMethodsResolver;
+import com.google.code.jconts.instrument.context.AwaitContext;
 import com.google.code.jconts.instrument.context.MethodContext;
+import com.google.code.jconts.instrument.util.Config;
+import com.google.code.jconts.instrument.util.Liveness;
+import com.google.code.jconts.instrument.util.LocalTypes;
 import com.google.code.jconts.instrument.util.TransformationContext;
 
 /**
@@ -35,14 +48,16 @@ public class AsyncClassAdapter extends ClassAdapter {
 
 	private final TransformationContext context;
 	private final Map<String, MethodContext> methods;
+	private final AsyncMethodsResolver resolver;
 
 	private String name;
 
 	public AsyncClassAdapter(TransformationContext context, ClassVisitor cv,
-			Map<String, MethodContext> methods) {
+			Map<String, MethodContext> methods, AsyncMethodsResolver resolver) {
 		super(cv);
 		this.context = context;
 		this.methods = methods;
+		this.resolver = resolver;
 	}
 
 	@Override
@@ -61,37 +76,107 @@ public class AsyncClassAdapter extends ClassAdapter {
 			return cv.visitMethod(access, name, desc, signature, exceptions);
 		}
 
+		// Generated classes are written after the methods using them
+		context.declareClass(info.stateClassName, info.stateSuperName);
+		if (!info.singleClass) {
+			context.declareClass(info.computationClassName, OBJECT_NAME);
+			context.declareClass(info.continuationClassName, OBJECT_NAME);
+		}
+
 		// method will create computation and return it
 		new TramplineMethodGenerator(info).accept(cv);
 
-		// implementation of Computation<>
-		new ComputationClassGenerator(info).accept(context);
-
-		// implementation of Continuation<>
-		new ContinuationClassGenerator(info).accept(context);
+		// In single class mode, state class implements both
+		if (!info.singleClass) {
+			// implementation of Computation<>
+			new ComputationClassGenerator(info).accept(context);
+		}
 
-		// Rename our method and transform it
-		MethodVisitor mv = cv.visitMethod(
-				access | Opcodes.ACC_FINAL /*| Opcodes.ACC_SYNTHETIC*/,
+		// Rename our method and transform it. It is invoked by generated
+		// classes, so it could not be private. Transformed method is buffered,
+		// so it could be split if it is too large.
+		final MethodVisitor target = new MethodNode(
+				(access & ~Opcodes.ACC_PRIVATE) | Opcodes.ACC_FINAL /*| Opcodes.ACC_SYNTHETIC*/,
 				name + "$async",
 				Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
-						info.stateType, Type.INT_TYPE }), null, exceptions);
+						info.stateType, Type.INT_TYPE }), null, exceptions) {
+			@Override
+			public void visitEnd() {
+				super.visitEnd();
+				new MethodSplitter(info, this, Config.getMaxMethodSize())
+						.accept(cv);
+			}
+		};
 
-		MethodVisitor methodVisitor = new AsyncMethodAdapter(info, mv) {
+		// Method body is buffered, so we could analyze which locals should
+		// be saved at each await (and their types) before transforming it
+		MethodVisitor methodVisitor = new MethodNode(access, name, desc,
+				signature, exceptions) {
 			@Override
 			public void visitEnd() {
 				super.visitEnd();
-				// Now we have all information about used locals to generate
-				// state class body
-				new StateClassGenerator(info).accept(context);
+
+				BitSet[] live = Liveness.analyze(this);
+				Type[][] types = LocalTypes.analyze(info.owner, this,
+						context.getHierarchy());
+				List<AwaitContext> awaits = new ArrayList<AwaitContext>();
+				for (int i = 0; i < instructions.size(); ++i) {
+					AbstractInsnNode insn = instructions.get(i);
+					if (insn instanceof MethodInsnNode) {
+						MethodInsnNode min = (MethodInsnNode) insn;
+						Type awaitType = AsyncMethodAdapter.awaitType(
+								min.getOpcode(), min.owner, min.name, min.desc);
+						if (awaitType == OBJECT_TYPE) {
+							awaits.add(new AwaitContext(live[i], types[i],
+									AsyncMethodAdapter.isTailAwait(this, i),
+									callee(this, i)));
+						} else if (awaitType != null) {
+							// Result of the primitive await is boxed (if
+							// returned), so it is never a tail one
+							awaits.add(new AwaitContext(live[i], types[i],
+									false, null));
+						}
+					}
+				}
+
+				accept(new AsyncMethodAdapter(info, target, awaits) {
+					@Override
+					public void visitEnd() {
+						super.visitEnd();
+						// Now we have all information about used locals (and
+						// primitive awaits) to generate state class body
+						new StateClassGenerator(info).accept(context);
+						if (!info.singleClass) {
+							// implementation of Continuation<>
+							new ContinuationClassGenerator(info)
+									.accept(context);
+						}
+					}
+				});
 			}
 		};
+		// CompletionStage awaits are turned into regular ones
+		methodVisitor = new FutureAwaitAdapter(methodVisitor);
 		if (info.isCoroutine()) {
 			methodVisitor = new CoroutineMethodAdapter(info, methodVisitor);
 		}
 		return methodVisitor;
 	}
 
+	/**
+	 * Determines the asynchronous method that produced the computation
+	 * awaited at given index, if it is known one.
+	 */
+	private MethodContext callee(MethodNode method, int index) {
+		MethodInsnNode invocation = AsyncMethodAdapter.awaitedInvocation(
+				method, index);
+		if (invocation == null) {
+			return null;
+		}
+		return resolver.resolve(invocation.getOpcode(), invocation.owner,
+				invocation.name, invocation.desc);
+	}
+
 	@Override
 	public void visitEnd() {
 		// All transformed classes must be inner classes
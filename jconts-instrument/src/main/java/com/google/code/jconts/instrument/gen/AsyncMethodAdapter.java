@@ -18,6 +18,7 @@ package com.google.code.jconts.instrument.gen;
 import static com.google.code.jconts.instrument.Constants.*;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 
@@ -26,10 +27,22 @@ import org.objectweb.asm.MethodAdapter;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
-
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+
+import com.google.code.jconts.instrument.context.AwaitContext;
 import com.google.code.jconts.instrument.context.MethodContext;
+import com.google.code.jconts.instrument.util.CodeVisitors;
 import com.google.code.jconts.instrument.util.Frames;
 import com.google.code.jconts.instrument.util.IntroduceLocalsAdapter;
+import com.google.code.jconts.instrument.util.LocalTypes;
 
 /**
  * This adapter enables transformation of the methods marked by IsAsync
@@ -46,9 +59,20 @@ public class AsyncMethodAdapter extends MethodAdapter {
 	private final Label catchLabel = new Label();
 
 	private final List<Label> dispatchTable = new ArrayList<Label>();
+	private final List<ResumePoint> resumePoints = new ArrayList<ResumePoint>();
 	private final List<Type> locals = new ArrayList<Type>();
 	private boolean prologGenerated = false;
 
+	/**
+	 * Labels (and their line numbers) visited before the first instruction.
+	 * They are emitted after the prolog, so jumps back to the beginning of the
+	 * original body (loop at the very start of the method) do not go through
+	 * the dispatcher.
+	 */
+	private final List<Label> leadingLabels = new ArrayList<Label>();
+	private final List<Integer> leadingLines = new ArrayList<Integer>();
+	private final List<Label> leadingLineLabels = new ArrayList<Label>();
+
 	/**
 	 * Reference to the destination method writer. It is used when we need to
 	 * use local variables, added by <code>IntroduceLocalAdapter</code>, because
@@ -56,12 +80,161 @@ public class AsyncMethodAdapter extends MethodAdapter {
 	 */
 	private final MethodVisitor target;
 
-	public AsyncMethodAdapter(MethodContext info, MethodVisitor mv) {
+	/**
+	 * Information about each await (in order of appearance), or
+	 * <code>null</code> if all locals should be saved.
+	 */
+	private final List<AwaitContext> awaits;
+	private int awaitCount;
+
+	/**
+	 * Set after tail await until the following <code>areturn</code> sequence
+	 * is skipped.
+	 */
+	private boolean skipTail;
+
+	public AsyncMethodAdapter(MethodContext info, MethodVisitor mv,
+			List<AwaitContext> awaits) {
 		super(new IntroduceLocalsAdapter(mv, info.isStatic(), info.stateType,
 				Type.INT_TYPE));
 
 		this.info = info;
 		this.target = mv;
+		this.awaits = awaits;
+	}
+
+	public static boolean isAwait(int opcode, String owner, String name,
+			String desc) {
+		return opcode == Opcodes.INVOKESTATIC && ASYNC_NAME.equals(owner)
+				&& AWAIT_NAME.equals(name) && AWAIT_DESC.equals(desc);
+	}
+
+	/**
+	 * @return type of the await result (<code>Object</code> for the regular
+	 *         await, primitive type for the primitive ones) or
+	 *         <code>null</code> if invocation is not an await
+	 */
+	public static Type awaitType(int opcode, String owner, String name,
+			String desc) {
+		if (isAwait(opcode, owner, name, desc)) {
+			return OBJECT_TYPE;
+		}
+		if (opcode == Opcodes.INVOKESTATIC) {
+			return PrimitiveAwaits.awaitType(owner, name, desc);
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if await at given index is a tail await, that is, its result is
+	 * immediately returned: <code>return Async.areturn(Async.await(c));</code>
+	 * Tail awaits outside of <code>try</code> blocks could pass the
+	 * continuation of the method directly to the awaited computation.
+	 */
+	public static boolean isTailAwait(MethodNode method, int index) {
+		InsnList insns = method.instructions;
+		for (Object o : method.tryCatchBlocks) {
+			TryCatchBlockNode tcb = (TryCatchBlockNode) o;
+			if (insns.indexOf(tcb.start) <= index
+					&& index < insns.indexOf(tcb.end)) {
+				return false;
+			}
+		}
+
+		// Expect optional CHECKCAST, areturn(Object) and ARETURN
+		boolean cast = false;
+		boolean areturn = false;
+		for (int i = index + 1; i < insns.size(); ++i) {
+			AbstractInsnNode insn = insns.get(i);
+			switch (insn.getType()) {
+			case AbstractInsnNode.LINE:
+				continue;
+			case AbstractInsnNode.LABEL:
+				if (isReferenced(method, (LabelNode) insn)) {
+					return false;
+				}
+				continue;
+			case AbstractInsnNode.TYPE_INSN:
+				if (cast || areturn || insn.getOpcode() != Opcodes.CHECKCAST) {
+					return false;
+				}
+				cast = true;
+				continue;
+			case AbstractInsnNode.METHOD_INSN:
+				MethodInsnNode min = (MethodInsnNode) insn;
+				if (areturn || min.getOpcode() != Opcodes.INVOKESTATIC
+						|| !ASYNC_NAME.equals(min.owner)
+						|| !ARETURN_NAME.equals(min.name)
+						|| !ARETURN_VALUE_DESC.equals(min.desc)) {
+					return false;
+				}
+				areturn = true;
+				continue;
+			case AbstractInsnNode.INSN:
+				return areturn && insn.getOpcode() == Opcodes.ARETURN;
+			default:
+				return false;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the invocation that produced the computation awaited at given
+	 * index, for example <code>Async.await(compute())</code>.
+	 *
+	 * @return invocation instruction, or <code>null</code> if computation is
+	 *         not produced by the invocation immediately preceding the await
+	 */
+	public static MethodInsnNode awaitedInvocation(MethodNode method,
+			int index) {
+		InsnList insns = method.instructions;
+		for (int i = index - 1; i >= 0; --i) {
+			AbstractInsnNode insn = insns.get(i);
+			switch (insn.getType()) {
+			case AbstractInsnNode.LINE:
+				continue;
+			case AbstractInsnNode.LABEL:
+				if (isReferenced(method, (LabelNode) insn)) {
+					return null;
+				}
+				continue;
+			case AbstractInsnNode.METHOD_INSN:
+				return (MethodInsnNode) insn;
+			default:
+				return null;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isReferenced(MethodNode method, LabelNode label) {
+		for (Object o : method.tryCatchBlocks) {
+			TryCatchBlockNode tcb = (TryCatchBlockNode) o;
+			if (tcb.start == label || tcb.end == label || tcb.handler == label) {
+				return true;
+			}
+		}
+		InsnList insns = method.instructions;
+		for (int i = 0; i < insns.size(); ++i) {
+			AbstractInsnNode insn = insns.get(i);
+			if (insn instanceof JumpInsnNode) {
+				if (((JumpInsnNode) insn).label == label) {
+					return true;
+				}
+			} else if (insn instanceof TableSwitchInsnNode) {
+				TableSwitchInsnNode sw = (TableSwitchInsnNode) insn;
+				if (sw.dflt == label || sw.labels.contains(label)) {
+					return true;
+				}
+			} else if (insn instanceof LookupSwitchInsnNode) {
+				LookupSwitchInsnNode sw = (LookupSwitchInsnNode) insn;
+				if (sw.dflt == label || sw.labels.contains(label)) {
+					return true;
+				}
+			}
+		}
+		return false;
 	}
 
 	@Override
@@ -117,6 +290,10 @@ public class AsyncMethodAdapter extends MethodAdapter {
 	@Override
 	public void visitTypeInsn(int opcode, String type) {
 		checkProlog();
+		if (skipTail) {
+			// CHECKCAST of the tail await result
+			return;
+		}
 		super.visitTypeInsn(opcode, type);
 	}
 
@@ -177,15 +354,50 @@ public class AsyncMethodAdapter extends MethodAdapter {
 		// Restore the original method arguments
 		// argX = state.varX
 		String[] names = info.entryLocalsVars;
+		int slot = info.thisOffset;
 		for (int i = 0; i < info.entryLocals.length; ++i) {
 			// We go directly to target, introduced var used
 			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
-			mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName, names[i],
-					info.entryLocals[i].getDescriptor());
+			info.tracker.getField(mv, info.stateClassName, names[i],
+					info.entryLocals[i]);
 			mv.visitVarInsn(info.entryLocals[i].getOpcode(Opcodes.ISTORE),
-					info.isStatic() ? i : i + 1);
+					slot);
+			slot += info.entryLocals[i].getSize();
+		}
 
+		if (!leadingLabels.isEmpty()) {
+			// Original body could jump here, arguments are already restored
+			if (info.entryLocals.length > 0) {
+				mv.visitFrame(Opcodes.F_FULL, frame.length, frame, 0,
+						new Object[0]);
+			}
+			for (Label leading : leadingLabels) {
+				mv.visitLabel(leading);
+			}
+			for (int i = 0; i < leadingLines.size(); ++i) {
+				mv.visitLineNumber(leadingLines.get(i),
+						leadingLineLabels.get(i));
+			}
+		}
+	}
+
+	@Override
+	public void visitLabel(Label label) {
+		if (!prologGenerated) {
+			leadingLabels.add(label);
+			return;
+		}
+		mv.visitLabel(label);
+	}
+
+	@Override
+	public void visitLineNumber(int line, Label start) {
+		if (!prologGenerated) {
+			leadingLines.add(line);
+			leadingLineLabels.add(start);
+			return;
 		}
+		mv.visitLineNumber(line, start);
 	}
 
 	@Override
@@ -219,6 +431,11 @@ public class AsyncMethodAdapter extends MethodAdapter {
 			String desc) {
 		checkProlog();
 
+		if (skipTail) {
+			// areturn of the tail await result
+			return;
+		}
+
 		if (opcode == Opcodes.INVOKESTATIC && ASYNC_NAME.equals(owner)
 				&& ARETURN_NAME.equals(name)) {
 
@@ -239,36 +456,221 @@ public class AsyncMethodAdapter extends MethodAdapter {
 			mv.visitInsn(Opcodes.ACONST_NULL);
 			return;
 		}
-		if (opcode == Opcodes.INVOKESTATIC && ASYNC_NAME.equals(owner)
-				&& AWAIT_NAME.equals(name) && AWAIT_DESC.equals(desc)) {
+		Type awaitType = awaitType(opcode, owner, name, desc);
+		if (awaitType != null) {
+			AwaitContext await = awaits != null ? awaits.get(awaitCount)
+					: null;
+			awaitCount++;
+			boolean tail = await != null && await.tail;
+			boolean primitive = awaitType.getSort() != Type.OBJECT;
+			// Method continues on the executor, wrap the computation.
+			// Nothing to continue after the tail await.
+			boolean hop = info.resumeOnOwner != null && !tail;
+			if (hop) {
+				mv.visitFieldInsn(Opcodes.GETSTATIC, info.resumeOnOwner,
+						info.resumeOnField, EXECUTOR_DESC);
+				mv.visitMethodInsn(Opcodes.INVOKESTATIC, ASYNC_NAME,
+						RESUME_ON_NAME, primitive ? PrimitiveAwaits
+								.resumeOnDesc(awaitType) : RESUME_ON_DESC);
+			}
 
-			// Computation<T> is on stack
+			// Computation is known to be generated one, start its method
+			// directly
+			MethodContext callee = await != null && !hop && !primitive ? await.callee
+					: null;
+			if (callee != null) {
+				mv.visitTypeInsn(Opcodes.CHECKCAST, await
+						.computationClassName());
+				throwIfCancelled();
+			}
 
-			// FIXME: ...
-			// if (stack.size() != 1) {
-			// throw new IllegalStateException(
-			// "Stack preserving is not supported!");
-			// }
+			if (tail) {
+				// computation.execute(state.continuation);
+				// return;
+				target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+				mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName,
+						CONTINUATION_FIELD, CONTINUATION_DESC);
+				execute(callee);
+				super.visitInsn(Opcodes.RETURN);
+				skipTail = true;
+				return;
+			}
+			generateAwait(await, callee, awaitType);
+			return;
+		}
+		super.visitMethodInsn(opcode, owner, name, desc);
+	}
 
-			int index = dispatchTable.size();
+	/**
+	 * Throws cancellation exception if the token of the state is cancelled.
+	 * Computations started directly share the token with the awaiting method,
+	 * so this is the check they would do when started.
+	 */
+	private void throwIfCancelled() {
+		Label proceed = new Label();
+		target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+		mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName, TOKEN_FIELD,
+				TOKEN_DESC);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, TOKEN_NAME,
+				TOKEN_CANCELLATION_NAME, TOKEN_CANCELLATION_DESC);
+		mv.visitInsn(Opcodes.DUP);
+		mv.visitJumpInsn(Opcodes.IFNULL, proceed);
+		mv.visitInsn(Opcodes.ATHROW);
+		mv.visitLabel(proceed);
+		mv.visitInsn(Opcodes.POP);
+	}
 
-			// Save state
-			List<Type> l = new ArrayList<Type>(locals);
-			if (!info.isStatic()) {
-				l.remove(0);
-			}
+	/**
+	 * Executes the computation with the continuation, both are on the stack.
+	 * If the method produced the computation is known, its state is
+	 * initialized and its <code>$async</code> method is invoked directly,
+	 * same as the generated <code>execute</code> would do.
+	 */
+	private void execute(MethodContext callee) {
+		if (callee == null) {
+			mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, COMPUTATION_NAME,
+					COMPUTATION_EXECUTE_NAME, COMPUTATION_EXECUTE_DESC);
+			return;
+		}
+		String computation = callee.singleClass ? callee.stateClassName
+				: callee.computationClassName;
 
-			// state.varX = locX
-			String[] vars = info.tracker.stateFields(l.toArray(new Type[0]));
-			for (int i = 0; i < vars.length; ++i) {
-				// state variable
-				target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
-				mv.visitVarInsn(l.get(i).getOpcode(Opcodes.ILOAD), i
-						+ info.thisOffset);
-				mv.visitFieldInsn(Opcodes.PUTFIELD, info.stateClassName,
-						vars[i], l.get(i).getDescriptor());
+		// callee.continuation = continuation
+		mv.visitInsn(Opcodes.SWAP);
+		mv.visitInsn(Opcodes.DUP_X1);
+		loadCalleeState(callee);
+		mv.visitInsn(Opcodes.SWAP);
+		mv.visitFieldInsn(Opcodes.PUTFIELD, callee.stateClassName,
+				CONTINUATION_FIELD, CONTINUATION_DESC);
+
+		// callee.token = state.token
+		mv.visitInsn(Opcodes.DUP);
+		loadCalleeState(callee);
+		target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+		mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName, TOKEN_FIELD,
+				TOKEN_DESC);
+		mv.visitFieldInsn(Opcodes.PUTFIELD, callee.stateClassName,
+				TOKEN_FIELD, TOKEN_DESC);
+
+		// [outer.]name$async(callee, 0)
+		if (!callee.isStatic()) {
+			mv.visitInsn(Opcodes.DUP);
+			mv.visitFieldInsn(Opcodes.GETFIELD, computation, "this$0", 'L'
+					+ callee.owner + ';');
+			mv.visitInsn(Opcodes.SWAP);
+		}
+		loadCalleeState(callee);
+		mv.visitInsn(Opcodes.ICONST_0);
+		mv.visitMethodInsn(callee.isStatic() ? Opcodes.INVOKESTATIC
+				: Opcodes.INVOKEVIRTUAL, callee.owner, callee.name + "$async",
+				Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
+						callee.stateType, Type.INT_TYPE }));
+	}
+
+	/**
+	 * Replaces the computation on the stack with its state.
+	 */
+	private void loadCalleeState(MethodContext callee) {
+		if (!callee.singleClass) {
+			mv.visitFieldInsn(Opcodes.GETFIELD, callee.computationClassName,
+					"state", 'L' + callee.stateClassName + ';');
+		}
+	}
+
+	private void generateAwait(AwaitContext await, MethodContext callee,
+			Type awaitType) {
+		// Computation<T> (or IntComputation, etc.) is on stack
+		boolean primitive = awaitType.getSort() != Type.OBJECT;
+		if (primitive) {
+			info.primitiveResults.add(awaitType);
+		}
+
+		// FIXME: ...
+		// if (stack.size() != 1) {
+		// throw new IllegalStateException(
+		// "Stack preserving is not supported!");
+		// }
+
+		// Computation completed already, take its value directly
+		// if (computation instanceof CompletedComputation) {
+		// value = ((CompletedComputation) computation).getValue();
+		// goto completed;
+		// }
+		Label completed = new Label();
+		boolean completedCheck = callee == null && !primitive;
+		if (completedCheck) {
+			Label notCompleted = new Label();
+			mv.visitInsn(Opcodes.DUP);
+			mv.visitTypeInsn(Opcodes.INSTANCEOF, COMPLETED_NAME);
+			mv.visitJumpInsn(Opcodes.IFEQ, notCompleted);
+			mv.visitTypeInsn(Opcodes.CHECKCAST, COMPLETED_NAME);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, COMPLETED_NAME,
+					COMPLETED_GET_VALUE_NAME, COMPLETED_GET_VALUE_DESC);
+			mv.visitJumpInsn(Opcodes.GOTO, completed);
+			mv.visitLabel(notCompleted);
+		}
+
+		int index = dispatchTable.size();
+		if (primitive) {
+			info.primitiveResumes.put(index, awaitType);
+		}
+
+		// Locals live after the await
+		BitSet live = await != null ? await.live : null;
+		Type[] types = slotTypes(await != null ? await.types : null);
+
+		// Save state, only locals that are live after resuming. Locals
+		// holding null are not saved, null is stored to them on resume.
+		List<Type> l = new ArrayList<Type>();
+		List<Integer> liveSlots = new ArrayList<Integer>();
+		List<Integer> nullSlots = new ArrayList<Integer>();
+		for (int slot = info.thisOffset; slot < types.length; ++slot) {
+			if (types[slot] != null && (live == null || live.get(slot))) {
+				if (types[slot] == LocalTypes.NULL_TYPE) {
+					nullSlots.add(slot);
+				} else {
+					l.add(types[slot]);
+					liveSlots.add(slot);
+				}
 			}
+		}
+		int[] slots = new int[l.size()];
+		for (int i = 0; i < slots.length; ++i) {
+			slots[i] = liveSlots.get(i);
+		}
+
+		// state.varX = locX
+		String[] vars = info.tracker.stateFields(l.toArray(new Type[0]));
+		if (completedCheck) {
+			info.completedAwaits.add(new int[] { index, vars.length });
+		}
+		for (int i = 0; i < vars.length; ++i) {
+			// state variable
+			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+			mv.visitVarInsn(l.get(i).getOpcode(Opcodes.ILOAD), slots[i]);
+			info.tracker.putField(mv, info.stateClassName, vars[i],
+					l.get(i));
+		}
 
+		if (info.trampoline) {
+			// index = state.beginAwait()
+			// Index variable is not used until suspend, so it keeps the
+			// number of the await meanwhile.
+			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, info.stateClassName,
+					STATE_BEGIN_AWAIT_NAME, STATE_BEGIN_AWAIT_DESC);
+			target.visitVarInsn(Opcodes.ISTORE, 1 + info.thisOffset);
+		}
+
+		if (info.singleClass) {
+			// state.index = index;
+			// State is continuation itself
+			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+			CodeVisitors.push(mv, index);
+			mv.visitFieldInsn(Opcodes.PUTFIELD, info.stateClassName,
+					"index", "I");
+			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+		} else {
 			// Create instance of continuation
 			// new Continuation([this, ]state, index);
 			mv.visitTypeInsn(Opcodes.NEW, info.continuationClassName);
@@ -281,69 +683,96 @@ public class AsyncMethodAdapter extends MethodAdapter {
 
 			// state and index
 			target.visitVarInsn(Opcodes.ALOAD, 0 + info.thisOffset);
-			mv.visitIntInsn(Opcodes.BIPUSH, index);
+			CodeVisitors.push(mv, index);
 
 			String ctorDesc;
 			if (info.isStatic()) {
-				ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
-						info.stateType, Type.INT_TYPE });
+				ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE,
+						new Type[] { info.stateType, Type.INT_TYPE });
 			} else {
-				ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
-						Type.getObjectType(info.owner), info.stateType,
-						Type.INT_TYPE });
+				ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE,
+						new Type[] { Type.getObjectType(info.owner),
+								info.stateType, Type.INT_TYPE });
 			}
 			mv.visitMethodInsn(Opcodes.INVOKESPECIAL,
 					info.continuationClassName, CTOR_NAME, ctorDesc);
+		}
 
-			mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, COMPUTATION_NAME,
-					COMPUTATION_EXECUTE_NAME, COMPUTATION_EXECUTE_DESC);
-			super.visitInsn(Opcodes.RETURN);
-
-			// Restore state
-			// mv.visitFrame(Opcodes.F_SAME, 0, new Object[0], 0, new
-			// Object[0]);
-			Label label = new Label();
-
-			int invokeIndex = dispatchTable.size();
-			dispatchTable.add(label); // for invoke
-			dispatchTable.add(label); // for setException
-			mv.visitLabel(label);
-			for (int i = 0; i < vars.length; ++i) {
-				// state variable
-				target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
-				mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName,
-						vars[i], l.get(i).getDescriptor());
-				mv.visitVarInsn(l.get(i).getOpcode(Opcodes.ISTORE), i
-						+ info.thisOffset);
-			}
+		if (primitive) {
+			// computation.executeInt(continuation)
+			String computationName = PrimitiveAwaits
+					.computationName(awaitType);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, computationName,
+					PrimitiveAwaits.executeName(awaitType), PrimitiveAwaits
+							.executeDesc(awaitType));
+		} else {
+			execute(callee);
+		}
 
-			// if (index == invokeIndex) goto invokeLabel;
-			Label invokeLabel = new Label();
+		Label resumed = new Label();
+		if (info.trampoline) {
+			// index = state.suspend(index);
+			// if (index >= 0) goto resumed;
+			// Computation was completed synchronously, locals are intact.
+			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
 			target.visitVarInsn(Opcodes.ILOAD, 1 + info.thisOffset);
-			mv.visitIntInsn(Opcodes.BIPUSH, invokeIndex);
-			mv.visitJumpInsn(Opcodes.IF_ICMPEQ, invokeLabel);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, info.stateClassName,
+					STATE_SUSPEND_NAME, STATE_SUSPEND_DESC);
+			mv.visitInsn(Opcodes.DUP);
+			target.visitVarInsn(Opcodes.ISTORE, 1 + info.thisOffset);
+			mv.visitJumpInsn(Opcodes.IFGE, resumed);
+		}
+		super.visitInsn(Opcodes.RETURN);
+
+		// Restore state
+		// Locals are restored out of line (after the dispatch table), so
+		// exception handlers covering the await see them initialized.
+		ResumePoint point = new ResumePoint(resumed, vars, l, slots,
+				nullSlots);
+		resumePoints.add(point);
+
+		int invokeIndex = dispatchTable.size();
+		dispatchTable.add(point.restore); // for invoke
+		dispatchTable.add(point.restore); // for setException
+		mv.visitLabel(resumed);
+
+		// if (index == invokeIndex) goto invokeLabel;
+		Label invokeLabel = new Label();
+		target.visitVarInsn(Opcodes.ILOAD, 1 + info.thisOffset);
+		CodeVisitors.push(mv, invokeIndex);
+		mv.visitJumpInsn(Opcodes.IF_ICMPEQ, invokeLabel);
 
-			// Throw exception
-			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
-			mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName,
-					"exception", THROWABLE_DESC);
-			mv.visitInsn(Opcodes.ATHROW);
+		// Throw exception
+		target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+		mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName,
+				"exception", THROWABLE_DESC);
+		mv.visitInsn(Opcodes.ATHROW);
 
-			// Push result value
-			// invokeLabel:
-			mv.visitLabel(invokeLabel);
-			target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
-			mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName, "result",
-					OBJECT_DESC);
-			return;
+		// Push result value
+		// invokeLabel:
+		mv.visitLabel(invokeLabel);
+		target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+		if (primitive) {
+			mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName,
+					PrimitiveAwaits.resultField(awaitType), awaitType
+							.getDescriptor());
+		} else {
+			mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName,
+					"result", OBJECT_DESC);
 		}
-		super.visitMethodInsn(opcode, owner, name, desc);
+		mv.visitLabel(completed);
 	}
 
 	@Override
 	public void visitInsn(int opcode) {
 		checkProlog();
 
+		if (skipTail) {
+			// ARETURN of the tail await result
+			skipTail = false;
+			return;
+		}
+
 		if (opcode == Opcodes.ARETURN) {
 			super.visitInsn(Opcodes.POP);
 			super.visitInsn(Opcodes.RETURN);
@@ -352,26 +781,71 @@ public class AsyncMethodAdapter extends MethodAdapter {
 		}
 	}
 
+	/**
+	 * Calculates types of locals indexed by slot. Exact types are used where
+	 * known, types from the last frame otherwise (where values of different
+	 * types are merged).
+	 */
+	private Type[] slotTypes(Type[] exact) {
+		// Local variable slots (long and double take two)
+		List<Type> fromFrame = new ArrayList<Type>();
+		for (Type type : locals) {
+			fromFrame.add(type);
+			if (type != null && type.getSize() == 2) {
+				fromFrame.add(null);
+			}
+		}
+		int size = fromFrame.size();
+		if (exact != null && exact.length > size) {
+			size = exact.length;
+		}
+		Type[] result = new Type[size];
+		for (int slot = 0; slot < size; ++slot) {
+			if (exact != null && slot < exact.length && exact[slot] != null) {
+				result[slot] = exact[slot];
+			} else if (slot < fromFrame.size()) {
+				result[slot] = fromFrame.get(slot);
+			}
+		}
+		return result;
+	}
+
 	@Override
 	public void visitMaxs(int maxStack, int maxLocals) {
-		// Table switch at the end of the method
+		// Table switch at the end of the method, indices are dense
 		mv.visitLabel(dispatchLabel);
 
 		Label dflt = new Label();
 
 		// Load index
 		target.visitVarInsn(Opcodes.ILOAD, 1 + info.thisOffset);
-		int[] keys = new int[dispatchTable.size()];
-		for (int i = 0; i < keys.length; ++i) {
-			keys[i] = i;
-		}
-		mv.visitLookupSwitchInsn(dflt, keys,
+		mv.visitTableSwitchInsn(0, dispatchTable.size() - 1, dflt,
 				dispatchTable.toArray(new Label[0]));
 
 		// FIXME: ...throw exception
 		mv.visitLabel(dflt);
 		mv.visitInsn(Opcodes.RETURN);
 
+		// Restore locals and continue after the await
+		for (ResumePoint point : resumePoints) {
+			mv.visitLabel(point.restore);
+			for (int i = 0; i < point.vars.length; ++i) {
+				Type type = point.types.get(i);
+
+				// state variable
+				target.visitVarInsn(Opcodes.ALOAD, info.isStatic() ? 0 : 1);
+				info.tracker.getField(mv, info.stateClassName,
+						point.vars[i], type);
+				mv.visitVarInsn(type.getOpcode(Opcodes.ISTORE),
+						point.slots[i]);
+			}
+			for (int slot : point.nullSlots) {
+				mv.visitInsn(Opcodes.ACONST_NULL);
+				mv.visitVarInsn(Opcodes.ASTORE, slot);
+			}
+			mv.visitJumpInsn(Opcodes.GOTO, point.resumed);
+		}
+
 		// catch block
 		mv.visitLabel(catchLabel);
 
@@ -388,4 +862,28 @@ public class AsyncMethodAdapter extends MethodAdapter {
 		// FIXME: evaluate properly
 		super.visitMaxs(maxStack + 4 + info.thisOffset, maxLocals + 2);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Locals to restore when method is resumed after the await.
+	 */
+	private static final class ResumePoint {
+		/** Restore code, target of the dispatch table */
+		final Label restore = new Label();
+		/** Where to continue after restoring */
+		final Label resumed;
+		final String[] vars;
+		final List<Type> types;
+		final int[] slots;
+		/** Locals holding null, these are not saved */
+		final List<Integer> nullSlots;
+
+		ResumePoint(Label resumed, String[] vars, List<Type> types,
+				int[] slots, List<Integer> nullSlots) {
+			this.resumed = resumed;
+			this.vars = vars;
+			this.types = types;
+			this.slots = slots;
+			this.nullSlots = nullSlots;
+		}
+	}
+}
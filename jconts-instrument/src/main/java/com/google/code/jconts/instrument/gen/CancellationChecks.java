@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.gen;
+
+import static com.google.code.jconts.instrument.Constants.*;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Code propagating and checking the cancellation token, shared by the
+ * generated computation and continuation classes.
+ */
+final class CancellationChecks {
+
+	/**
+	 * Expects the token on the stack. If token is cancelled, passes the
+	 * cancellation exception to the continuation in given local variable and
+	 * returns. Uses two stack slots.
+	 */
+	static void check(MethodVisitor mv, int continuationVar) {
+		Label proceed = new Label();
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, TOKEN_NAME,
+				TOKEN_CANCELLATION_NAME, TOKEN_CANCELLATION_DESC);
+		mv.visitInsn(Opcodes.DUP);
+		mv.visitJumpInsn(Opcodes.IFNULL, proceed);
+		mv.visitVarInsn(Opcodes.ALOAD, continuationVar);
+		mv.visitInsn(Opcodes.SWAP);
+		mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, CONTINUATION_NAME,
+				CONTINUATION_SET_EXCEPTION_NAME,
+				CONTINUATION_SET_EXCEPTION_DESC);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitLabel(proceed);
+		mv.visitInsn(Opcodes.POP);
+	}
+
+	/**
+	 * Generates <code>getCancellationToken()</code> returning the token of
+	 * the state. State is loaded from the field of the given class, or
+	 * <code>this</code> is the state if field is <code>null</code>.
+	 */
+	static void generateGetter(ClassVisitor cv, String owner, String field,
+			String stateClassName) {
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_FINAL
+				| Opcodes.ACC_PUBLIC, TOKEN_GET_NAME, TOKEN_GET_DESC, null,
+				null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		if (field != null) {
+			mv.visitFieldInsn(Opcodes.GETFIELD, owner, field, 'L'
+					+ stateClassName + ';');
+		}
+		mv.visitFieldInsn(Opcodes.GETFIELD, stateClassName, TOKEN_FIELD,
+				TOKEN_DESC);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(1, 1);
+		mv.visitEnd();
+	}
+
+	private CancellationChecks() {
+		// No instances.
+	}
+}
@@ -75,8 +75,8 @@ public class ComputationClassGenerator {
 		cv.visitInnerClass(info.computationClassName, info.owner,
 				info.computationSimpleName, 0);
 
-		cv.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "state",
-				stateDesc, null, null);
+		// Fields are accessed by awaits starting the method directly
+		cv.visitField(Opcodes.ACC_FINAL, "state", stateDesc, null, null);
 
 		generateConstructor(cv);
 		generateExecute(cv);
@@ -95,8 +95,8 @@ public class ComputationClassGenerator {
 			ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE,
 					new Type[] { info.stateType });
 		} else {
-			cv.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "this$0",
-					'L' + info.owner + ';', null, null);
+			cv.visitField(Opcodes.ACC_FINAL, "this$0", 'L' + info.owner + ';',
+					null, null);
 
 			ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
 					outerType, info.stateType });
@@ -154,6 +154,22 @@ public class ComputationClassGenerator {
 		Label end = new Label();
 		mv.visitLabel(start);
 
+		// state.token = CancellationToken.of(continuation)
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, name, "state", stateDesc);
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, TOKEN_NAME, TOKEN_OF_NAME,
+				TOKEN_OF_DESC);
+		mv.visitFieldInsn(Opcodes.PUTFIELD, info.stateClassName, TOKEN_FIELD,
+				TOKEN_DESC);
+
+		// Do not start if already cancelled
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, name, "state", stateDesc);
+		mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName, TOKEN_FIELD,
+				TOKEN_DESC);
+		CancellationChecks.check(mv, 1);
+
 		// Load outer this
 		if (!info.isStatic()) {
 			mv.visitVarInsn(Opcodes.ALOAD, 0);
@@ -173,7 +189,7 @@ public class ComputationClassGenerator {
 				CONTINUATION_FIELD, CONTINUATION_DESC);
 
 		// Initial state (0)
-		mv.visitIntInsn(Opcodes.BIPUSH, 0);
+		mv.visitInsn(Opcodes.ICONST_0);
 		mv.visitMethodInsn(info.isStatic() ? Opcodes.INVOKESTATIC
 				: Opcodes.INVOKEVIRTUAL, info.owner, info.name + "$async", Type
 				.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
@@ -17,6 +17,10 @@ package com.google.code.jconts.instrument.gen;
 
 import static com.google.code.jconts.instrument.Constants.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
@@ -44,6 +48,7 @@ public class ContinuationClassGenerator {
 	private final MethodContext info;
 	private final String stateDesc;
 	private final String signature;
+	private final String[] interfaces;
 
 	public ContinuationClassGenerator(MethodContext info) {
 		this.info = info;
@@ -63,14 +68,31 @@ public class ContinuationClassGenerator {
 		v.visitClassType(CONTINUATION_NAME);
 		v.visitTypeArgument('=').visitTypeVariable("T");
 		v.visitEnd();
+		v = sign.visitInterface();
+		v.visitClassType(TOKEN_HOLDER_NAME);
+		v.visitEnd();
+
+		// Continuations of the primitive awaits
+		List<String> names = new ArrayList<String>();
+		Collections.addAll(names, CONTINUATION_NAME, TOKEN_HOLDER_NAME);
+		for (Type type : PrimitiveAwaits.TYPES) {
+			if (info.primitiveResults.contains(type)) {
+				String name = PrimitiveAwaits.continuationName(type);
+				names.add(name);
+				v = sign.visitInterface();
+				v.visitClassType(name);
+				v.visitEnd();
+			}
+		}
 		this.signature = sign.toString();
+		this.interfaces = names.toArray(new String[names.size()]);
 	}
 
 	public void accept(TransformationContext context) {
 		ClassVisitor cv = context.writer();
 
 		cv.visit(Opcodes.V1_6, Opcodes.ACC_FINAL, info.continuationClassName,
-				signature, OBJECT_NAME, new String[] { CONTINUATION_NAME });
+				signature, OBJECT_NAME, interfaces);
 
 		cv.visitSource(info.ownerSource, null);
 		cv.visitInnerClass(info.stateClassName, info.owner,
@@ -85,8 +107,20 @@ public class ContinuationClassGenerator {
 				null, null);
 
 		generateConstructor(cv);
-		generateExecute(cv, true);
-		generateExecute(cv, false);
+		generateExecute(cv, CONTINUATION_INVOKE_NAME,
+				CONTINUATION_INVOKE_DESC, "result", OBJECT_TYPE, false);
+		generateExecute(cv, CONTINUATION_SET_EXCEPTION_NAME,
+				CONTINUATION_SET_EXCEPTION_DESC, "exception", Type
+						.getObjectType(THROWABLE_NAME), true);
+		for (Type type : PrimitiveAwaits.TYPES) {
+			if (info.primitiveResults.contains(type)) {
+				generateExecute(cv, PrimitiveAwaits.invokeName(type),
+						PrimitiveAwaits.invokeDesc(type), PrimitiveAwaits
+								.resultField(type), type, false);
+			}
+		}
+		CancellationChecks.generateGetter(cv, info.continuationClassName,
+				"state", info.stateClassName);
 
 		cv.visitEnd();
 	}
@@ -156,42 +190,58 @@ public class ContinuationClassGenerator {
 		mv.visitEnd();
 	}
 
-	private void generateExecute(ClassVisitor cv, boolean execute) {
+	/**
+	 * Generates <code>invoke(T result)</code>,
+	 * <code>setException(Throwable t)</code> or <code>invokeInt(int)</code>
+	 * (and friends), which save the value to the given state field and resume
+	 * the method.
+	 */
+	private void generateExecute(ClassVisitor cv, String method, String desc,
+			String field, Type type, boolean exception) {
 		final String name = info.continuationClassName;
 		final Type outerType = Type.getObjectType(info.owner);
+		final boolean execute = !exception;
 
-		// Generate invoke(T result);
 		String signature = null;
-		if (execute) {
+		if (type == OBJECT_TYPE) {
 			SignatureWriter sign = new SignatureWriter();
 			sign.visitParameterType().visitTypeVariable("T");
 			sign.visitReturnType().visitBaseType('V'); // void
 			signature = sign.toString();
 		}
 		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_FINAL
-				| Opcodes.ACC_PUBLIC, execute ? CONTINUATION_INVOKE_NAME
-				: CONTINUATION_SET_EXCEPTION_NAME,
-				execute ? CONTINUATION_INVOKE_DESC
-						: CONTINUATION_SET_EXCEPTION_DESC, signature, null);
+				| Opcodes.ACC_PUBLIC, method, desc, signature, null);
 		mv.visitCode();
 		Label start = new Label();
 		Label end = new Label();
 		mv.visitLabel(start);
 
-		// Load outer this
-		if (!info.isStatic()) {
+		// Complete the await with exception if cancelled meanwhile
+		if (execute) {
 			mv.visitVarInsn(Opcodes.ALOAD, 0);
-			mv.visitFieldInsn(Opcodes.GETFIELD, name, "this$0",
-					outerType.getDescriptor());
+			mv.visitFieldInsn(Opcodes.GETFIELD, name, "state", stateDesc);
+			mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName,
+					TOKEN_FIELD, TOKEN_DESC);
+			CancellationChecks.check(mv, 0);
 		}
 
 		// state.result = result or state.exception = throwable
 		mv.visitVarInsn(Opcodes.ALOAD, 0);
 		mv.visitFieldInsn(Opcodes.GETFIELD, name, "state", stateDesc);
-		mv.visitVarInsn(Opcodes.ALOAD, 1);
-		mv.visitFieldInsn(Opcodes.PUTFIELD, info.stateClassName,
-				execute ? "result" : "exception", execute ? OBJECT_DESC
-						: THROWABLE_DESC);
+		if (execute) {
+			PrimitiveAwaits.storeResult(mv, info, name, type);
+		} else {
+			mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+			mv.visitFieldInsn(Opcodes.PUTFIELD, info.stateClassName, field,
+					type.getDescriptor());
+		}
+
+		// Load outer this
+		if (!info.isStatic()) {
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitFieldInsn(Opcodes.GETFIELD, name, "this$0",
+					outerType.getDescriptor());
+		}
 
 		// Load state field
 		mv.visitVarInsn(Opcodes.ALOAD, 0);
@@ -205,12 +255,31 @@ public class ContinuationClassGenerator {
 			mv.visitInsn(Opcodes.IADD);
 		}
 
+		Label exit = new Label();
+		if (info.trampoline) {
+			// if (!state.resume(index)) return;
+			// Awaiting frame is still active, it will continue by itself.
+			mv.visitInsn(Opcodes.DUP2);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, info.stateClassName,
+					STATE_RESUME_NAME, STATE_RESUME_DESC);
+			mv.visitJumpInsn(Opcodes.IFEQ, exit);
+		}
+
 		mv.visitMethodInsn(info.isStatic() ? Opcodes.INVOKESTATIC
 				: Opcodes.INVOKEVIRTUAL, info.owner, info.name + "$async", Type
 				.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
 						info.stateType, Type.INT_TYPE }));
 
 		mv.visitInsn(Opcodes.RETURN);
+		if (info.trampoline) {
+			mv.visitLabel(exit);
+			// Drop state, index and outer this
+			mv.visitInsn(Opcodes.POP2);
+			if (!info.isStatic()) {
+				mv.visitInsn(Opcodes.POP);
+			}
+			mv.visitInsn(Opcodes.RETURN);
+		}
 		mv.visitLabel(end);
 
 		mv.visitLocalVariable("this", 'L' + name + ';', signature, start, end,
@@ -219,11 +288,12 @@ public class ContinuationClassGenerator {
 			mv.visitLocalVariable("this$0", outerType.getDescriptor(), null,
 					start, end, 1);
 		}
-		mv.visitLocalVariable("result", OBJECT_DESC, "TT;", start, end,
+		mv.visitLocalVariable("result", type.getDescriptor(),
+				type == OBJECT_TYPE ? "TT;" : null, start, end,
 				1 + info.thisOffset);
 
-		mv.visitMaxs(3 + info.thisOffset + (execute ? 0 : 1),
-				2 + info.thisOffset);
+		mv.visitMaxs(4 + info.thisOffset, 1 + type.getSize()
+				+ info.thisOffset);
 		mv.visitEnd();
 	}
 
@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.gen;
+
+import static com.google.code.jconts.instrument.Constants.*;
+
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Replaces <code>Futures.await(stage)</code> with
+ * <code>Async.await(Futures.fromFuture(stage))</code>, so stages are awaited
+ * as any other computation.
+ */
+public class FutureAwaitAdapter extends MethodAdapter {
+
+	public FutureAwaitAdapter(MethodVisitor mv) {
+		super(mv);
+	}
+
+	@Override
+	public void visitMethodInsn(int opcode, String owner, String name,
+			String desc) {
+		if (opcode == Opcodes.INVOKESTATIC && FUTURES_NAME.equals(owner)
+				&& AWAIT_NAME.equals(name) && FUTURES_AWAIT_DESC.equals(desc)) {
+			super.visitMethodInsn(Opcodes.INVOKESTATIC, FUTURES_NAME,
+					FUTURES_FROM_FUTURE_NAME, FUTURES_FROM_FUTURE_DESC);
+			super.visitMethodInsn(Opcodes.INVOKESTATIC, ASYNC_NAME, AWAIT_NAME,
+					AWAIT_DESC);
+			return;
+		}
+		super.visitMethodInsn(opcode, owner, name, desc);
+	}
+}
@@ -0,0 +1,427 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.gen;
+
+import static com.google.code.jconts.instrument.Constants.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.Frame;
+
+import com.google.code.jconts.instrument.context.MethodContext;
+import com.google.code.jconts.instrument.util.CodeVisitors;
+
+/**
+ * Splits transformed asynchronous method which is too large to be compiled by
+ * JIT into several segment methods.
+ * <p>
+ * Each segment is a copy of the transformed method that handles only some of
+ * the dispatch indices, with the code unreachable from them removed. Instead
+ * of continuing after the synchronously completed await, segment returns the
+ * index to continue from (locals are saved in the state at that point), or
+ * <code>-1</code> if method is suspended or completed. The <code>$async</code>
+ * method itself becomes a small dispatcher that invokes segments until method
+ * is suspended or completed.
+ * <p>
+ * If some segment is still too large (code between two awaits does not fit),
+ * method is not split, unless it is too large for the class file.
+ */
+public class MethodSplitter {
+
+	/** Maximum size of the method code allowed by the class file format */
+	private static final int MAX_CODE_SIZE = 65535;
+
+	private final MethodContext info;
+	private final MethodNode method;
+	private final int maxSize;
+	private final String segmentDesc;
+
+	/**
+	 * @param info
+	 *            asynchronous method context
+	 * @param method
+	 *            transformed <code>$async</code> method
+	 * @param maxSize
+	 *            maximum size of the method code, in bytes, <code>0</code> to
+	 *            never split
+	 */
+	public MethodSplitter(MethodContext info, MethodNode method, int maxSize) {
+		this.info = info;
+		this.method = method;
+		this.maxSize = maxSize;
+		this.segmentDesc = Type.getMethodDescriptor(Type.INT_TYPE, new Type[] {
+				info.stateType, Type.INT_TYPE });
+	}
+
+	public void accept(ClassVisitor cv) {
+		if (maxSize <= 0 || codeSize(method) <= maxSize) {
+			method.instructions.resetLabels();
+			method.accept(cv);
+			return;
+		}
+
+		MethodNode segmented = segmented();
+		int dispatchIndex = segmented.instructions.indexOf(dispatch(segmented));
+		TableSwitchInsnNode dispatch = (TableSwitchInsnNode) segmented.instructions
+				.get(dispatchIndex);
+
+		// Entries in order of appearance
+		List<LabelNode> entries = new ArrayList<LabelNode>();
+		for (Object label : dispatch.labels) {
+			if (!entries.contains(label)) {
+				entries.add((LabelNode) label);
+			}
+		}
+		final InsnList insns = segmented.instructions;
+		Collections.sort(entries, new Comparator<LabelNode>() {
+			@Override
+			public int compare(LabelNode o1, LabelNode o2) {
+				return insns.indexOf(o1) - insns.indexOf(o2);
+			}
+		});
+
+		// Greedily group entries while segment fits
+		List<Set<LabelNode>> groups = new ArrayList<Set<LabelNode>>();
+		List<MethodNode> segments = new ArrayList<MethodNode>();
+		Set<LabelNode> group = null;
+		MethodNode segment = null;
+		for (LabelNode entry : entries) {
+			if (group != null) {
+				Set<LabelNode> candidate = new HashSet<LabelNode>(group);
+				candidate.add(entry);
+				MethodNode larger = segment(segmented, dispatchIndex,
+						candidate, segments.size());
+				if (codeSize(larger) <= maxSize) {
+					group = candidate;
+					segment = larger;
+					continue;
+				}
+				groups.add(group);
+				segments.add(segment);
+			}
+			group = Collections.singleton(entry);
+			segment = segment(segmented, dispatchIndex, group, segments.size());
+		}
+		groups.add(group);
+		segments.add(segment);
+
+		// Some code could not be split further, keep the method as is
+		for (MethodNode node : segments) {
+			if (codeSize(node) > maxSize) {
+				if (codeSize(method) <= MAX_CODE_SIZE) {
+					method.instructions.resetLabels();
+					method.accept(cv);
+					return;
+				}
+				break;
+			}
+		}
+		for (MethodNode node : segments) {
+			node.instructions.resetLabels();
+			node.accept(cv);
+		}
+		generateDispatcher(cv, dispatch, groups, segments);
+	}
+
+	/**
+	 * Converts transformed method to the segment form.
+	 */
+	private MethodNode segmented() {
+		MethodNode result = new MethodNode(method.access, method.name,
+				segmentDesc, null, exceptions());
+		method.instructions.resetLabels();
+		method.accept(result);
+
+		InsnList insns = result.instructions;
+		for (AbstractInsnNode insn : insns.toArray()) {
+			if (insn.getType() == AbstractInsnNode.FRAME) {
+				// Would be invalid after removing unreachable code
+				insns.remove(insn);
+			} else if (isSuspend(insn)) {
+				// index = state.suspend(index); if (index >= 0) goto resumed;
+				// return; is replaced with return state.suspend(index);
+				AbstractInsnNode next = insn.getNext();
+				for (int i = 0; i < 4; ++i) {
+					AbstractInsnNode removed = next;
+					next = next.getNext();
+					insns.remove(removed);
+				}
+				insns.insert(insn, new InsnNode(Opcodes.IRETURN));
+			}
+		}
+
+		for (AbstractInsnNode insn : insns.toArray()) {
+			if (insn.getOpcode() == Opcodes.RETURN) {
+				insns.insertBefore(insn, new InsnNode(Opcodes.ICONST_M1));
+				insns.set(insn, new InsnNode(Opcodes.IRETURN));
+			}
+		}
+
+		// Value of the completed computation is passed as if await is resumed
+		// with it, so segment does not continue with the code of next awaits:
+		// state.result = value; state.varX = locX; return index;
+		Iterator<int[]> completed = info.completedAwaits.iterator();
+		for (AbstractInsnNode insn : insns.toArray()) {
+			if (!isCompletedValue(insn)) {
+				continue;
+			}
+			int[] await = completed.next();
+			JumpInsnNode check = (JumpInsnNode) insn.getPrevious()
+					.getPrevious();
+			MethodNode resume = new MethodNode();
+			resume.visitVarInsn(Opcodes.ALOAD, info.thisOffset);
+			resume.visitInsn(Opcodes.SWAP);
+			resume.visitFieldInsn(Opcodes.PUTFIELD, info.stateClassName,
+					"result", OBJECT_DESC);
+			// Locals are saved by the code following the check
+			AbstractInsnNode save = check.label;
+			for (int saved = 0; saved < await[1];) {
+				save = save.getNext();
+				if (save.getOpcode() >= 0) {
+					save.accept(resume);
+				}
+				if (save.getOpcode() == Opcodes.PUTFIELD) {
+					saved++;
+				}
+			}
+			CodeVisitors.push(resume, await[0]);
+			resume.visitInsn(Opcodes.IRETURN);
+
+			AbstractInsnNode jump = insn.getNext();
+			insns.insert(jump, resume.instructions);
+			insns.remove(jump);
+		}
+		return result;
+	}
+
+	private static boolean isCompletedValue(AbstractInsnNode insn) {
+		if (insn.getOpcode() != Opcodes.INVOKEVIRTUAL) {
+			return false;
+		}
+		MethodInsnNode min = (MethodInsnNode) insn;
+		return COMPLETED_NAME.equals(min.owner)
+				&& COMPLETED_GET_VALUE_NAME.equals(min.name)
+				&& min.getNext().getOpcode() == Opcodes.GOTO;
+	}
+
+	private boolean isSuspend(AbstractInsnNode insn) {
+		if (insn.getOpcode() != Opcodes.INVOKEVIRTUAL) {
+			return false;
+		}
+		MethodInsnNode min = (MethodInsnNode) insn;
+		if (!info.stateClassName.equals(min.owner)
+				|| !STATE_SUSPEND_NAME.equals(min.name)) {
+			return false;
+		}
+		AbstractInsnNode dup = min.getNext();
+		AbstractInsnNode store = dup.getNext();
+		AbstractInsnNode jump = store.getNext();
+		AbstractInsnNode ret = jump.getNext();
+		return dup.getOpcode() == Opcodes.DUP
+				&& store.getOpcode() == Opcodes.ISTORE
+				&& jump.getOpcode() == Opcodes.IFGE
+				&& ret.getOpcode() == Opcodes.RETURN;
+	}
+
+	/**
+	 * Finds the dispatch switch, target of the first jump of the method.
+	 */
+	private static TableSwitchInsnNode dispatch(MethodNode method) {
+		AbstractInsnNode insn = method.instructions.getFirst();
+		while (insn.getOpcode() != Opcodes.GOTO) {
+			insn = insn.getNext();
+		}
+		insn = ((JumpInsnNode) insn).label;
+		while (insn.getOpcode() != Opcodes.TABLESWITCH) {
+			insn = insn.getNext();
+		}
+		return (TableSwitchInsnNode) insn;
+	}
+
+	/**
+	 * Creates segment handling given entries of the dispatch switch.
+	 */
+	private MethodNode segment(MethodNode segmented, int dispatchIndex,
+			Set<LabelNode> group, int number) {
+		int access = Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL
+				| (method.access & Opcodes.ACC_STATIC);
+		MethodNode result = new MethodNode(access, segmentName(number),
+				segmentDesc, null, exceptions());
+		segmented.instructions.resetLabels();
+		segmented.accept(result);
+
+		// Dispatch only indices of this segment, others go to default
+		TableSwitchInsnNode original = (TableSwitchInsnNode) segmented.instructions
+				.get(dispatchIndex);
+		TableSwitchInsnNode copy = (TableSwitchInsnNode) result.instructions
+				.get(dispatchIndex);
+		LabelNode[] labels = new LabelNode[copy.labels.size()];
+		for (int i = 0; i < labels.length; ++i) {
+			labels[i] = group.contains(original.labels.get(i)) ? (LabelNode) copy.labels
+					.get(i) : copy.dflt;
+		}
+		result.instructions.set(copy, new TableSwitchInsnNode(copy.min,
+				copy.max, copy.dflt, labels));
+
+		removeUnreachable(result);
+		return result;
+	}
+
+	private void removeUnreachable(MethodNode method) {
+		Frame[] frames;
+		try {
+			frames = new Analyzer(new BasicInterpreter()).analyze(info.owner,
+					method);
+		} catch (AnalyzerException ex) {
+			throw new IllegalStateException("Failed to analyze method "
+					+ info.owner + "." + method.name + method.desc, ex);
+		}
+
+		InsnList insns = method.instructions;
+		AbstractInsnNode[] array = insns.toArray();
+		for (int i = 0; i < array.length; ++i) {
+			int type = array[i].getType();
+			if (frames[i] == null && type != AbstractInsnNode.LABEL
+					&& type != AbstractInsnNode.LINE) {
+				insns.remove(array[i]);
+			}
+		}
+
+		// Remove handlers that do not cover any code anymore
+		for (Iterator<?> it = method.tryCatchBlocks.iterator(); it.hasNext();) {
+			TryCatchBlockNode tcb = (TryCatchBlockNode) it.next();
+			boolean empty = true;
+			for (AbstractInsnNode insn = tcb.start; insn != tcb.end; insn = insn
+					.getNext()) {
+				if (insn.getOpcode() >= 0) {
+					empty = false;
+					break;
+				}
+			}
+			if (empty) {
+				it.remove();
+			}
+		}
+	}
+
+	private void generateDispatcher(ClassVisitor cv,
+			TableSwitchInsnNode dispatch, List<Set<LabelNode>> groups,
+			List<MethodNode> segments) {
+		MethodVisitor mv = cv.visitMethod(method.access, method.name,
+				method.desc, method.signature, exceptions());
+		mv.visitCode();
+
+		int stateVar = info.thisOffset;
+		int indexVar = 1 + info.thisOffset;
+
+		Label loop = new Label();
+		Label exit = new Label();
+		Label[] calls = new Label[segments.size()];
+		for (int i = 0; i < calls.length; ++i) {
+			calls[i] = new Label();
+		}
+
+		// switch (index) { case ...: index = segmentN(state, index); ... }
+		mv.visitLabel(loop);
+		mv.visitVarInsn(Opcodes.ILOAD, indexVar);
+		Label[] labels = new Label[dispatch.labels.size()];
+		for (int i = 0; i < labels.length; ++i) {
+			for (int g = 0; g < groups.size(); ++g) {
+				if (groups.get(g).contains(dispatch.labels.get(i))) {
+					labels[i] = calls[g];
+				}
+			}
+		}
+		mv.visitTableSwitchInsn(dispatch.min, dispatch.max, exit, labels);
+
+		// Continue while segment returns index to continue from
+		for (int i = 0; i < calls.length; ++i) {
+			mv.visitLabel(calls[i]);
+			if (!info.isStatic()) {
+				mv.visitVarInsn(Opcodes.ALOAD, 0);
+			}
+			mv.visitVarInsn(Opcodes.ALOAD, stateVar);
+			mv.visitVarInsn(Opcodes.ILOAD, indexVar);
+			mv.visitMethodInsn(info.isStatic() ? Opcodes.INVOKESTATIC
+					: Opcodes.INVOKESPECIAL, info.owner, segments.get(i).name,
+					segmentDesc);
+			mv.visitInsn(Opcodes.DUP);
+			mv.visitVarInsn(Opcodes.ISTORE, indexVar);
+			mv.visitJumpInsn(Opcodes.IFGE, loop);
+			mv.visitInsn(Opcodes.RETURN);
+		}
+
+		mv.visitLabel(exit);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(4, 2 + info.thisOffset);
+		mv.visitEnd();
+	}
+
+	private String segmentName(int number) {
+		return method.name + '$' + number;
+	}
+
+	private String[] exceptions() {
+		@SuppressWarnings("unchecked")
+		List<String> list = method.exceptions;
+		return list.toArray(new String[list.size()]);
+	}
+
+	/**
+	 * Calculates size of the method code in bytes.
+	 */
+	private static int codeSize(MethodNode method) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_6, 0, "Size", null, OBJECT_NAME, null);
+		final Label end = new Label();
+		MethodVisitor mv = cw.visitMethod(method.access, method.name,
+				method.desc, null, null);
+		method.instructions.resetLabels();
+		method.accept(new MethodAdapter(mv) {
+			@Override
+			public void visitMaxs(int maxStack, int maxLocals) {
+				super.visitLabel(end);
+				super.visitMaxs(maxStack, maxLocals);
+			}
+		});
+		return end.getOffset();
+	}
+}
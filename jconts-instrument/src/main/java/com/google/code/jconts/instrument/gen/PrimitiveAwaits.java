@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.gen;
+
+import static com.google.code.jconts.instrument.Constants.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import com.google.code.jconts.instrument.context.MethodContext;
+
+/**
+ * Naming of the runtime classes and generated members used by the primitive
+ * awaits: <code>Async.awaitInt(IntComputation)</code> and friends. Result of
+ * such await is passed via <code>IntContinuation.invokeInt(int)</code> and
+ * kept in the <code>intResult</code> field of the state, so it is never
+ * boxed.
+ */
+public final class PrimitiveAwaits {
+
+	/** Result types of the primitive awaits */
+	public static final Type[] TYPES = { Type.INT_TYPE, Type.LONG_TYPE,
+			Type.DOUBLE_TYPE };
+
+	private static final String PACKAGE = "com/google/code/jconts/";
+
+	/**
+	 * @return result type of the primitive await, or <code>null</code> if
+	 *         invocation is not a primitive await
+	 */
+	public static Type awaitType(String owner, String name, String desc) {
+		if (!ASYNC_NAME.equals(owner)) {
+			return null;
+		}
+		for (Type type : TYPES) {
+			if (awaitName(type).equals(name) && awaitDesc(type).equals(desc)) {
+				return type;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return <code>Int</code>, <code>Long</code> or <code>Double</code>
+	 */
+	private static String suffix(Type type) {
+		String name = type.getClassName();
+		return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+	}
+
+	public static String awaitName(Type type) {
+		return AWAIT_NAME + suffix(type);
+	}
+
+	public static String awaitDesc(Type type) {
+		return "(L" + computationName(type) + ";)" + type.getDescriptor();
+	}
+
+	/**
+	 * @return descriptor of <code>Async.resumeOn</code> keeping the type of
+	 *         the primitive computation
+	 */
+	public static String resumeOnDesc(Type type) {
+		String computation = 'L' + computationName(type) + ';';
+		return '(' + computation + EXECUTOR_DESC + ')' + computation;
+	}
+
+	public static String computationName(Type type) {
+		return PACKAGE + suffix(type) + "Computation";
+	}
+
+	public static String continuationName(Type type) {
+		return PACKAGE + suffix(type) + "Continuation";
+	}
+
+	public static String executeName(Type type) {
+		return COMPUTATION_EXECUTE_NAME + suffix(type);
+	}
+
+	public static String executeDesc(Type type) {
+		return "(L" + continuationName(type) + ";)V";
+	}
+
+	public static String invokeName(Type type) {
+		return CONTINUATION_INVOKE_NAME + suffix(type);
+	}
+
+	public static String invokeDesc(Type type) {
+		return "(" + type.getDescriptor() + ")V";
+	}
+
+	/**
+	 * @return name of the state field keeping the result
+	 */
+	public static String resultField(Type type) {
+		return type.getClassName() + "Result";
+	}
+
+	private static String boxName(Type type) {
+		switch (type.getSort()) {
+		case Type.INT:
+			return "java/lang/Integer";
+		case Type.LONG:
+			return "java/lang/Long";
+		default:
+			return "java/lang/Double";
+		}
+	}
+
+	/**
+	 * Generates code storing the result passed to <code>invoke</code> (or
+	 * <code>invokeInt</code> and friends) in local 1 to the field the await
+	 * being resumed reads. Continuation implements primitive continuations
+	 * for all awaits of the method, so primitive computation awaited by the
+	 * regular await passes its result to <code>invokeInt</code> (which is
+	 * boxed then), and vice versa.
+	 * <p>
+	 * Expects the state on the stack, index of the await being resumed is
+	 * read from the <code>index</code> field of the given class.
+	 */
+	static void storeResult(MethodVisitor mv, MethodContext info,
+			String indexOwner, Type type) {
+		String state = info.stateClassName;
+		boolean primitive = type.getSort() != Type.OBJECT;
+
+		// Resume indices of the awaits reading other field, grouped by type
+		SortedMap<Integer, Type> keys = new TreeMap<Integer, Type>();
+		for (Map.Entry<Integer, Type> entry : info.primitiveResumes
+				.entrySet()) {
+			if (!primitive || entry.getValue().equals(type)) {
+				keys.put(entry.getKey(), entry.getValue());
+			}
+		}
+		if (keys.isEmpty()) {
+			mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+			if (primitive) {
+				box(mv, type);
+			}
+			mv.visitFieldInsn(Opcodes.PUTFIELD, state, "result", OBJECT_DESC);
+			return;
+		}
+
+		// switch (index) {
+		// case <primitive await>: state.intResult = value; break;
+		// default: state.result = value;
+		// }
+		Label done = new Label();
+		Label dflt = new Label();
+		Label[] labels = new Label[TYPES.length];
+		int[] indices = new int[keys.size()];
+		Label[] targets = new Label[keys.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Type> entry : keys.entrySet()) {
+			int t = Arrays.asList(TYPES).indexOf(entry.getValue());
+			if (labels[t] == null) {
+				labels[t] = new Label();
+			}
+			indices[i] = entry.getKey();
+			targets[i] = labels[t];
+			i++;
+		}
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, indexOwner, "index", "I");
+		mv.visitLookupSwitchInsn(dflt, indices, targets);
+
+		for (int t = 0; t < TYPES.length; ++t) {
+			if (labels[t] == null) {
+				continue;
+			}
+			Type result = TYPES[t];
+			mv.visitLabel(labels[t]);
+			mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+			if (!primitive) {
+				mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Number");
+				mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Number",
+						result.getClassName() + "Value", "()"
+								+ result.getDescriptor());
+			}
+			mv.visitFieldInsn(Opcodes.PUTFIELD, state, resultField(result),
+					result.getDescriptor());
+			mv.visitJumpInsn(Opcodes.GOTO, done);
+		}
+
+		mv.visitLabel(dflt);
+		mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+		if (primitive) {
+			box(mv, type);
+		}
+		mv.visitFieldInsn(Opcodes.PUTFIELD, state, "result", OBJECT_DESC);
+		mv.visitLabel(done);
+	}
+
+	private static void box(MethodVisitor mv, Type type) {
+		String box = boxName(type);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, box, "valueOf", "("
+				+ type.getDescriptor() + ")L" + box + ';');
+	}
+
+	private PrimitiveAwaits() {
+		// No instances
+	}
+}
@@ -17,6 +17,8 @@ package com.google.code.jconts.instrument.gen;
 
 import static com.google.code.jconts.instrument.Constants.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.objectweb.asm.ClassVisitor;
@@ -24,13 +26,21 @@ import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.signature.SignatureReader;
+import org.objectweb.asm.signature.SignatureVisitor;
+import org.objectweb.asm.signature.SignatureWriter;
 
 import com.google.code.jconts.instrument.context.MethodContext;
 import com.google.code.jconts.instrument.util.TransformationContext;
 
 /**
- * 
- * 
+ * Generates the class holding the state of the asynchronous method between
+ * invocations.
+ * <p>
+ * In single class mode, state class also implements both
+ * <code>Computation</code> and <code>Continuation</code> and keeps the index to
+ * resume from, so no separate computation and continuation classes are
+ * generated.
  */
 public class StateClassGenerator {
 
@@ -45,8 +55,20 @@ public class StateClassGenerator {
 
 		final String name = info.stateClassName;
 
+		String signature = null;
+		String[] interfaces = null;
+		if (info.singleClass) {
+			signature = classSignature();
+			List<String> names = new ArrayList<String>();
+			Collections.addAll(names, COMPUTATION_NAME, CONTINUATION_NAME,
+					TOKEN_HOLDER_NAME);
+			for (Type type : primitiveResults()) {
+				names.add(PrimitiveAwaits.continuationName(type));
+			}
+			interfaces = names.toArray(new String[names.size()]);
+		}
 		cv.visit(Opcodes.V1_6, Opcodes.ACC_FINAL /*| Opcodes.ACC_SYNTHETIC*/, name,
-				null, OBJECT_NAME, null);
+				signature, info.stateSuperName, interfaces);
 
 		cv.visitSource(info.ownerSource, null);
 		cv.visitOuterClass(info.owner, null, null);
@@ -63,13 +85,59 @@ public class StateClassGenerator {
 					.getDescriptor(), null, null);
 		}
 
+		// Cancellation token of the continuation method was executed with
+		cv.visitField(0/*Opcodes.ACC_SYNTHETIC*/, TOKEN_FIELD, TOKEN_DESC, null, null);
+
 		// Return value variable
 		cv.visitField(0/*Opcodes.ACC_SYNTHETIC*/, "result", OBJECT_DESC, null, null);
 		cv.visitField(0/*Opcodes.ACC_SYNTHETIC*/, "exception", THROWABLE_DESC, null, null);
+		for (Type type : primitiveResults()) {
+			cv.visitField(0/*Opcodes.ACC_SYNTHETIC*/, PrimitiveAwaits
+					.resultField(type), type.getDescriptor(), null, null);
+		}
+
+		if (info.singleClass) {
+			// Index to resume from
+			cv.visitField(0/*Opcodes.ACC_SYNTHETIC*/, "index", "I", null, null);
+		}
+
+		generateConstructor(cv);
+		if (info.singleClass) {
+			generateExecute(cv);
+			generateResume(cv, CONTINUATION_INVOKE_NAME,
+					CONTINUATION_INVOKE_DESC, "result", OBJECT_TYPE, false);
+			generateResume(cv, CONTINUATION_SET_EXCEPTION_NAME,
+					CONTINUATION_SET_EXCEPTION_DESC, "exception", Type
+							.getObjectType(THROWABLE_NAME), true);
+			for (Type type : primitiveResults()) {
+				generateResume(cv, PrimitiveAwaits.invokeName(type),
+						PrimitiveAwaits.invokeDesc(type), PrimitiveAwaits
+								.resultField(type), type, false);
+			}
+			CancellationChecks.generateGetter(cv, name, null, name);
+		}
+
+		cv.visitEnd();
+	}
+
+	private void generateConstructor(ClassVisitor cv) {
+		final String name = info.stateClassName;
+		final Type outerType = Type.getObjectType(info.owner);
+
+		// In single class mode, constructor has form <init>(OuterClass this$0)
+		// for instance methods
+		boolean outer = info.singleClass && !info.isStatic();
+		String ctorDesc = DEFAULT_CTOR_DESC;
+		if (outer) {
+			cv.visitField(Opcodes.ACC_FINAL, "this$0", outerType
+					.getDescriptor(), null, null);
+
+			ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE,
+					new Type[] { outerType });
+		}
 
 		// Generate constructor
-		MethodVisitor mv = cv.visitMethod(0, CTOR_NAME, DEFAULT_CTOR_DESC,
-				null, null);
+		MethodVisitor mv = cv.visitMethod(0, CTOR_NAME, ctorDesc, null, null);
 		mv.visitCode();
 		Label start = new Label();
 		Label end = new Label();
@@ -77,16 +145,206 @@ public class StateClassGenerator {
 		mv.visitLineNumber(0, start);
 
 		mv.visitVarInsn(Opcodes.ALOAD, 0);
-		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT_NAME, CTOR_NAME,
-				DEFAULT_CTOR_DESC);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, info.stateSuperName,
+				CTOR_NAME, DEFAULT_CTOR_DESC);
+
+		// Save outer this
+		if (outer) {
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitVarInsn(Opcodes.ALOAD, 1);
+			mv.visitFieldInsn(Opcodes.PUTFIELD, name, "this$0",
+					outerType.getDescriptor());
+		}
 		mv.visitInsn(Opcodes.RETURN);
 		mv.visitLabel(end);
 
 		mv.visitLocalVariable("this", 'L' + name + ';', null, start, end, 0);
+		if (outer) {
+			mv.visitLocalVariable("this$0", outerType.getDescriptor(), null,
+					start, end, 1);
+		}
 
-		mv.visitMaxs(1, 1);
+		mv.visitMaxs(2, outer ? 2 : 1);
 		mv.visitEnd();
+	}
 
-		cv.visitEnd();
+	private void generateExecute(ClassVisitor cv) {
+		final String name = info.stateClassName;
+
+		// Generate execute(Continuation<T> cont);
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_FINAL
+				| Opcodes.ACC_PUBLIC, COMPUTATION_EXECUTE_NAME,
+				COMPUTATION_EXECUTE_DESC, null, null);
+		mv.visitCode();
+		Label start = new Label();
+		Label end = new Label();
+		mv.visitLabel(start);
+
+		// this.continuation = continuation
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitFieldInsn(Opcodes.PUTFIELD, name, CONTINUATION_FIELD,
+				CONTINUATION_DESC);
+
+		// this.token = CancellationToken.of(continuation)
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, TOKEN_NAME, TOKEN_OF_NAME,
+				TOKEN_OF_DESC);
+		mv.visitFieldInsn(Opcodes.PUTFIELD, name, TOKEN_FIELD, TOKEN_DESC);
+
+		// Do not start if already cancelled
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, name, TOKEN_FIELD, TOKEN_DESC);
+		CancellationChecks.check(mv, 1);
+
+		// Initial state (0)
+		loadOuter(mv);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitInsn(Opcodes.ICONST_0);
+		invokeAsync(mv);
+
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitLabel(end);
+
+		mv.visitLocalVariable("this", 'L' + name + ';', null, start, end, 0);
+		mv.visitLocalVariable("continuation", CONTINUATION_DESC, null, start,
+				end, 1);
+
+		mv.visitMaxs(3, 2);
+		mv.visitEnd();
+	}
+
+	/**
+	 * Generates <code>invoke(Object result)</code>,
+	 * <code>setException(Throwable t)</code> or <code>invokeInt(int)</code>
+	 * (and friends), which save the value to the given field and resume the
+	 * method.
+	 */
+	private void generateResume(ClassVisitor cv, String method, String desc,
+			String field, Type type, boolean exception) {
+		final String name = info.stateClassName;
+		final boolean execute = !exception;
+
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_FINAL
+				| Opcodes.ACC_PUBLIC, method, desc, null, null);
+		mv.visitCode();
+		Label start = new Label();
+		Label end = new Label();
+		mv.visitLabel(start);
+
+		// Complete the await with exception if cancelled meanwhile
+		if (execute) {
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitFieldInsn(Opcodes.GETFIELD, name, TOKEN_FIELD, TOKEN_DESC);
+			CancellationChecks.check(mv, 0);
+		}
+
+		// this.result = result or this.exception = throwable
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		if (execute) {
+			PrimitiveAwaits.storeResult(mv, info, name, type);
+		} else {
+			mv.visitVarInsn(type.getOpcode(Opcodes.ILOAD), 1);
+			mv.visitFieldInsn(Opcodes.PUTFIELD, name, field, type
+					.getDescriptor());
+		}
+
+		// Continue from this index or index+1 (for exception)
+		// Local 1 is reused for the index
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, name, "index", "I");
+		if (!execute) {
+			mv.visitInsn(Opcodes.ICONST_1);
+			mv.visitInsn(Opcodes.IADD);
+		}
+		mv.visitVarInsn(Opcodes.ISTORE, 1);
+
+		Label exit = new Label();
+		if (info.trampoline) {
+			// if (!resume(index)) return;
+			// Awaiting frame is still active, it will continue by itself.
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitVarInsn(Opcodes.ILOAD, 1);
+			mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, STATE_RESUME_NAME,
+					STATE_RESUME_DESC);
+			mv.visitJumpInsn(Opcodes.IFEQ, exit);
+		}
+
+		loadOuter(mv);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitVarInsn(Opcodes.ILOAD, 1);
+		invokeAsync(mv);
+
+		mv.visitLabel(exit);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitLabel(end);
+
+		mv.visitLocalVariable("this", 'L' + name + ';', null, start, end, 0);
+
+		mv.visitMaxs(3, 1 + type.getSize());
+		mv.visitEnd();
+	}
+
+	/**
+	 * @return result types of the primitive awaits, in fixed order
+	 */
+	private List<Type> primitiveResults() {
+		List<Type> types = new ArrayList<Type>();
+		for (Type type : PrimitiveAwaits.TYPES) {
+			if (info.primitiveResults.contains(type)) {
+				types.add(type);
+			}
+		}
+		return types;
+	}
+
+	private void loadOuter(MethodVisitor mv) {
+		if (!info.isStatic()) {
+			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			mv.visitFieldInsn(Opcodes.GETFIELD, info.stateClassName, "this$0",
+					'L' + info.owner + ';');
+		}
+	}
+
+	private void invokeAsync(MethodVisitor mv) {
+		mv.visitMethodInsn(info.isStatic() ? Opcodes.INVOKESTATIC
+				: Opcodes.INVOKEVIRTUAL, info.owner, info.name + "$async", Type
+				.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
+						info.stateType, Type.INT_TYPE }));
+	}
+
+	/**
+	 * Signature of the single class:
+	 * <code>Name extends Super implements Computation&lt;ValueType&gt;, Continuation&lt;Object&gt;</code>
+	 */
+	private String classSignature() {
+		SignatureWriter sign = new SignatureWriter();
+		SignatureVisitor supsign = sign.visitSuperclass();
+		supsign.visitClassType(info.stateSuperName);
+		supsign.visitEnd();
+
+		SignatureVisitor iface = sign.visitInterface();
+		iface.visitClassType(COMPUTATION_NAME);
+		SignatureVisitor argsign = iface.visitTypeArgument('=');
+		new SignatureReader(info.valueSignature).acceptType(argsign);
+		iface.visitEnd();
+
+		iface = sign.visitInterface();
+		iface.visitClassType(CONTINUATION_NAME);
+		iface.visitTypeArgument('=').visitClassType(OBJECT_NAME);
+		iface.visitEnd();
+		iface.visitEnd();
+
+		iface = sign.visitInterface();
+		iface.visitClassType(TOKEN_HOLDER_NAME);
+		iface.visitEnd();
+
+		for (Type type : primitiveResults()) {
+			iface = sign.visitInterface();
+			iface.visitClassType(PrimitiveAwaits.continuationName(type));
+			iface.visitEnd();
+		}
+		return sign.toString();
 	}
 }
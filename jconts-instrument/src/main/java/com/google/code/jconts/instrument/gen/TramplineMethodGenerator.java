@@ -40,46 +40,72 @@ public class TramplineMethodGenerator {
 		MethodVisitor mv = cv.visitMethod(info.access, info.name, info.desc,
 				info.signature, info.exceptions);
 		mv.visitCode();
-		mv.visitTypeInsn(Opcodes.NEW, info.computationClassName);
-		mv.visitInsn(Opcodes.DUP);
+		if (info.singleClass) {
+			// new State([this]), state is the computation itself
+			mv.visitTypeInsn(Opcodes.NEW, info.stateClassName);
+			mv.visitInsn(Opcodes.DUP);
+			String ctorDesc = DEFAULT_CTOR_DESC;
+			if (!info.isStatic()) {
+				mv.visitVarInsn(Opcodes.ALOAD, 0);
+				ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE,
+						new Type[] { Type.getObjectType(info.owner) });
+			}
+			mv.visitMethodInsn(Opcodes.INVOKESPECIAL, info.stateClassName,
+					CTOR_NAME, ctorDesc);
+			saveArguments(mv);
+		} else {
+			mv.visitTypeInsn(Opcodes.NEW, info.computationClassName);
+			mv.visitInsn(Opcodes.DUP);
+
+			// "this' for new Computation(this, state)
+			if (!info.isStatic()) {
+				mv.visitVarInsn(Opcodes.ALOAD, 0);
+			}
 
-		// "this' for new Computation(this, state)
-		if (!info.isStatic()) {
-			mv.visitVarInsn(Opcodes.ALOAD, 0);
+			// new State()
+			mv.visitTypeInsn(Opcodes.NEW, info.stateClassName);
+			mv.visitInsn(Opcodes.DUP);
+			mv.visitMethodInsn(Opcodes.INVOKESPECIAL, info.stateClassName,
+					CTOR_NAME, DEFAULT_CTOR_DESC);
+			saveArguments(mv);
+
+			// new Computation(this, state);
+			String ctorDesc;
+			if (info.isStatic()) {
+				ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE,
+						new Type[] { info.stateType });
+			} else {
+				ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
+						Type.getObjectType(info.owner), info.stateType });
+			}
+			mv.visitMethodInsn(Opcodes.INVOKESPECIAL,
+					info.computationClassName, CTOR_NAME, ctorDesc);
 		}
 
-		// new State()
-		mv.visitTypeInsn(Opcodes.NEW, info.stateClassName);
-		mv.visitInsn(Opcodes.DUP);
-		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, info.stateClassName,
-				CTOR_NAME, DEFAULT_CTOR_DESC);
+		mv.visitInsn(Opcodes.ARETURN);
+		mv.visitMaxs(info.isStatic() ? 6 : 7, argumentsSize());
+		mv.visitEnd();
+	}
 
+	/**
+	 * Copies method arguments to the state fields. State should be on the top
+	 * of the stack.
+	 */
+	private void saveArguments(MethodVisitor mv) {
 		// state.varX = argX
 		String[] names = info.entryLocalsVars;
+		int slot = info.thisOffset;
 		for (int i = 0; i < info.entryLocals.length; ++i) {
 			mv.visitInsn(Opcodes.DUP);
-			mv.visitVarInsn(info.entryLocals[i].getOpcode(Opcodes.ILOAD), i
-					+ info.thisOffset);
-			mv.visitFieldInsn(Opcodes.PUTFIELD, info.stateClassName, names[i],
-					info.entryLocals[i].getDescriptor());
-		}
-
-		// new Computation(this, state);
-		String ctorDesc;
-		if (info.isStatic()) {
-			ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE,
-					new Type[] { info.stateType });
-		} else {
-			ctorDesc = Type.getMethodDescriptor(Type.VOID_TYPE, new Type[] {
-					Type.getObjectType(info.owner), info.stateType });
+			mv.visitVarInsn(info.entryLocals[i].getOpcode(Opcodes.ILOAD), slot);
+			info.tracker.putField(mv, info.stateClassName, names[i],
+					info.entryLocals[i]);
+			slot += info.entryLocals[i].getSize();
 		}
-		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, info.computationClassName,
-				CTOR_NAME, ctorDesc);
+	}
 
-		mv.visitInsn(Opcodes.ARETURN);
-		mv.visitMaxs(info.isStatic() ? 5 : 6,
-				info.isStatic() ? info.entryLocals.length
-						: info.entryLocals.length + 1);
-		mv.visitEnd();
+	private int argumentsSize() {
+		return (Type.getArgumentsAndReturnSizes(info.desc) >> 2)
+				- (info.isStatic() ? 1 : 0);
 	}
 }
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.util;
+
+import static com.google.code.jconts.instrument.Constants.OBJECT_NAME;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.objectweb.asm.Opcodes;
+
+/**
+ * Class hierarchy used for computing stack map frames. Classes are never
+ * loaded (we are usually invoked while the class loader is loading one),
+ * their bytecode is read from the class loader instead. Classes being
+ * generated are declared explicitly, since they are not available from the
+ * class loader yet.
+ * <p>
+ * Only the header of the class file is read, so classes of any version are
+ * supported, including ones with constants <code>ClassReader</code> does not
+ * know about (like the classes of the newer JDK).
+ * <p>
+ * Unknown classes are assumed to extend <code>java/lang/Object</code>
+ * directly.
+ */
+public class ClassHierarchy {
+
+	private final ClassLoader loader;
+	private final Map<String, String> supers = new HashMap<String, String>();
+	private final Set<String> interfaces = new HashSet<String>();
+
+	public ClassHierarchy(ClassLoader loader) {
+		this.loader = loader != null ? loader : ClassLoader
+				.getSystemClassLoader();
+	}
+
+	/**
+	 * Declares the class that is not available from the class loader.
+	 */
+	public void declare(String name, String superName, boolean isInterface) {
+		supers.put(name, superName);
+		if (isInterface) {
+			interfaces.add(name);
+		}
+	}
+
+	/**
+	 * Finds the closest common super class of two classes, in the same way
+	 * {@link org.objectweb.asm.ClassWriter#getCommonSuperClass(String, String)}
+	 * does it. Interfaces are merged to <code>java/lang/Object</code>.
+	 */
+	public String getCommonSuperClass(String type1, String type2) {
+		if (type1.equals(type2)) {
+			return type1;
+		}
+		if (isInterface(type1) || isInterface(type2)) {
+			return OBJECT_NAME;
+		}
+
+		Set<String> ancestors = new HashSet<String>();
+		for (String type = type1; type != null; type = superName(type)) {
+			ancestors.add(type);
+		}
+		for (String type = type2; type != null; type = superName(type)) {
+			if (ancestors.contains(type)) {
+				return type;
+			}
+		}
+		return OBJECT_NAME;
+	}
+
+	private boolean isInterface(String name) {
+		superName(name);
+		return interfaces.contains(name);
+	}
+
+	private String superName(String name) {
+		if (OBJECT_NAME.equals(name)) {
+			return null;
+		}
+		if (!supers.containsKey(name)) {
+			read(name);
+		}
+		return supers.get(name);
+	}
+
+	private void read(String name) {
+		String superName = OBJECT_NAME;
+		boolean isInterface = false;
+		InputStream in = loader.getResourceAsStream(name + ".class");
+		if (in != null) {
+			try {
+				try {
+					DataInputStream data = new DataInputStream(
+							new BufferedInputStream(in));
+					if (data.readInt() != 0xCAFEBABE) {
+						throw new IOException("Not a class file: " + name);
+					}
+					// Minor and major versions
+					data.readInt();
+
+					// Only UTF-8 and class constants are kept
+					int count = data.readUnsignedShort();
+					String[] strings = new String[count];
+					int[] classes = new int[count];
+					for (int i = 1; i < count; ++i) {
+						int tag = data.readUnsignedByte();
+						switch (tag) {
+						case 1: // Utf8
+							strings[i] = data.readUTF();
+							break;
+						case 7: // Class
+							classes[i] = data.readUnsignedShort();
+							break;
+						case 5: // Long
+						case 6: // Double
+							data.readLong();
+							++i;
+							break;
+						case 15: // MethodHandle
+							data.readUnsignedByte();
+							data.readUnsignedShort();
+							break;
+						case 8: // String
+						case 16: // MethodType
+						case 19: // Module
+						case 20: // Package
+							data.readUnsignedShort();
+							break;
+						case 3: // Integer
+						case 4: // Float
+						case 9: // Fieldref
+						case 10: // Methodref
+						case 11: // InterfaceMethodref
+						case 12: // NameAndType
+						case 17: // Dynamic
+						case 18: // InvokeDynamic
+							data.readInt();
+							break;
+						default:
+							throw new IOException("Unknown constant " + tag
+									+ " in " + name);
+						}
+					}
+
+					int access = data.readUnsignedShort();
+					// This class
+					data.readUnsignedShort();
+					int superClass = data.readUnsignedShort();
+					isInterface = (access & Opcodes.ACC_INTERFACE) != 0;
+					if (superClass != 0) {
+						superName = strings[classes[superClass]];
+					}
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				// Treat as unknown class
+			}
+		}
+		declare(name, superName, isInterface);
+	}
+}
@@ -19,6 +19,8 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.commons.EmptyVisitor;
 import org.objectweb.asm.util.TraceClassVisitor;
 
@@ -41,6 +43,21 @@ public final class CodeVisitors {
 		return tracer(new EmptyVisitor());
 	}
 
+	/**
+	 * Pushes integer constant using the shortest instruction.
+	 */
+	public static void push(MethodVisitor mv, int value) {
+		if (value >= -1 && value <= 5) {
+			mv.visitInsn(Opcodes.ICONST_0 + value);
+		} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+			mv.visitIntInsn(Opcodes.BIPUSH, value);
+		} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+			mv.visitIntInsn(Opcodes.SIPUSH, value);
+		} else {
+			mv.visitLdcInsn(Integer.valueOf(value));
+		}
+	}
+
 	private CodeVisitors() {
 		// No instances.
 	}
@@ -16,18 +16,38 @@
 package com.google.code.jconts.instrument.util;
 
 /**
- * Configuration for the agent. Two system properties are defined:
+ * Configuration for the agent. The following system properties are defined:
  * <ul>
  * <li><code>jconts.trace</code>, set to <code>true</code> to output the
  * contents of transformed/generated classes. <code>false</code> by default.
  * <li><code>jconts.check</code>, set to <code>true</code> to run checker on the
  * transformed/generated classes. <code>false</code> by default.
+ * <li><code>jconts.trampoline</code>, set to <code>false</code> to disable
+ * continuing in the same frame when awaited computation completes
+ * synchronously. <code>true</code> by default.
+ * <li><code>jconts.singleClass</code>, set to <code>true</code> to generate
+ * single class implementing both computation and continuation for each
+ * asynchronous method instead of separate state, computation and continuation
+ * classes. <code>false</code> by default.
+ * <li><code>jconts.compactState</code>, set to <code>true</code> to store
+ * locals in the state class using as few fields as possible: references are
+ * stored in <code>Object</code> fields and primitives in <code>int</code> or
+ * <code>long</code> fields depending on their width. <code>false</code> by
+ * default.
+ * <li><code>jconts.maxMethodSize</code>, maximum size (in bytes) of the
+ * transformed method code. Larger methods are split into several methods, so
+ * they could be compiled by JIT. <code>8000</code> by default (HotSpot
+ * <code>HugeMethodLimit</code>), <code>0</code> to never split.
  * </ul>
  */
 public final class Config {
 
 	private static final String TRACE_CLASSES = "jconts.trace";
 	private static final String CHECK_CLASSES = "jconts.check";
+	private static final String TRAMPOLINE = "jconts.trampoline";
+	private static final String SINGLE_CLASS = "jconts.singleClass";
+	private static final String COMPACT_STATE = "jconts.compactState";
+	private static final String MAX_METHOD_SIZE = "jconts.maxMethodSize";
 
 	public static boolean isTraceClasses() {
 		return Boolean.getBoolean(TRACE_CLASSES);
@@ -36,4 +56,25 @@ public final class Config {
 	public static boolean isCheckClasses() {
 		return Boolean.getBoolean(CHECK_CLASSES);
 	}
+
+	public static boolean isTrampoline() {
+		return getBoolean(TRAMPOLINE, true);
+	}
+
+	public static boolean isSingleClass() {
+		return Boolean.getBoolean(SINGLE_CLASS);
+	}
+
+	public static boolean isCompactState() {
+		return Boolean.getBoolean(COMPACT_STATE);
+	}
+
+	public static int getMaxMethodSize() {
+		return Integer.getInteger(MAX_METHOD_SIZE, 8000);
+	}
+
+	private static boolean getBoolean(String name, boolean defaultValue) {
+		String value = System.getProperty(name);
+		return value != null ? Boolean.parseBoolean(value) : defaultValue;
+	}
 }
@@ -42,8 +42,18 @@ public final class Frames {
 		}
 	}
 	
+	/**
+	 * Converts frame type to the type of the local or stack value.
+	 *
+	 * @return type, or <code>null</code> for unusable local (
+	 *         {@link Opcodes#TOP})
+	 */
 	public static Type fromFrameType(final Object type) {
-		if (type instanceof String) {
+		if (type == Opcodes.TOP) {
+			return null;
+		} else if (type == Opcodes.NULL) {
+			return Type.getObjectType("java/lang/Object");
+		} else if (type instanceof String) {
 			return Type.getObjectType((String) type);
 		} else if (type == Opcodes.INTEGER) {
 			return Type.INT_TYPE;
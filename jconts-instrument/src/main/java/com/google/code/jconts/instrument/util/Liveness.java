@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Backward data-flow analysis that calculates local variables live at the
+ * beginning of each instruction. Local variable is live if its value could be
+ * read before it is overwritten on some path from the instruction (including
+ * paths going through exception handlers).
+ * <p>
+ * Variables are identified by the first slot they occupy.
+ */
+public final class Liveness {
+
+	/**
+	 * Analyzes given method.
+	 *
+	 * @param method
+	 *            method to analyze
+	 * @return set of live local variables for each instruction of the method
+	 *         (in the order of {@link MethodNode#instructions}).
+	 */
+	public static BitSet[] analyze(MethodNode method) {
+		InsnList insns = method.instructions;
+		int count = insns.size();
+
+		int[][] successors = new int[count][];
+		for (int i = 0; i < count; ++i) {
+			successors[i] = successors(insns, i);
+		}
+
+		// Exception handlers covering each instruction
+		List<List<Integer>> handlers = new ArrayList<List<Integer>>(count);
+		for (int i = 0; i < count; ++i) {
+			handlers.add(null);
+		}
+		for (Object o : method.tryCatchBlocks) {
+			TryCatchBlockNode tcb = (TryCatchBlockNode) o;
+			int handler = insns.indexOf(tcb.handler);
+			int end = insns.indexOf(tcb.end);
+			for (int i = insns.indexOf(tcb.start); i < end; ++i) {
+				if (handlers.get(i) == null) {
+					handlers.set(i, new ArrayList<Integer>());
+				}
+				handlers.get(i).add(handler);
+			}
+		}
+
+		BitSet[] live = new BitSet[count];
+		for (int i = 0; i < count; ++i) {
+			live[i] = new BitSet();
+		}
+
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = count - 1; i >= 0; --i) {
+				BitSet in = new BitSet();
+				for (int succ : successors[i]) {
+					in.or(live[succ]);
+				}
+
+				AbstractInsnNode insn = insns.get(i);
+				if (insn instanceof VarInsnNode) {
+					int opcode = insn.getOpcode();
+					int var = ((VarInsnNode) insn).var;
+					if (opcode >= Opcodes.ISTORE && opcode <= Opcodes.ASTORE) {
+						in.clear(var);
+					} else {
+						// xLOAD or RET
+						in.set(var);
+					}
+				} else if (insn instanceof IincInsnNode) {
+					in.set(((IincInsnNode) insn).var);
+				}
+
+				// Exception could be thrown before the instruction completes
+				if (handlers.get(i) != null) {
+					for (int handler : handlers.get(i)) {
+						in.or(live[handler]);
+					}
+				}
+
+				if (!in.equals(live[i])) {
+					live[i] = in;
+					changed = true;
+				}
+			}
+		}
+		return live;
+	}
+
+	private static int[] successors(InsnList insns, int index) {
+		AbstractInsnNode insn = insns.get(index);
+		boolean last = index + 1 >= insns.size();
+
+		switch (insn.getType()) {
+		case AbstractInsnNode.JUMP_INSN: {
+			int target = insns.indexOf(((JumpInsnNode) insn).label);
+			if (insn.getOpcode() == Opcodes.GOTO || last) {
+				return new int[] { target };
+			}
+			return new int[] { target, index + 1 };
+		}
+		case AbstractInsnNode.TABLESWITCH_INSN: {
+			TableSwitchInsnNode sw = (TableSwitchInsnNode) insn;
+			return targets(insns, sw.dflt, sw.labels);
+		}
+		case AbstractInsnNode.LOOKUPSWITCH_INSN: {
+			LookupSwitchInsnNode sw = (LookupSwitchInsnNode) insn;
+			return targets(insns, sw.dflt, sw.labels);
+		}
+		}
+
+		switch (insn.getOpcode()) {
+		case Opcodes.IRETURN:
+		case Opcodes.LRETURN:
+		case Opcodes.FRETURN:
+		case Opcodes.DRETURN:
+		case Opcodes.ARETURN:
+		case Opcodes.RETURN:
+		case Opcodes.ATHROW:
+		case Opcodes.RET:
+			return new int[0];
+		}
+		return last ? new int[0] : new int[] { index + 1 };
+	}
+
+	private static int[] targets(InsnList insns, LabelNode dflt,
+			List<?> labels) {
+		int[] result = new int[labels.size() + 1];
+		result[0] = insns.indexOf(dflt);
+		for (int i = 0; i < labels.size(); ++i) {
+			result[i + 1] = insns.indexOf((LabelNode) labels.get(i));
+		}
+		return result;
+	}
+
+	private Liveness() {
+		// No instances.
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.instrument.util;
+
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.BasicInterpreter;
+import org.objectweb.asm.tree.analysis.BasicValue;
+import org.objectweb.asm.tree.analysis.Frame;
+import org.objectweb.asm.tree.analysis.Value;
+
+/**
+ * Forward data-flow analysis that calculates types of local variables at the
+ * beginning of each instruction.
+ * <p>
+ * Stack map frames only describe locals at branch targets, so locals assigned
+ * after the last frame are not known from frames alone. This analysis tracks
+ * exact types along straight-line code; different classes are merged into
+ * their common super class. Where other reference types are merged the type is
+ * reported as unknown and the frame at the merge point should be used instead.
+ */
+public final class LocalTypes {
+
+	/**
+	 * Type reported for locals holding the <code>null</code> constant. Actual
+	 * type of such local is not known, so it should not be saved to a field;
+	 * <code>null</code> could be stored to it again instead.
+	 */
+	public static final Type NULL_TYPE = Type.getObjectType("null");
+
+	private static final BasicValue NULL_VALUE = new BasicValue(NULL_TYPE);
+
+	/**
+	 * Analyzes given method.
+	 *
+	 * @param owner
+	 *            internal name of the class declaring the method
+	 * @param method
+	 *            method to analyze
+	 * @param hierarchy
+	 *            class hierarchy to merge different classes with
+	 * @return types of locals (indexed by slot) for each instruction of the
+	 *         method, <code>null</code> for unreachable instructions. Unknown
+	 *         types and second slots of long and double values are
+	 *         <code>null</code>.
+	 */
+	public static Type[][] analyze(String owner, MethodNode method,
+			ClassHierarchy hierarchy) {
+		Frame[] frames;
+		try {
+			frames = new Analyzer(new ExactInterpreter(hierarchy)).analyze(
+					owner, method);
+		} catch (AnalyzerException ex) {
+			throw new IllegalStateException("Failed to analyze method "
+					+ owner + "." + method.name + method.desc, ex);
+		}
+
+		Type[][] result = new Type[frames.length][];
+		for (int i = 0; i < frames.length; ++i) {
+			Frame frame = frames[i];
+			if (frame == null) {
+				continue;
+			}
+			Type[] types = new Type[frame.getLocals()];
+			for (int slot = 0; slot < types.length; ++slot) {
+				BasicValue value = (BasicValue) frame.getLocal(slot);
+				if (value != BasicValue.UNINITIALIZED_VALUE
+						&& value != BasicValue.REFERENCE_VALUE
+						&& value != BasicValue.RETURNADDRESS_VALUE) {
+					types[slot] = value.getType();
+				}
+			}
+			result[i] = types;
+		}
+		return result;
+	}
+
+	/**
+	 * Keeps exact types of references instead of merging them all into
+	 * {@link BasicValue#REFERENCE_VALUE}.
+	 */
+	private static final class ExactInterpreter extends BasicInterpreter {
+
+		private final ClassHierarchy hierarchy;
+
+		ExactInterpreter(ClassHierarchy hierarchy) {
+			this.hierarchy = hierarchy;
+		}
+
+		@Override
+		public Value newOperation(AbstractInsnNode insn)
+				throws AnalyzerException {
+			if (insn.getOpcode() == Opcodes.ACONST_NULL) {
+				return NULL_VALUE;
+			}
+			return super.newOperation(insn);
+		}
+
+		@Override
+		public Value newValue(Type type) {
+			if (type != null
+					&& (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY)) {
+				return new BasicValue(type);
+			}
+			return super.newValue(type);
+		}
+
+		@Override
+		public Value binaryOperation(AbstractInsnNode insn, Value value1,
+				Value value2) throws AnalyzerException {
+			if (insn.getOpcode() == Opcodes.AALOAD) {
+				Type type = ((BasicValue) value1).getType();
+				if (type != null && type.getSort() == Type.ARRAY) {
+					return newValue(Type.getType(type.getDescriptor()
+							.substring(1)));
+				}
+			}
+			return super.binaryOperation(insn, value1, value2);
+		}
+
+		@Override
+		public Value merge(Value v, Value w) {
+			if (v.equals(w)) {
+				return v;
+			}
+			// null is assignable to any reference
+			if (v == NULL_VALUE && isExact(w)) {
+				return w;
+			}
+			if (w == NULL_VALUE && isExact(v)) {
+				return v;
+			}
+			Type type1 = ((BasicValue) v).getType();
+			Type type2 = ((BasicValue) w).getType();
+			if (isExact(v) && isExact(w) && type1.getSort() == Type.OBJECT
+					&& type2.getSort() == Type.OBJECT) {
+				String common = hierarchy.getCommonSuperClass(type1
+						.getInternalName(), type2.getInternalName());
+				if (common.equals(type1.getInternalName())) {
+					return v;
+				}
+				return newValue(Type.getObjectType(common));
+			}
+			// Frame at the merge point should be used
+			return BasicValue.UNINITIALIZED_VALUE;
+		}
+
+		private static boolean isExact(Value value) {
+			Type type = ((BasicValue) value).getType();
+			return value != NULL_VALUE && value != BasicValue.REFERENCE_VALUE
+					&& type != null
+					&& (type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY);
+		}
+	}
+
+	private LocalTypes() {
+		// No instances.
+	}
+}
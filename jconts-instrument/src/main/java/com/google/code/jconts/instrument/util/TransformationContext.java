@@ -18,8 +18,10 @@ package com.google.code.jconts.instrument.util;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.objectweb.asm.ClassAdapter;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
 /**
  * Data class that collects all generated classes as well as the transformed
@@ -28,15 +30,53 @@ import org.objectweb.asm.ClassWriter;
 public class TransformationContext {
 
 	private final Map<String, byte[]> code = new HashMap<String, byte[]>();
+	private final ClassHierarchy hierarchy;
+
+	/**
+	 * @param loader
+	 *            class loader to read the class hierarchy from,
+	 *            <code>null</code> for the system class loader
+	 */
+	public TransformationContext(ClassLoader loader) {
+		this.hierarchy = new ClassHierarchy(loader);
+	}
+
+	/**
+	 * Declares the class that is going to be generated, so frames of the
+	 * methods referring to it could be computed before it is written.
+	 */
+	public void declareClass(String name, String superName) {
+		hierarchy.declare(name, superName, false);
+	}
+
+	public ClassHierarchy getHierarchy() {
+		return hierarchy;
+	}
 
 	public ClassVisitor writer() {
-		ClassVisitor cv = new ClassWriter(0) {
+		// Writer is created once we know the class version: Java 6 classes
+		// (and later) need stack map frames, which we do not maintain while
+		// transforming the code, so they are computed from scratch.
+		ClassVisitor cv = new ClassAdapter(null) {
 
 			private String thisName;
+			private ClassWriter writer;
 
 			@Override
 			public void visit(int version, int access, String name,
 					String signature, String superName, String[] interfaces) {
+				hierarchy.declare(name, superName,
+						(access & Opcodes.ACC_INTERFACE) != 0);
+				int flags = (version & 0xFFFF) >= Opcodes.V1_6 ? ClassWriter.COMPUTE_FRAMES
+						: 0;
+				writer = new ClassWriter(flags) {
+					@Override
+					protected String getCommonSuperClass(String type1,
+							String type2) {
+						return hierarchy.getCommonSuperClass(type1, type2);
+					}
+				};
+				cv = writer;
 				super.visit(version, access, name, signature, superName,
 						interfaces);
 				this.thisName = name;
@@ -46,7 +86,7 @@ public class TransformationContext {
 			public void visitEnd() {
 				super.visitEnd();
 
-				code.put(thisName, toByteArray());
+				code.put(thisName, writer.toByteArray());
 			}
 		};
 
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests;
+
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+
+/**
+ * Computations awaited by the tests.
+ */
+public final class Computations {
+
+	private Computations() {
+	}
+
+	/**
+	 * Creates computation that is completed synchronously when executed.
+	 * Unlike {@link com.google.code.jconts.Async#completed(Object)}, it is not
+	 * recognized by the instrumented code, so awaiting it passes the result
+	 * through the continuation.
+	 */
+	public static <T> Computation<T> immediate(final T value) {
+		return new Computation<T>() {
+			@Override
+			public void execute(Continuation<? super T> c) {
+				c.invoke(value);
+			}
+		};
+	}
+
+	/**
+	 * Creates computation that is completed by the new thread.
+	 */
+	public static <T> Computation<T> onNewThread(final T value) {
+		return new Computation<T>() {
+			@Override
+			public void execute(final Continuation<? super T> c) {
+				new Thread() {
+					@Override
+					public void run() {
+						c.invoke(value);
+					}
+				}.start();
+			}
+		};
+	}
+}
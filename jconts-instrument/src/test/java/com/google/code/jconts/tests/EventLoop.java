@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+
+/**
+ * Single-threaded event loop. Computations created by {@link #defer(Object)}
+ * are never completed synchronously, so every await on them suspends and is
+ * resumed through the dispatch of the awaiting method.
+ */
+public final class EventLoop {
+
+	private final Queue<Runnable> queue = new ArrayDeque<Runnable>();
+
+	public <T> Computation<T> defer(final T value) {
+		return new Computation<T>() {
+			@Override
+			public void execute(final Continuation<? super T> c) {
+				queue.add(new Runnable() {
+					@Override
+					public void run() {
+						c.invoke(value);
+					}
+				});
+			}
+		};
+	}
+
+	/**
+	 * Executes the computation and runs queued tasks until it is completed.
+	 */
+	public <T> T run(Computation<T> task) throws Exception {
+		final Object[] result = new Object[1];
+		final Throwable[] exception = new Throwable[1];
+		task.execute(new Continuation<T>() {
+			@Override
+			public void invoke(T data) {
+				result[0] = data;
+			}
+
+			@Override
+			public void setException(Throwable t) {
+				exception[0] = t;
+			}
+		});
+		Runnable next;
+		while ((next = queue.poll()) != null) {
+			next.run();
+		}
+		if (exception[0] instanceof Exception) {
+			throw (Exception) exception[0];
+		} else if (exception[0] != null) {
+			throw new IllegalStateException(exception[0]);
+		}
+		@SuppressWarnings("unchecked")
+		T value = (T) result[0];
+		return value;
+	}
+}
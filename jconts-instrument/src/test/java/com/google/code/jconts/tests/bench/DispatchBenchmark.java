@@ -0,0 +1,322 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.bench;
+
+import java.io.InputStream;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.instrument.Transformer;
+import com.google.code.jconts.tests.EventLoop;
+
+/**
+ * Measures the cost of resuming the method with many await sites. Every await
+ * suspends, so each resume goes through the dispatch switch of the method.
+ * <p>
+ * Workload is transformed by the benchmark itself and is loaded twice: as
+ * generated (<code>tableswitch</code> dispatch) and with the dispatch
+ * rewritten to <code>lookupswitch</code>, as it was generated before, to have
+ * the baseline to compare with. Should be run without the instrumentation
+ * agent, but with the instrumenter and ASM on the class path, for example:
+ * <code>java -cp jconts-instrument.jar:asm-all.jar:... DispatchBenchmark 20000</code>
+ */
+public final class DispatchBenchmark {
+
+	private static final int AWAITS = 128;
+
+	private static final String WORKLOAD = DispatchBenchmark.class.getName()
+			+ "$Awaits";
+
+	private static int checksum;
+
+	public interface Workload {
+		int run(int x) throws Exception;
+	}
+
+	/**
+	 * Loaded by {@link VariantLoader} only, never referenced directly.
+	 */
+	public static final class Awaits implements Workload {
+		private final EventLoop loop = new EventLoop();
+
+		@IsAsync
+		public Computation<Integer> execute(int x) {
+			x = Async.await(loop.defer(x + 0));
+			x = Async.await(loop.defer(x + 1));
+			x = Async.await(loop.defer(x + 2));
+			x = Async.await(loop.defer(x + 3));
+			x = Async.await(loop.defer(x + 4));
+			x = Async.await(loop.defer(x + 5));
+			x = Async.await(loop.defer(x + 6));
+			x = Async.await(loop.defer(x + 7));
+			x = Async.await(loop.defer(x + 8));
+			x = Async.await(loop.defer(x + 9));
+			x = Async.await(loop.defer(x + 10));
+			x = Async.await(loop.defer(x + 11));
+			x = Async.await(loop.defer(x + 12));
+			x = Async.await(loop.defer(x + 13));
+			x = Async.await(loop.defer(x + 14));
+			x = Async.await(loop.defer(x + 15));
+			x = Async.await(loop.defer(x + 16));
+			x = Async.await(loop.defer(x + 17));
+			x = Async.await(loop.defer(x + 18));
+			x = Async.await(loop.defer(x + 19));
+			x = Async.await(loop.defer(x + 20));
+			x = Async.await(loop.defer(x + 21));
+			x = Async.await(loop.defer(x + 22));
+			x = Async.await(loop.defer(x + 23));
+			x = Async.await(loop.defer(x + 24));
+			x = Async.await(loop.defer(x + 25));
+			x = Async.await(loop.defer(x + 26));
+			x = Async.await(loop.defer(x + 27));
+			x = Async.await(loop.defer(x + 28));
+			x = Async.await(loop.defer(x + 29));
+			x = Async.await(loop.defer(x + 30));
+			x = Async.await(loop.defer(x + 31));
+			x = Async.await(loop.defer(x + 32));
+			x = Async.await(loop.defer(x + 33));
+			x = Async.await(loop.defer(x + 34));
+			x = Async.await(loop.defer(x + 35));
+			x = Async.await(loop.defer(x + 36));
+			x = Async.await(loop.defer(x + 37));
+			x = Async.await(loop.defer(x + 38));
+			x = Async.await(loop.defer(x + 39));
+			x = Async.await(loop.defer(x + 40));
+			x = Async.await(loop.defer(x + 41));
+			x = Async.await(loop.defer(x + 42));
+			x = Async.await(loop.defer(x + 43));
+			x = Async.await(loop.defer(x + 44));
+			x = Async.await(loop.defer(x + 45));
+			x = Async.await(loop.defer(x + 46));
+			x = Async.await(loop.defer(x + 47));
+			x = Async.await(loop.defer(x + 48));
+			x = Async.await(loop.defer(x + 49));
+			x = Async.await(loop.defer(x + 50));
+			x = Async.await(loop.defer(x + 51));
+			x = Async.await(loop.defer(x + 52));
+			x = Async.await(loop.defer(x + 53));
+			x = Async.await(loop.defer(x + 54));
+			x = Async.await(loop.defer(x + 55));
+			x = Async.await(loop.defer(x + 56));
+			x = Async.await(loop.defer(x + 57));
+			x = Async.await(loop.defer(x + 58));
+			x = Async.await(loop.defer(x + 59));
+			x = Async.await(loop.defer(x + 60));
+			x = Async.await(loop.defer(x + 61));
+			x = Async.await(loop.defer(x + 62));
+			x = Async.await(loop.defer(x + 63));
+			x = Async.await(loop.defer(x + 64));
+			x = Async.await(loop.defer(x + 65));
+			x = Async.await(loop.defer(x + 66));
+			x = Async.await(loop.defer(x + 67));
+			x = Async.await(loop.defer(x + 68));
+			x = Async.await(loop.defer(x + 69));
+			x = Async.await(loop.defer(x + 70));
+			x = Async.await(loop.defer(x + 71));
+			x = Async.await(loop.defer(x + 72));
+			x = Async.await(loop.defer(x + 73));
+			x = Async.await(loop.defer(x + 74));
+			x = Async.await(loop.defer(x + 75));
+			x = Async.await(loop.defer(x + 76));
+			x = Async.await(loop.defer(x + 77));
+			x = Async.await(loop.defer(x + 78));
+			x = Async.await(loop.defer(x + 79));
+			x = Async.await(loop.defer(x + 80));
+			x = Async.await(loop.defer(x + 81));
+			x = Async.await(loop.defer(x + 82));
+			x = Async.await(loop.defer(x + 83));
+			x = Async.await(loop.defer(x + 84));
+			x = Async.await(loop.defer(x + 85));
+			x = Async.await(loop.defer(x + 86));
+			x = Async.await(loop.defer(x + 87));
+			x = Async.await(loop.defer(x + 88));
+			x = Async.await(loop.defer(x + 89));
+			x = Async.await(loop.defer(x + 90));
+			x = Async.await(loop.defer(x + 91));
+			x = Async.await(loop.defer(x + 92));
+			x = Async.await(loop.defer(x + 93));
+			x = Async.await(loop.defer(x + 94));
+			x = Async.await(loop.defer(x + 95));
+			x = Async.await(loop.defer(x + 96));
+			x = Async.await(loop.defer(x + 97));
+			x = Async.await(loop.defer(x + 98));
+			x = Async.await(loop.defer(x + 99));
+			x = Async.await(loop.defer(x + 100));
+			x = Async.await(loop.defer(x + 101));
+			x = Async.await(loop.defer(x + 102));
+			x = Async.await(loop.defer(x + 103));
+			x = Async.await(loop.defer(x + 104));
+			x = Async.await(loop.defer(x + 105));
+			x = Async.await(loop.defer(x + 106));
+			x = Async.await(loop.defer(x + 107));
+			x = Async.await(loop.defer(x + 108));
+			x = Async.await(loop.defer(x + 109));
+			x = Async.await(loop.defer(x + 110));
+			x = Async.await(loop.defer(x + 111));
+			x = Async.await(loop.defer(x + 112));
+			x = Async.await(loop.defer(x + 113));
+			x = Async.await(loop.defer(x + 114));
+			x = Async.await(loop.defer(x + 115));
+			x = Async.await(loop.defer(x + 116));
+			x = Async.await(loop.defer(x + 117));
+			x = Async.await(loop.defer(x + 118));
+			x = Async.await(loop.defer(x + 119));
+			x = Async.await(loop.defer(x + 120));
+			x = Async.await(loop.defer(x + 121));
+			x = Async.await(loop.defer(x + 122));
+			x = Async.await(loop.defer(x + 123));
+			x = Async.await(loop.defer(x + 124));
+			x = Async.await(loop.defer(x + 125));
+			x = Async.await(loop.defer(x + 126));
+			x = Async.await(loop.defer(x + 127));
+			return Async.areturn(x);
+		}
+
+		@Override
+		public int run(int x) throws Exception {
+			return loop.run(execute(x));
+		}
+	}
+
+	/**
+	 * Defines given classes itself, everything else is loaded by the parent.
+	 */
+	private static final class VariantLoader extends ClassLoader {
+		private final Map<String, byte[]> classes;
+
+		VariantLoader(ClassLoader parent, Map<String, byte[]> classes) {
+			super(parent);
+			this.classes = classes;
+		}
+
+		@Override
+		protected synchronized Class<?> loadClass(String name, boolean resolve)
+				throws ClassNotFoundException {
+			byte[] bytecode = classes.get(name.replace('.', '/'));
+			if (bytecode == null) {
+				return super.loadClass(name, resolve);
+			}
+			Class<?> clazz = findLoadedClass(name);
+			if (clazz == null) {
+				clazz = defineClass(name, bytecode, 0, bytecode.length);
+			}
+			if (resolve) {
+				resolveClass(clazz);
+			}
+			return clazz;
+		}
+	}
+
+	private static Workload load(boolean lookupSwitch) throws Exception {
+		ClassLoader parent = DispatchBenchmark.class.getClassLoader();
+		InputStream in = parent.getResourceAsStream(WORKLOAD.replace('.', '/')
+				+ ".class");
+		byte[] bytecode;
+		try {
+			bytecode = new ClassReader(in).b;
+		} finally {
+			in.close();
+		}
+
+		Map<String, byte[]> classes = Transformer.transformClass(bytecode,
+				parent);
+		if (lookupSwitch) {
+			for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+				entry.setValue(toLookupSwitch(entry.getValue()));
+			}
+		}
+		return (Workload) new VariantLoader(parent, classes).loadClass(
+				WORKLOAD).newInstance();
+	}
+
+	/**
+	 * Replaces every <code>tableswitch</code> with the equivalent
+	 * <code>lookupswitch</code>. Frames are attached to labels, so they stay
+	 * valid.
+	 */
+	private static byte[] toLookupSwitch(byte[] bytecode) {
+		ClassNode node = new ClassNode();
+		new ClassReader(bytecode).accept(node, 0);
+		for (Object m : node.methods) {
+			InsnList instructions = ((MethodNode) m).instructions;
+			for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn
+					.getNext()) {
+				if (insn.getOpcode() == Opcodes.TABLESWITCH) {
+					TableSwitchInsnNode table = (TableSwitchInsnNode) insn;
+					int[] keys = new int[table.labels.size()];
+					LabelNode[] labels = new LabelNode[keys.length];
+					for (int i = 0; i < keys.length; ++i) {
+						keys[i] = table.min + i;
+						labels[i] = (LabelNode) table.labels.get(i);
+					}
+					LookupSwitchInsnNode lookup = new LookupSwitchInsnNode(
+							table.dflt, keys, labels);
+					instructions.set(table, lookup);
+					insn = lookup;
+				}
+			}
+		}
+		ClassWriter writer = new ClassWriter(0);
+		node.accept(writer);
+		return writer.toByteArray();
+	}
+
+	private static long measure(Workload workload, int iterations)
+			throws Exception {
+		long start = System.nanoTime();
+		int result = 0;
+		for (int i = 0; i < iterations; ++i) {
+			result ^= workload.run(i);
+		}
+		long elapsed = System.nanoTime() - start;
+		// Results of both variants must be the same
+		checksum ^= result;
+		return elapsed;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		Workload table = load(false);
+		Workload lookup = load(true);
+
+		// Warm up
+		measure(table, iterations);
+		measure(lookup, iterations);
+
+		for (int round = 0; round < 5; ++round) {
+			long tableTime = measure(table, iterations);
+			long lookupTime = measure(lookup, iterations);
+			System.out.println(String.format(
+					"%d resumes, tableswitch %.1f ns, lookupswitch %.1f ns per resume (%d)",
+					iterations * AWAITS, (double) tableTime / iterations
+							/ AWAITS, (double) lookupTime / iterations / AWAITS,
+					checksum));
+		}
+	}
+}
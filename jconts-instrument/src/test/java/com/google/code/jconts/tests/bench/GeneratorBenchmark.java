@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.bench;
+
+import java.util.Iterator;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Generator;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Compares iterating the asynchronous generator with iterating the equivalent
+ * hand-written iterator.
+ * <p>
+ * Should be run with the instrumentation agent, for example:
+ * <code>java -javaagent:jconts-instrument.jar GeneratorBenchmark 1000000</code>
+ */
+public final class GeneratorBenchmark {
+
+	static final class Range extends Generator<Integer> {
+		private final int count;
+
+		Range(int count) {
+			this.count = count;
+		}
+
+		@IsAsync
+		protected Computation<Void> generate() {
+			for (int i = 0; i < count; ++i) {
+				Async.await(this.yield(i));
+			}
+			return Async.areturn();
+		}
+	}
+
+	static Iterator<Integer> range(final int count) {
+		return new Iterator<Integer>() {
+			private int i;
+
+			@Override
+			public boolean hasNext() {
+				return i < count;
+			}
+
+			@Override
+			public Integer next() {
+				return i++;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static long sum(Iterator<Integer> it) {
+		long sum = 0;
+		while (it.hasNext()) {
+			sum += it.next();
+		}
+		return sum;
+	}
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		for (int round = 0; round < 10; ++round) {
+			long start = System.nanoTime();
+			long generated = sum(new Range(count).iterator());
+			long middle = System.nanoTime();
+			long iterated = sum(range(count));
+			long end = System.nanoTime();
+			System.out.println(String.format(
+					"generator %.1f ns, iterator %.1f ns per element (%d, %d)",
+					(double) (middle - start) / count, (double) (end - middle)
+							/ count, generated, iterated));
+		}
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.AsyncGenerator;
+import com.google.code.jconts.AsyncIterable;
+import com.google.code.jconts.AsyncIterator;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Streaming elements with asynchronous producer and consumer.
+ */
+public class AsyncIteratorIT {
+
+	/**
+	 * Producer fetching pages of the elements, one page at a time.
+	 */
+	static final class Pages implements AsyncIterable<Integer> {
+		private final int pages;
+		private final int pageSize;
+		private int fetched;
+
+		Pages(int pages, int pageSize) {
+			this.pages = pages;
+			this.pageSize = pageSize;
+		}
+
+		@Override
+		public AsyncIterator<Integer> asyncIterator() {
+			return new AsyncGenerator<Integer>() {
+				@IsAsync
+				protected Computation<Void> generate() {
+					for (int page = 0; page < pages; ++page) {
+						List<Integer> elements = Async.await(fetch(page));
+						for (int i = 0; i < elements.size(); ++i) {
+							Async.await(this.yield(elements.get(i)));
+						}
+					}
+					return Async.areturn();
+				}
+			};
+		}
+
+		@IsAsync
+		Computation<List<Integer>> fetch(int page) {
+			Async.await(Async.sleep(1));
+			fetched++;
+			List<Integer> elements = new ArrayList<Integer>();
+			for (int i = 0; i < pageSize; ++i) {
+				elements.add(page * pageSize + i);
+			}
+			return Async.areturn(elements);
+		}
+	}
+
+	@Test
+	public void testPaged() throws Exception {
+		Pages pages = new Pages(5, 100);
+		Assert.assertEquals(Long.valueOf(124750), Async.waitCompleted(sum(pages
+				.asyncIterator())));
+		Assert.assertEquals(5, pages.fetched);
+	}
+
+	@Test
+	public void testIncremental() throws Exception {
+		// Consumer stops early, remaining pages are never fetched
+		Pages pages = new Pages(100, 10);
+		Assert.assertEquals(Long.valueOf(45), Async.waitCompleted(sumFirst(
+				pages.asyncIterator(), 10)));
+		Assert.assertEquals(1, pages.fetched);
+	}
+
+	@IsAsync
+	public Computation<Long> sum(AsyncIterator<Integer> it) {
+		long sum = 0;
+		while (Async.await(it.next())) {
+			sum += it.current();
+		}
+		return Async.areturn(sum);
+	}
+
+	@IsAsync
+	public Computation<Long> sumFirst(AsyncIterator<Integer> it, int count) {
+		long sum = 0;
+		int i = 0;
+		while (i < count && Async.await(it.next())) {
+			sum += it.current();
+			i++;
+		}
+		return Async.areturn(sum);
+	}
+
+	@Test
+	public void testSynchronous() throws Exception {
+		// Producer and consumer take turns on the same thread
+		Assert.assertEquals(Long.valueOf(499500L), Async.waitCompleted(sum(
+				range(1000))));
+	}
+
+	@Test
+	public void testTransform() throws Exception {
+		Assert.assertEquals(Long.valueOf(2 * 4950), Async.waitCompleted(sum(
+				doubled(range(100)))));
+	}
+
+	private AsyncIterator<Integer> range(final int count) {
+		return new AsyncGenerator<Integer>() {
+			@IsAsync
+			protected Computation<Void> generate() {
+				for (int i = 0; i < count; ++i) {
+					Async.await(this.yield(i));
+				}
+				return Async.areturn();
+			}
+		};
+	}
+
+	/**
+	 * Producer consuming other iterator.
+	 */
+	private AsyncIterator<Integer> doubled(final AsyncIterator<Integer> source) {
+		return new AsyncGenerator<Integer>() {
+			@IsAsync
+			protected Computation<Void> generate() {
+				while (Async.await(source.next())) {
+					Async.await(this.yield(source.current() * 2));
+				}
+				return Async.areturn();
+			}
+		};
+	}
+
+	@Test
+	public void testException() throws Exception {
+		AsyncIterator<Integer> failing = new AsyncGenerator<Integer>() {
+			@IsAsync
+			protected Computation<Void> generate() {
+				Async.await(this.yield(1));
+				Async.await(Async.sleep(1));
+				throw new IllegalStateException("failed");
+			}
+		};
+		try {
+			Async.waitCompleted(sum(failing));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals("failed", e.getCause().getMessage());
+		}
+	}
+}
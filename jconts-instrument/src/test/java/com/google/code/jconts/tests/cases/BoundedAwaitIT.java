@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Fan-out with bounded amount of the running tasks.
+ */
+public class BoundedAwaitIT {
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(8);
+	private final AtomicInteger running = new AtomicInteger();
+	private final AtomicInteger maxRunning = new AtomicInteger();
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicInteger steps = new AtomicInteger();
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testBounded() throws Exception {
+		List<Computation<Integer>> tasks = new ArrayList<Computation<Integer>>();
+		for (int i = 0; i < 1000; ++i) {
+			tasks.add(pooled(i));
+		}
+		List<Object> results = Async.waitCompleted(Async.multiAwait(tasks, 4));
+		Assert.assertEquals(1000, results.size());
+		for (int i = 0; i < 1000; ++i) {
+			Assert.assertEquals(i * 2, results.get(i));
+		}
+		Assert.assertTrue(maxRunning.get() <= 4);
+		Assert.assertEquals(0, running.get());
+	}
+
+	@IsAsync
+	public Computation<Integer> pooled(int i) {
+		int now = running.incrementAndGet();
+		int max = maxRunning.get();
+		while (now > max && !maxRunning.compareAndSet(max, now)) {
+			max = maxRunning.get();
+		}
+		Async.await(Async.resumeOn(pool));
+		running.decrementAndGet();
+		return Async.areturn(i * 2);
+	}
+
+	@Test
+	public void testSynchronous() throws Exception {
+		// Synchronously completed tasks must not grow the stack
+		List<Object> results = Async.waitCompleted(Async.multiAwait(
+				lazy(50000, -1), 1));
+		Assert.assertEquals(50000, results.size());
+		Assert.assertEquals(49999, results.get(49999));
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		Assert.assertTrue(Async.waitCompleted(
+				Async.multiAwait(new ArrayList<Computation<?>>(), 2))
+				.isEmpty());
+	}
+
+	@Test
+	public void testFailFast() throws Exception {
+		try {
+			Async.waitCompleted(Async.multiAwait(lazy(1000, 2), 4));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals("failed 2", e.getCause().getMessage());
+		}
+		// No more tasks are created after the failure
+		Assert.assertEquals(4, created.get());
+
+		// Running tasks are cancelled
+		int stopped = steps.get();
+		Thread.sleep(50);
+		Assert.assertEquals(stopped, steps.get());
+	}
+
+	@Test
+	public void testExecuteFailed() throws Exception {
+		List<Computation<?>> tasks = new ArrayList<Computation<?>>();
+		tasks.add(Async.completed(1));
+		tasks.add(new Computation<Object>() {
+			@Override
+			public void execute(Continuation<? super Object> c) {
+				throw new IllegalStateException("execute failed");
+			}
+		});
+		tasks.add(Async.completed(3));
+		try {
+			Async.waitCompleted(Async.multiAwait(tasks, 2));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals("execute failed", e.getCause().getMessage());
+		}
+	}
+
+	@Test
+	public void testFailureOutsideMonitor() throws Exception {
+		final AtomicReference<Continuation<? super Object>> first = new AtomicReference<Continuation<? super Object>>();
+		final Computation<Object> capturing = new Computation<Object>() {
+			@Override
+			public void execute(Continuation<? super Object> c) {
+				first.set(c);
+			}
+		};
+		Iterable<Computation<?>> tasks = new Iterable<Computation<?>>() {
+			@Override
+			public Iterator<Computation<?>> iterator() {
+				return new Iterator<Computation<?>>() {
+					private boolean started;
+
+					@Override
+					public boolean hasNext() {
+						return true;
+					}
+
+					@Override
+					public Computation<?> next() {
+						if (started) {
+							throw new IllegalStateException("iterator failed");
+						}
+						started = true;
+						return capturing;
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+
+		// Task completed by other thread while the failure is delivered must
+		// not wait for the scope
+		final AtomicBoolean completed = new AtomicBoolean();
+		Async.multiAwait(tasks, 2).execute(new Continuation<List<Object>>() {
+			@Override
+			public void invoke(List<Object> data) {
+				Assert.fail();
+			}
+
+			@Override
+			public void setException(Throwable t) {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						first.get().invoke("late");
+						completed.set(true);
+					}
+				};
+				thread.start();
+				try {
+					thread.join(1000);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		Assert.assertTrue(completed.get());
+	}
+
+	@IsAsync
+	public Computation<Integer> sleeping(int i) {
+		int k = 0;
+		while (k < 100) {
+			Async.await(Async.sleep(5));
+			steps.incrementAndGet();
+			k++;
+		}
+		return Async.areturn(i);
+	}
+
+	@IsAsync
+	public Computation<Integer> failing(int i) {
+		Async.await(Async.sleep(5));
+		throw new IllegalStateException("failed " + i);
+	}
+
+	/**
+	 * Iterable that creates the tasks on demand. Task at given index fails,
+	 * others sleep; all tasks are completed immediately if none fails.
+	 */
+	private Iterable<Computation<?>> lazy(final int count, final int failing) {
+		return new Iterable<Computation<?>>() {
+			@Override
+			public Iterator<Computation<?>> iterator() {
+				return new Iterator<Computation<?>>() {
+					private int index;
+
+					@Override
+					public boolean hasNext() {
+						return index < count;
+					}
+
+					@Override
+					public Computation<?> next() {
+						int i = index++;
+						created.incrementAndGet();
+						if (failing < 0) {
+							return Async.completed(i);
+						}
+						return i == failing ? failing(i) : sleeping(i);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+}
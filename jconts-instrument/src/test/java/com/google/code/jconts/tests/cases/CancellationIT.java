@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Cancellation token propagated to the awaited asynchronous methods.
+ */
+public class CancellationIT {
+
+	private final AtomicInteger steps = new AtomicInteger();
+
+	@Test
+	public void testCancelChildren() throws Exception {
+		CancellationToken token = new CancellationToken();
+		Started<String> parent = new Started<String>(Async.withCancellation(
+				parent(), token));
+		Thread.sleep(50);
+		token.cancel();
+		try {
+			parent.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CancellationException);
+		}
+		int stopped = steps.get();
+		Assert.assertTrue(stopped > 0 && stopped < 200);
+
+		// Children do not continue after cancellation
+		Thread.sleep(50);
+		Assert.assertEquals(stopped, steps.get());
+	}
+
+	@IsAsync
+	public Computation<String> parent() {
+		Async.await(Async.multiAwait(child(100), child(100)));
+		return Async.areturn("completed");
+	}
+
+	@IsAsync
+	public Computation<Integer> child(int count) {
+		int i = 0;
+		while (i < count) {
+			Async.await(Async.sleep(5));
+			steps.incrementAndGet();
+			i++;
+		}
+		return Async.areturn(i);
+	}
+
+	@Test
+	public void testCancelledBeforeStart() throws Exception {
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		try {
+			Async.waitCompleted(Async.withCancellation(child(1), token));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CancellationException);
+		}
+		Assert.assertEquals(0, steps.get());
+	}
+
+	@Test
+	public void testCatchCancellation() throws Exception {
+		CancellationToken parent = new CancellationToken();
+		CancellationToken token = new CancellationToken(parent);
+		Started<String> task = new Started<String>(Async.withCancellation(
+				catching(), token));
+		Thread.sleep(20);
+		parent.cancel();
+		Assert.assertEquals("cancelled", task.get());
+	}
+
+	@IsAsync
+	public Computation<String> catching() {
+		try {
+			Async.await(child(100));
+			return Async.areturn("completed");
+		} catch (CancellationException e) {
+			return Async.areturn("cancelled");
+		}
+	}
+
+	/**
+	 * Computation that is started immediately.
+	 */
+	private static final class Started<T> implements Continuation<T> {
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private T result;
+		private Throwable exception;
+
+		Started(Computation<T> task) {
+			task.execute(this);
+		}
+
+		@Override
+		public void invoke(T data) {
+			result = data;
+			latch.countDown();
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			exception = t;
+			latch.countDown();
+		}
+
+		T get() throws InterruptedException, ExecutionException {
+			latch.await();
+			if (exception != null) {
+				throw new ExecutionException(exception);
+			}
+			return result;
+		}
+	}
+
+	@Test
+	public void testNotCancelled() throws Exception {
+		Assert.assertEquals(Integer.valueOf(3), Async.waitCompleted(Async
+				.withCancellation(child(3), new CancellationToken())));
+	}
+}
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.AsyncIterator;
+import com.google.code.jconts.Channel;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.util.EmptyContinuation;
+
+/**
+ * Passing values between asynchronous methods through the channel.
+ */
+public class ChannelIT {
+
+	private final AtomicInteger sent = new AtomicInteger();
+
+	@IsAsync
+	public Computation<Void> produce(Channel<Integer> channel, int count) {
+		for (int i = 0; i < count; ++i) {
+			Async.await(channel.send(i));
+			sent.incrementAndGet();
+		}
+		channel.close();
+		return Async.areturn();
+	}
+
+	@IsAsync
+	public Computation<Void> doubled(Channel<Integer> source,
+			Channel<Integer> target) {
+		AsyncIterator<Integer> it = source.asyncIterator();
+		while (Async.await(it.next())) {
+			Async.await(target.send(it.current() * 2));
+		}
+		target.close();
+		return Async.areturn();
+	}
+
+	@IsAsync
+	public Computation<Long> sum(Channel<Integer> channel) {
+		long sum = 0;
+		AsyncIterator<Integer> it = channel.asyncIterator();
+		while (Async.await(it.next())) {
+			sum += it.current();
+		}
+		return Async.areturn(sum);
+	}
+
+	@Test
+	public void testPipeline() throws Exception {
+		Channel<Integer> first = new Channel<Integer>(4);
+		Channel<Integer> second = new Channel<Integer>(4);
+		produce(first, 1000).execute(new EmptyContinuation<Void>());
+		doubled(first, second).execute(new EmptyContinuation<Void>());
+		Assert.assertEquals(Long.valueOf(2 * 499500L), Async
+				.waitCompleted(sum(second)));
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		Channel<Integer> channel = new Channel<Integer>(2);
+		produce(channel, 10).execute(new EmptyContinuation<Void>());
+		// Producer is suspended when buffer is full
+		Assert.assertEquals(2, sent.get());
+
+		Assert.assertEquals(Integer.valueOf(0), Async.waitCompleted(channel
+				.receive()));
+		Assert.assertEquals(3, sent.get());
+
+		Assert.assertEquals(Long.valueOf(45), Async
+				.waitCompleted(sum(channel)));
+		Assert.assertEquals(10, sent.get());
+	}
+
+	@Test
+	public void testSuspendedReceiver() throws Exception {
+		Channel<Integer> channel = new Channel<Integer>(1);
+		final List<Integer> received = new ArrayList<Integer>();
+		for (int i = 0; i < 3; ++i) {
+			channel.receive().execute(new EmptyContinuation<Integer>() {
+				@Override
+				public void invoke(Integer data) {
+					received.add(data);
+				}
+			});
+		}
+		Assert.assertTrue(received.isEmpty());
+
+		// Receivers are resumed in order they were suspended
+		Async.waitCompleted(channel.send(1));
+		Async.waitCompleted(channel.send(2));
+		Assert.assertEquals(2, received.size());
+		Assert.assertEquals(Integer.valueOf(1), received.get(0));
+		Assert.assertEquals(Integer.valueOf(2), received.get(1));
+	}
+
+	@Test
+	public void testClose() throws Exception {
+		Channel<Integer> channel = new Channel<Integer>(4);
+		Async.waitCompleted(channel.send(1));
+		channel.close();
+		try {
+			Async.waitCompleted(channel.send(2));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		// Values sent before closing are still delivered
+		Assert.assertEquals(Integer.valueOf(1), Async.waitCompleted(channel
+				.receive()));
+		try {
+			Async.waitCompleted(channel.receive());
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof NoSuchElementException);
+		}
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final int producers = 4;
+		final int count = 20000;
+		final Channel<Integer> channel = new Channel<Integer>(16);
+		final AtomicInteger finished = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int p = 0; p < producers; ++p) {
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 1; i <= count; ++i) {
+							Async.waitCompleted(channel.send(i));
+						}
+						if (finished.incrementAndGet() == producers) {
+							channel.close();
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+		}
+		final List<Computation<Long>> consumers = new ArrayList<Computation<Long>>();
+		for (int c = 0; c < 3; ++c) {
+			consumers.add(sum(channel));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+
+		List<Object> sums = Async.waitCompleted(Async.multiAwait(consumers
+				.toArray(new Computation<?>[0])));
+		long total = 0;
+		for (Object sum : sums) {
+			total += (Long) sum;
+		}
+		Assert.assertEquals((long) producers * count * (count + 1) / 2, total);
+		for (Thread thread : threads) {
+			thread.join();
+		}
+	}
+}
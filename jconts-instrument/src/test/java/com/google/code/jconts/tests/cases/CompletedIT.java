@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Awaiting computations created by {@link Async#completed(Object)}.
+ */
+public class CompletedIT {
+
+	@Test
+	public void testCompleted() throws Exception {
+		// Completed awaits do not suspend, so no stack is consumed even
+		// without trampolining
+		Assert.assertEquals(Long.valueOf(499999500000L),
+				Async.waitCompleted(executeSum(1000000)));
+	}
+
+	@IsAsync
+	public Computation<Long> executeSum(int count) {
+		long sum = 0;
+		for (int i = 0; i < count; ++i) {
+			Integer value = Async.await(Async.completed(i));
+			sum += value;
+		}
+		return Async.areturn(sum);
+	}
+
+	@Test
+	public void testMixed() throws Exception {
+		Assert.assertEquals("null:a:b",
+				Async.waitCompleted(executeMixed("a", "b")));
+	}
+
+	@IsAsync
+	public Computation<String> executeMixed(String first, String second) {
+		Object none = Async.await(Async.completed(null));
+		String a = Async.await(Async.completed(first));
+		Async.await(Async.sleep(1));
+		String b = Async.await(Async.completed(second));
+		return Async.areturn(none + ":" + a + ":" + b);
+	}
+
+	@Test
+	public void testNotInstrumented() throws Exception {
+		Assert.assertEquals("value",
+				Async.waitCompleted(Async.completed("value")));
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.util.HashedWheelTimer;
+
+/**
+ * Delays served by the hashed wheel timer.
+ */
+public class DelayIT {
+
+	@Test
+	public void testSleep() throws Exception {
+		long start = System.nanoTime();
+		Assert.assertEquals("done 3", Async.waitCompleted(sleeping(3, 20)));
+		Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS
+				.toNanos(60));
+	}
+
+	@IsAsync
+	public Computation<String> sleeping(int count, long millis) {
+		int i = 0;
+		while (i < count) {
+			Async.await(Async.sleep(millis));
+			i++;
+		}
+		return Async.areturn("done " + i);
+	}
+
+	@Test
+	public void testCancelledSleep() throws Exception {
+		final CancellationToken token = new CancellationToken();
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				token.cancel();
+			}
+		}.start();
+
+		// Sleep is interrupted by the token instead of waiting for the timer
+		try {
+			Async.waitCompleted(Async.withCancellation(sleeping(1, 60000),
+					token), 10, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CancellationException);
+		}
+	}
+
+	@Test
+	public void testCancelledBeforeSleep() throws Exception {
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		try {
+			Async.waitCompleted(Async.withCancellation(Async.sleep(60000),
+					token), 10, TimeUnit.SECONDS);
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CancellationException);
+		}
+	}
+
+	@Test
+	public void testManyTimeouts() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test timer", 1,
+				TimeUnit.MILLISECONDS, 64);
+		try {
+			int count = 100000;
+			final CountDownLatch latch = new CountDownLatch(count);
+			final AtomicInteger early = new AtomicInteger();
+			for (int i = 0; i < count; ++i) {
+				final long delay = i % 200;
+				final long deadline = System.nanoTime()
+						+ TimeUnit.MILLISECONDS.toNanos(delay);
+				timer.newTimeout(new Runnable() {
+					@Override
+					public void run() {
+						if (System.nanoTime() < deadline) {
+							early.incrementAndGet();
+						}
+						latch.countDown();
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+			Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(0, early.get());
+		} finally {
+			timer.stop();
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		HashedWheelTimer timer = new HashedWheelTimer("test timer", 1,
+				TimeUnit.MILLISECONDS, 64);
+		try {
+			final AtomicInteger fired = new AtomicInteger();
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					fired.incrementAndGet();
+				}
+			};
+			HashedWheelTimer.Timeout cancelled = timer.newTimeout(task, 20,
+					TimeUnit.MILLISECONDS);
+			HashedWheelTimer.Timeout expired = timer.newTimeout(task, 10,
+					TimeUnit.MILLISECONDS);
+			Assert.assertTrue(cancelled.cancel());
+			Assert.assertFalse(cancelled.cancel());
+			Thread.sleep(100);
+			Assert.assertEquals(1, fired.get());
+			Assert.assertTrue(cancelled.isCancelled());
+			Assert.assertTrue(expired.isExpired());
+			Assert.assertFalse(expired.cancel());
+		} finally {
+			timer.stop();
+		}
+	}
+}
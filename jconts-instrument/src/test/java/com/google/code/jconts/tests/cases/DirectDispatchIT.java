@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.instrument.Transformer;
+
+/**
+ * Awaiting asynchronous methods that could not be overridden.
+ */
+public class DirectDispatchIT {
+
+	@Test
+	public void testSameClass() throws Exception {
+		Assert.assertEquals("static:1 private:2 final:3",
+				Async.waitCompleted(executeSameClass()));
+	}
+
+	@IsAsync
+	public Computation<String> executeSameClass() {
+		String a = Async.await(staticMethod(1));
+		String b = Async.await(privateMethod(2));
+		String c = Async.await(finalMethod(3));
+		return Async.areturn(a + " " + b + " " + c);
+	}
+
+	@IsAsync
+	private static Computation<String> staticMethod(int value) {
+		Async.await(Async.sleep(1));
+		return Async.areturn("static:" + value);
+	}
+
+	@IsAsync
+	private Computation<String> privateMethod(int value) {
+		return Async.areturn("private:" + value);
+	}
+
+	@IsAsync
+	public final Computation<String> finalMethod(int value) {
+		return Async.areturn(Async.await(staticMethod(value)).replace(
+				"static", "final"));
+	}
+
+	@Test
+	public void testOtherClass() throws Exception {
+		Assert.assertEquals(Integer.valueOf(10),
+				Async.waitCompleted(executeOtherClass(4)));
+	}
+
+	@IsAsync
+	public Computation<Integer> executeOtherClass(int value) {
+		int result = Async.await(Other.twice(value));
+		return Async.areturn(Async.await(Other.twice(result - 3)));
+	}
+
+	@Test
+	public void testOverridden() throws Exception {
+		Assert.assertEquals("overridden",
+				Async.waitCompleted(new Overriding().executeOverridable()));
+	}
+
+	@IsAsync
+	public Computation<String> executeOverridable() {
+		return Async.areturn(Async.await(overridable()));
+	}
+
+	@IsAsync
+	public Computation<String> overridable() {
+		return Async.areturn("original");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testException() throws Throwable {
+		try {
+			Async.waitCompleted(executeOtherClass(-1));
+		} catch (Exception ex) {
+			throw ex.getCause();
+		}
+	}
+
+	@Test
+	public void testCancelled() throws Exception {
+		CancellationToken token = new CancellationToken();
+		Assert.assertEquals("cancelled", Async.waitCompleted(Async
+				.withCancellation(executeCancelled(token), token)));
+	}
+
+	@IsAsync
+	public Computation<String> executeCancelled(CancellationToken token) {
+		token.cancel();
+		try {
+			// Directly started method checks the token, as execute does
+			Async.await(privateMethod(1));
+			return Async.areturn("not cancelled");
+		} catch (CancellationException e) {
+			return Async.areturn("cancelled");
+		}
+	}
+
+	@Test
+	public void testDirectCallSites() throws Exception {
+		Set<String> invoked = invocations("executeSameClass");
+		Assert.assertTrue(invoked.contains("staticMethod$async"));
+		Assert.assertTrue(invoked.contains("privateMethod$async"));
+		Assert.assertTrue(invoked.contains("finalMethod$async"));
+		Assert.assertFalse(invoked.contains("execute"));
+
+		invoked = invocations("executeOtherClass");
+		Assert.assertTrue(invoked.contains("twice$async"));
+		Assert.assertFalse(invoked.contains("execute"));
+
+		// Could be overridden, so is executed through the interface
+		invoked = invocations("executeOverridable");
+		Assert.assertFalse(invoked.contains("overridable$async"));
+		Assert.assertTrue(invoked.contains("execute"));
+	}
+
+	/**
+	 * Transforms this class and collects names of the methods invoked by the
+	 * transformed body of the given method (including its split parts).
+	 */
+	private static Set<String> invocations(String method) throws IOException {
+		String name = Type.getInternalName(DirectDispatchIT.class);
+		ClassLoader loader = DirectDispatchIT.class.getClassLoader();
+		InputStream in = loader.getResourceAsStream(name + ".class");
+		byte[] bytecode;
+		try {
+			bytecode = new ClassReader(in).b;
+		} finally {
+			in.close();
+		}
+
+		ClassNode node = new ClassNode();
+		new ClassReader(Transformer.transformClass(bytecode, loader).get(name))
+				.accept(node, 0);
+		Set<String> invoked = new HashSet<String>();
+		for (Object m : node.methods) {
+			MethodNode mn = (MethodNode) m;
+			if (!mn.name.startsWith(method + "$async")) {
+				continue;
+			}
+			for (Iterator<?> it = mn.instructions.iterator(); it.hasNext();) {
+				Object insn = it.next();
+				if (insn instanceof MethodInsnNode) {
+					invoked.add(((MethodInsnNode) insn).name);
+				}
+			}
+		}
+		Assert.assertFalse(invoked.isEmpty());
+		return invoked;
+	}
+
+	static class Other {
+		@IsAsync
+		static Computation<Integer> twice(int value) {
+			Async.await(Async.sleep(1));
+			if (value < 0) {
+				throw new IllegalArgumentException();
+			}
+			return Async.areturn(value * 2);
+		}
+	}
+
+	static class Overriding extends DirectDispatchIT {
+		@Override
+		public Computation<String> overridable() {
+			return new Computation<String>() {
+				@Override
+				public void execute(Continuation<? super String> c) {
+					c.invoke("overridden");
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Stack map frames computed for the transformed methods.
+ */
+public class FramesIT {
+
+	@Test
+	public void testJdkCommonSuperClass() throws Exception {
+		Assert.assertEquals("String:a", Async.waitCompleted(executeMerged(true)));
+		Assert.assertEquals("StringBuilder:b", Async
+				.waitCompleted(executeMerged(false)));
+	}
+
+	/**
+	 * Common super class of the branches is found by reading class files of
+	 * the running JDK.
+	 */
+	@IsAsync
+	public Computation<String> executeMerged(boolean string) {
+		CharSequence value;
+		if (string) {
+			value = "a";
+		} else {
+			value = new StringBuilder("b");
+		}
+		Async.await(Async.sleep(1));
+		return Async.areturn(value.getClass().getSimpleName() + ":" + value);
+	}
+
+	@Test
+	public void testMergedOnStack() throws Exception {
+		Assert.assertEquals("ArrayList[a]", Async
+				.waitCompleted(executeTernary(true)));
+		Assert.assertEquals("LinkedList[a]", Async
+				.waitCompleted(executeTernary(false)));
+	}
+
+	/**
+	 * Values are merged on the stack, so no frame describes the local.
+	 */
+	@IsAsync
+	public Computation<String> executeTernary(boolean array) {
+		AbstractList<String> values = array ? new ArrayList<String>()
+				: new LinkedList<String>();
+		Async.await(Async.sleep(1));
+		values.add("a");
+		return Async.areturn(values.getClass().getSimpleName() + values);
+	}
+}
@@ -15,40 +15,101 @@
  */
 package com.google.code.jconts.tests.cases;
 
-import static com.google.code.jconts.Async.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
+import org.junit.Assert;
 import org.junit.Test;
 
 import com.google.code.jconts.Async;
 import com.google.code.jconts.Computation;
+import com.google.code.jconts.Generator;
 import com.google.code.jconts.IsAsync;
-import com.google.code.jconts.tests.AsyncSleep;
 
 /**
- * Simple asynchronous methods.
+ * Generators driven by the consumer.
  */
-public class GeneratorIT extends Generator<String> {
+public class GeneratorIT {
 
 	@Test
-	public void test() throws InterruptedException {
-		for (String data : this) {
-			System.out.println("Data: " + data);
+	public void testSynchronous() {
+		int expected = 0;
+		for (int value : new Counter(1000000)) {
+			Assert.assertEquals(expected++, value);
 		}
+		Assert.assertEquals(1000000, expected);
 	}
 
-	@IsAsync
-	public Computation<Void> generate() {
-		for (int i = 0; i < 10; ++i) {
-			await(AsyncSleep.sleep(100L));
-			try {
-				Thread.sleep(100L);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+	@Test
+	public void testAsynchronous() {
+		List<String> values = new ArrayList<String>();
+		for (String value : new Sleeping()) {
+			values.add(value);
+		}
+		Assert.assertEquals(10, values.size());
+		Assert.assertEquals("Value 9", values.get(9));
+	}
+
+	@Test
+	public void testEmpty() {
+		Iterator<Integer> it = new Counter(0).iterator();
+		Assert.assertFalse(it.hasNext());
+		Assert.assertFalse(it.hasNext());
+	}
+
+	@Test
+	public void testException() {
+		Iterator<Integer> it = new Failing().iterator();
+		Assert.assertEquals(Integer.valueOf(1), it.next());
+		try {
+			it.hasNext();
+			Assert.fail();
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("failed", e.getMessage());
+		}
+		Assert.assertFalse(it.hasNext());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testIterateTwice() {
+		Counter counter = new Counter(1);
+		counter.iterator();
+		counter.iterator();
+	}
+
+	static class Counter extends Generator<Integer> {
+		private final int count;
+
+		Counter(int count) {
+			this.count = count;
+		}
+
+		@IsAsync
+		protected Computation<Void> generate() {
+			for (int i = 0; i < count; ++i) {
+				Async.await(this.yield(i));
 			}
-			await(yield("Value " + i));
+			return Async.areturn();
 		}
-		return Async.areturn();
 	}
 
+	static class Sleeping extends Generator<String> {
+		@IsAsync
+		protected Computation<Void> generate() {
+			for (int i = 0; i < 10; ++i) {
+				Async.await(Async.sleep(5));
+				Async.await(this.yield("Value " + i));
+			}
+			return Async.areturn();
+		}
+	}
+
+	static class Failing extends Generator<Integer> {
+		@IsAsync
+		protected Computation<Void> generate() {
+			Async.await(this.yield(1));
+			throw new IllegalStateException("failed");
+		}
+	}
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.tests.Computations;
+
+/**
+ * Loops starting at the very beginning of the asynchronous method, so jumping
+ * back to the loop head is jumping back to the first instruction of the body.
+ */
+public class LeadingLoopIT {
+
+	@Test
+	public void testWhileLoop() throws Exception {
+		AtomicLong sum = new AtomicLong();
+		Assert.assertEquals(Long.valueOf(5050),
+				Async.waitCompleted(executeCountdown(100, sum)));
+	}
+
+	@IsAsync
+	public Computation<Long> executeCountdown(int count, AtomicLong sum) {
+		while (count > 0) {
+			int value = Async.await(Computations.immediate(count));
+			sum.addAndGet(value);
+			--count;
+		}
+		return Async.areturn(sum.get());
+	}
+
+	@Test
+	public void testDoWhileLoop() throws Exception {
+		AtomicLong sum = new AtomicLong();
+		Async.waitCompleted(executeDrain(Arrays.asList(1, 2, 3).iterator(),
+				sum));
+		Assert.assertEquals(6, sum.get());
+	}
+
+	@IsAsync
+	public static Computation<Void> executeDrain(Iterator<Integer> values,
+			AtomicLong sum) {
+		do {
+			int value = Async.await(Computations.immediate(values.next()));
+			sum.addAndGet(value);
+		} while (values.hasNext());
+		return Async.areturn();
+	}
+
+	@Test
+	public void testAsynchronousAwaits() throws Exception {
+		AtomicLong sum = new AtomicLong();
+		Assert.assertEquals(Long.valueOf(15),
+				Async.waitCompleted(executeSleeping(5, sum)));
+	}
+
+	@IsAsync
+	public Computation<Long> executeSleeping(int count, AtomicLong sum) {
+		while (count > 0) {
+			Async.await(Async.sleep(1));
+			sum.addAndGet(count);
+			--count;
+		}
+		return Async.areturn(sum.get());
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.lang.reflect.Field;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Only locals live after the await are saved in the state.
+ */
+public class LivenessIT {
+
+	@Test
+	public void testDeadLocals() throws Exception {
+		Assert.assertEquals(Integer.valueOf(5 + 1 + 0 + 1 + 2),
+				Async.waitCompleted(executeDeadLocals(3)));
+
+		// "prefix" and "factor" are dead at the await
+		Class<?> state = Class.forName(LivenessIT.class.getName()
+				+ "$executeDeadLocals_State");
+		for (Field field : state.getDeclaredFields()) {
+			Assert.assertFalse(field.getName(),
+					field.getType() == double.class);
+			Assert.assertFalse(field.getName(),
+					field.getType() == String.class);
+		}
+	}
+
+	@IsAsync
+	public Computation<Integer> executeDeadLocals(int count) {
+		String prefix = "value";
+		double factor = 1.5;
+		int result = 0;
+		if (count > 0) {
+			result = prefix.length() + (int) factor;
+		}
+		for (int i = 0; i < count; ++i) {
+			Async.await(Async.sleep(1));
+			result += i;
+		}
+		return Async.areturn(result);
+	}
+
+	@Test
+	public void testLiveInHandler() throws Exception {
+		Assert.assertEquals("caught 2",
+				Async.waitCompleted(executeLiveInHandler(2)));
+	}
+
+	@IsAsync
+	public Computation<String> executeLiveInHandler(int count) {
+		String message = "none";
+		for (int i = 0; i < count; ++i) {
+			message = "caught " + count;
+		}
+		try {
+			// message is only used in the exception handler
+			Async.await(Async.sleep(1));
+			throw new IllegalStateException();
+		} catch (IllegalStateException ex) {
+			return Async.areturn(message);
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.tests.EventLoop;
+
+/**
+ * Methods with more await sites than fit into the signed byte index.
+ */
+public class ManyAwaitsIT {
+
+	private static final int AWAITS = 300;
+
+	private final EventLoop loop = new EventLoop();
+
+	@Test
+	public void testManyAwaits() throws Exception {
+		int expected = 1;
+		for (int i = 0; i < AWAITS; ++i) {
+			expected = expected * 31 + i;
+		}
+		Assert.assertEquals(Integer.valueOf(expected),
+				loop.run(executeMany(1)));
+	}
+
+	@IsAsync
+	public Computation<Integer> executeMany(int x) {
+		x = Async.await(loop.defer(x * 31 + 0)); x = Async.await(loop.defer(x * 31 + 1));
+		x = Async.await(loop.defer(x * 31 + 2)); x = Async.await(loop.defer(x * 31 + 3));
+		x = Async.await(loop.defer(x * 31 + 4)); x = Async.await(loop.defer(x * 31 + 5));
+		x = Async.await(loop.defer(x * 31 + 6)); x = Async.await(loop.defer(x * 31 + 7));
+		x = Async.await(loop.defer(x * 31 + 8)); x = Async.await(loop.defer(x * 31 + 9));
+		x = Async.await(loop.defer(x * 31 + 10)); x = Async.await(loop.defer(x * 31 + 11));
+		x = Async.await(loop.defer(x * 31 + 12)); x = Async.await(loop.defer(x * 31 + 13));
+		x = Async.await(loop.defer(x * 31 + 14)); x = Async.await(loop.defer(x * 31 + 15));
+		x = Async.await(loop.defer(x * 31 + 16)); x = Async.await(loop.defer(x * 31 + 17));
+		x = Async.await(loop.defer(x * 31 + 18)); x = Async.await(loop.defer(x * 31 + 19));
+		x = Async.await(loop.defer(x * 31 + 20)); x = Async.await(loop.defer(x * 31 + 21));
+		x = Async.await(loop.defer(x * 31 + 22)); x = Async.await(loop.defer(x * 31 + 23));
+		x = Async.await(loop.defer(x * 31 + 24)); x = Async.await(loop.defer(x * 31 + 25));
+		x = Async.await(loop.defer(x * 31 + 26)); x = Async.await(loop.defer(x * 31 + 27));
+		x = Async.await(loop.defer(x * 31 + 28)); x = Async.await(loop.defer(x * 31 + 29));
+		x = Async.await(loop.defer(x * 31 + 30)); x = Async.await(loop.defer(x * 31 + 31));
+		x = Async.await(loop.defer(x * 31 + 32)); x = Async.await(loop.defer(x * 31 + 33));
+		x = Async.await(loop.defer(x * 31 + 34)); x = Async.await(loop.defer(x * 31 + 35));
+		x = Async.await(loop.defer(x * 31 + 36)); x = Async.await(loop.defer(x * 31 + 37));
+		x = Async.await(loop.defer(x * 31 + 38)); x = Async.await(loop.defer(x * 31 + 39));
+		x = Async.await(loop.defer(x * 31 + 40)); x = Async.await(loop.defer(x * 31 + 41));
+		x = Async.await(loop.defer(x * 31 + 42)); x = Async.await(loop.defer(x * 31 + 43));
+		x = Async.await(loop.defer(x * 31 + 44)); x = Async.await(loop.defer(x * 31 + 45));
+		x = Async.await(loop.defer(x * 31 + 46)); x = Async.await(loop.defer(x * 31 + 47));
+		x = Async.await(loop.defer(x * 31 + 48)); x = Async.await(loop.defer(x * 31 + 49));
+		x = Async.await(loop.defer(x * 31 + 50)); x = Async.await(loop.defer(x * 31 + 51));
+		x = Async.await(loop.defer(x * 31 + 52)); x = Async.await(loop.defer(x * 31 + 53));
+		x = Async.await(loop.defer(x * 31 + 54)); x = Async.await(loop.defer(x * 31 + 55));
+		x = Async.await(loop.defer(x * 31 + 56)); x = Async.await(loop.defer(x * 31 + 57));
+		x = Async.await(loop.defer(x * 31 + 58)); x = Async.await(loop.defer(x * 31 + 59));
+		x = Async.await(loop.defer(x * 31 + 60)); x = Async.await(loop.defer(x * 31 + 61));
+		x = Async.await(loop.defer(x * 31 + 62)); x = Async.await(loop.defer(x * 31 + 63));
+		x = Async.await(loop.defer(x * 31 + 64)); x = Async.await(loop.defer(x * 31 + 65));
+		x = Async.await(loop.defer(x * 31 + 66)); x = Async.await(loop.defer(x * 31 + 67));
+		x = Async.await(loop.defer(x * 31 + 68)); x = Async.await(loop.defer(x * 31 + 69));
+		x = Async.await(loop.defer(x * 31 + 70)); x = Async.await(loop.defer(x * 31 + 71));
+		x = Async.await(loop.defer(x * 31 + 72)); x = Async.await(loop.defer(x * 31 + 73));
+		x = Async.await(loop.defer(x * 31 + 74)); x = Async.await(loop.defer(x * 31 + 75));
+		x = Async.await(loop.defer(x * 31 + 76)); x = Async.await(loop.defer(x * 31 + 77));
+		x = Async.await(loop.defer(x * 31 + 78)); x = Async.await(loop.defer(x * 31 + 79));
+		x = Async.await(loop.defer(x * 31 + 80)); x = Async.await(loop.defer(x * 31 + 81));
+		x = Async.await(loop.defer(x * 31 + 82)); x = Async.await(loop.defer(x * 31 + 83));
+		x = Async.await(loop.defer(x * 31 + 84)); x = Async.await(loop.defer(x * 31 + 85));
+		x = Async.await(loop.defer(x * 31 + 86)); x = Async.await(loop.defer(x * 31 + 87));
+		x = Async.await(loop.defer(x * 31 + 88)); x = Async.await(loop.defer(x * 31 + 89));
+		x = Async.await(loop.defer(x * 31 + 90)); x = Async.await(loop.defer(x * 31 + 91));
+		x = Async.await(loop.defer(x * 31 + 92)); x = Async.await(loop.defer(x * 31 + 93));
+		x = Async.await(loop.defer(x * 31 + 94)); x = Async.await(loop.defer(x * 31 + 95));
+		x = Async.await(loop.defer(x * 31 + 96)); x = Async.await(loop.defer(x * 31 + 97));
+		x = Async.await(loop.defer(x * 31 + 98)); x = Async.await(loop.defer(x * 31 + 99));
+		x = Async.await(loop.defer(x * 31 + 100)); x = Async.await(loop.defer(x * 31 + 101));
+		x = Async.await(loop.defer(x * 31 + 102)); x = Async.await(loop.defer(x * 31 + 103));
+		x = Async.await(loop.defer(x * 31 + 104)); x = Async.await(loop.defer(x * 31 + 105));
+		x = Async.await(loop.defer(x * 31 + 106)); x = Async.await(loop.defer(x * 31 + 107));
+		x = Async.await(loop.defer(x * 31 + 108)); x = Async.await(loop.defer(x * 31 + 109));
+		x = Async.await(loop.defer(x * 31 + 110)); x = Async.await(loop.defer(x * 31 + 111));
+		x = Async.await(loop.defer(x * 31 + 112)); x = Async.await(loop.defer(x * 31 + 113));
+		x = Async.await(loop.defer(x * 31 + 114)); x = Async.await(loop.defer(x * 31 + 115));
+		x = Async.await(loop.defer(x * 31 + 116)); x = Async.await(loop.defer(x * 31 + 117));
+		x = Async.await(loop.defer(x * 31 + 118)); x = Async.await(loop.defer(x * 31 + 119));
+		x = Async.await(loop.defer(x * 31 + 120)); x = Async.await(loop.defer(x * 31 + 121));
+		x = Async.await(loop.defer(x * 31 + 122)); x = Async.await(loop.defer(x * 31 + 123));
+		x = Async.await(loop.defer(x * 31 + 124)); x = Async.await(loop.defer(x * 31 + 125));
+		x = Async.await(loop.defer(x * 31 + 126)); x = Async.await(loop.defer(x * 31 + 127));
+		x = Async.await(loop.defer(x * 31 + 128)); x = Async.await(loop.defer(x * 31 + 129));
+		x = Async.await(loop.defer(x * 31 + 130)); x = Async.await(loop.defer(x * 31 + 131));
+		x = Async.await(loop.defer(x * 31 + 132)); x = Async.await(loop.defer(x * 31 + 133));
+		x = Async.await(loop.defer(x * 31 + 134)); x = Async.await(loop.defer(x * 31 + 135));
+		x = Async.await(loop.defer(x * 31 + 136)); x = Async.await(loop.defer(x * 31 + 137));
+		x = Async.await(loop.defer(x * 31 + 138)); x = Async.await(loop.defer(x * 31 + 139));
+		x = Async.await(loop.defer(x * 31 + 140)); x = Async.await(loop.defer(x * 31 + 141));
+		x = Async.await(loop.defer(x * 31 + 142)); x = Async.await(loop.defer(x * 31 + 143));
+		x = Async.await(loop.defer(x * 31 + 144)); x = Async.await(loop.defer(x * 31 + 145));
+		x = Async.await(loop.defer(x * 31 + 146)); x = Async.await(loop.defer(x * 31 + 147));
+		x = Async.await(loop.defer(x * 31 + 148)); x = Async.await(loop.defer(x * 31 + 149));
+		x = Async.await(loop.defer(x * 31 + 150)); x = Async.await(loop.defer(x * 31 + 151));
+		x = Async.await(loop.defer(x * 31 + 152)); x = Async.await(loop.defer(x * 31 + 153));
+		x = Async.await(loop.defer(x * 31 + 154)); x = Async.await(loop.defer(x * 31 + 155));
+		x = Async.await(loop.defer(x * 31 + 156)); x = Async.await(loop.defer(x * 31 + 157));
+		x = Async.await(loop.defer(x * 31 + 158)); x = Async.await(loop.defer(x * 31 + 159));
+		x = Async.await(loop.defer(x * 31 + 160)); x = Async.await(loop.defer(x * 31 + 161));
+		x = Async.await(loop.defer(x * 31 + 162)); x = Async.await(loop.defer(x * 31 + 163));
+		x = Async.await(loop.defer(x * 31 + 164)); x = Async.await(loop.defer(x * 31 + 165));
+		x = Async.await(loop.defer(x * 31 + 166)); x = Async.await(loop.defer(x * 31 + 167));
+		x = Async.await(loop.defer(x * 31 + 168)); x = Async.await(loop.defer(x * 31 + 169));
+		x = Async.await(loop.defer(x * 31 + 170)); x = Async.await(loop.defer(x * 31 + 171));
+		x = Async.await(loop.defer(x * 31 + 172)); x = Async.await(loop.defer(x * 31 + 173));
+		x = Async.await(loop.defer(x * 31 + 174)); x = Async.await(loop.defer(x * 31 + 175));
+		x = Async.await(loop.defer(x * 31 + 176)); x = Async.await(loop.defer(x * 31 + 177));
+		x = Async.await(loop.defer(x * 31 + 178)); x = Async.await(loop.defer(x * 31 + 179));
+		x = Async.await(loop.defer(x * 31 + 180)); x = Async.await(loop.defer(x * 31 + 181));
+		x = Async.await(loop.defer(x * 31 + 182)); x = Async.await(loop.defer(x * 31 + 183));
+		x = Async.await(loop.defer(x * 31 + 184)); x = Async.await(loop.defer(x * 31 + 185));
+		x = Async.await(loop.defer(x * 31 + 186)); x = Async.await(loop.defer(x * 31 + 187));
+		x = Async.await(loop.defer(x * 31 + 188)); x = Async.await(loop.defer(x * 31 + 189));
+		x = Async.await(loop.defer(x * 31 + 190)); x = Async.await(loop.defer(x * 31 + 191));
+		x = Async.await(loop.defer(x * 31 + 192)); x = Async.await(loop.defer(x * 31 + 193));
+		x = Async.await(loop.defer(x * 31 + 194)); x = Async.await(loop.defer(x * 31 + 195));
+		x = Async.await(loop.defer(x * 31 + 196)); x = Async.await(loop.defer(x * 31 + 197));
+		x = Async.await(loop.defer(x * 31 + 198)); x = Async.await(loop.defer(x * 31 + 199));
+		x = Async.await(loop.defer(x * 31 + 200)); x = Async.await(loop.defer(x * 31 + 201));
+		x = Async.await(loop.defer(x * 31 + 202)); x = Async.await(loop.defer(x * 31 + 203));
+		x = Async.await(loop.defer(x * 31 + 204)); x = Async.await(loop.defer(x * 31 + 205));
+		x = Async.await(loop.defer(x * 31 + 206)); x = Async.await(loop.defer(x * 31 + 207));
+		x = Async.await(loop.defer(x * 31 + 208)); x = Async.await(loop.defer(x * 31 + 209));
+		x = Async.await(loop.defer(x * 31 + 210)); x = Async.await(loop.defer(x * 31 + 211));
+		x = Async.await(loop.defer(x * 31 + 212)); x = Async.await(loop.defer(x * 31 + 213));
+		x = Async.await(loop.defer(x * 31 + 214)); x = Async.await(loop.defer(x * 31 + 215));
+		x = Async.await(loop.defer(x * 31 + 216)); x = Async.await(loop.defer(x * 31 + 217));
+		x = Async.await(loop.defer(x * 31 + 218)); x = Async.await(loop.defer(x * 31 + 219));
+		x = Async.await(loop.defer(x * 31 + 220)); x = Async.await(loop.defer(x * 31 + 221));
+		x = Async.await(loop.defer(x * 31 + 222)); x = Async.await(loop.defer(x * 31 + 223));
+		x = Async.await(loop.defer(x * 31 + 224)); x = Async.await(loop.defer(x * 31 + 225));
+		x = Async.await(loop.defer(x * 31 + 226)); x = Async.await(loop.defer(x * 31 + 227));
+		x = Async.await(loop.defer(x * 31 + 228)); x = Async.await(loop.defer(x * 31 + 229));
+		x = Async.await(loop.defer(x * 31 + 230)); x = Async.await(loop.defer(x * 31 + 231));
+		x = Async.await(loop.defer(x * 31 + 232)); x = Async.await(loop.defer(x * 31 + 233));
+		x = Async.await(loop.defer(x * 31 + 234)); x = Async.await(loop.defer(x * 31 + 235));
+		x = Async.await(loop.defer(x * 31 + 236)); x = Async.await(loop.defer(x * 31 + 237));
+		x = Async.await(loop.defer(x * 31 + 238)); x = Async.await(loop.defer(x * 31 + 239));
+		x = Async.await(loop.defer(x * 31 + 240)); x = Async.await(loop.defer(x * 31 + 241));
+		x = Async.await(loop.defer(x * 31 + 242)); x = Async.await(loop.defer(x * 31 + 243));
+		x = Async.await(loop.defer(x * 31 + 244)); x = Async.await(loop.defer(x * 31 + 245));
+		x = Async.await(loop.defer(x * 31 + 246)); x = Async.await(loop.defer(x * 31 + 247));
+		x = Async.await(loop.defer(x * 31 + 248)); x = Async.await(loop.defer(x * 31 + 249));
+		x = Async.await(loop.defer(x * 31 + 250)); x = Async.await(loop.defer(x * 31 + 251));
+		x = Async.await(loop.defer(x * 31 + 252)); x = Async.await(loop.defer(x * 31 + 253));
+		x = Async.await(loop.defer(x * 31 + 254)); x = Async.await(loop.defer(x * 31 + 255));
+		x = Async.await(loop.defer(x * 31 + 256)); x = Async.await(loop.defer(x * 31 + 257));
+		x = Async.await(loop.defer(x * 31 + 258)); x = Async.await(loop.defer(x * 31 + 259));
+		x = Async.await(loop.defer(x * 31 + 260)); x = Async.await(loop.defer(x * 31 + 261));
+		x = Async.await(loop.defer(x * 31 + 262)); x = Async.await(loop.defer(x * 31 + 263));
+		x = Async.await(loop.defer(x * 31 + 264)); x = Async.await(loop.defer(x * 31 + 265));
+		x = Async.await(loop.defer(x * 31 + 266)); x = Async.await(loop.defer(x * 31 + 267));
+		x = Async.await(loop.defer(x * 31 + 268)); x = Async.await(loop.defer(x * 31 + 269));
+		x = Async.await(loop.defer(x * 31 + 270)); x = Async.await(loop.defer(x * 31 + 271));
+		x = Async.await(loop.defer(x * 31 + 272)); x = Async.await(loop.defer(x * 31 + 273));
+		x = Async.await(loop.defer(x * 31 + 274)); x = Async.await(loop.defer(x * 31 + 275));
+		x = Async.await(loop.defer(x * 31 + 276)); x = Async.await(loop.defer(x * 31 + 277));
+		x = Async.await(loop.defer(x * 31 + 278)); x = Async.await(loop.defer(x * 31 + 279));
+		x = Async.await(loop.defer(x * 31 + 280)); x = Async.await(loop.defer(x * 31 + 281));
+		x = Async.await(loop.defer(x * 31 + 282)); x = Async.await(loop.defer(x * 31 + 283));
+		x = Async.await(loop.defer(x * 31 + 284)); x = Async.await(loop.defer(x * 31 + 285));
+		x = Async.await(loop.defer(x * 31 + 286)); x = Async.await(loop.defer(x * 31 + 287));
+		x = Async.await(loop.defer(x * 31 + 288)); x = Async.await(loop.defer(x * 31 + 289));
+		x = Async.await(loop.defer(x * 31 + 290)); x = Async.await(loop.defer(x * 31 + 291));
+		x = Async.await(loop.defer(x * 31 + 292)); x = Async.await(loop.defer(x * 31 + 293));
+		x = Async.await(loop.defer(x * 31 + 294)); x = Async.await(loop.defer(x * 31 + 295));
+		x = Async.await(loop.defer(x * 31 + 296)); x = Async.await(loop.defer(x * 31 + 297));
+		x = Async.await(loop.defer(x * 31 + 298)); x = Async.await(loop.defer(x * 31 + 299));
+		return Async.areturn(x);
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.tests.Computations;
+
+/**
+ * Fan-in of the multiple computations.
+ */
+public class MultiAwaitIT {
+
+	@Test
+	public void testSynchronous() throws Exception {
+		Computation<?>[] tasks = new Computation<?>[100];
+		for (int i = 0; i < tasks.length; ++i) {
+			tasks[i] = Computations.immediate(i);
+		}
+		List<Object> results = Async.waitCompleted(Async.multiAwait(tasks));
+		for (int i = 0; i < tasks.length; ++i) {
+			Assert.assertEquals(i, results.get(i));
+		}
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try {
+			for (int round = 0; round < 100; ++round) {
+				Computation<?>[] tasks = new Computation<?>[200];
+				for (int i = 0; i < tasks.length; ++i) {
+					// Mix synchronous and asynchronous completions
+					tasks[i] = i % 3 == 0 ? Computations.immediate(i)
+							: pooled(pool, i);
+				}
+				List<Object> results = Async.waitCompleted(Async
+						.multiAwait(tasks));
+				for (int i = 0; i < tasks.length; ++i) {
+					Assert.assertEquals(i, results.get(i));
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testEmpty() throws Exception {
+		Assert.assertTrue(Async.waitCompleted(Async.multiAwait()).isEmpty());
+	}
+
+	private static Computation<Integer> pooled(final ExecutorService pool,
+			final int value) {
+		return new Computation<Integer>() {
+			@Override
+			public void execute(final Continuation<? super Integer> c) {
+				pool.execute(new Runnable() {
+					@Override
+					public void run() {
+						c.invoke(value);
+					}
+				});
+			}
+		};
+	}
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.Coroutines;
+import com.google.code.jconts.IsCoroutine;
+
+/**
+ * Coroutines run by the several worker threads.
+ */
+public class ParallelCoroutinesIT {
+
+	@Test
+	public void testParallel() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		@SuppressWarnings("unchecked")
+		Computation<Void>[] tasks = (Computation<Void>[]) new Computation<?>[1000];
+		for (int i = 0; i < tasks.length; ++i) {
+			tasks[i] = task(counter, 100);
+		}
+		Coroutines.executeParallel(4, tasks);
+		Assert.assertEquals(100000, counter.get());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFailure() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		try {
+			Coroutines.executeParallel(2, task(counter, 10),
+					failing(counter, 5));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testConcurrentFailures() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		for (int round = 0; round < 50; ++round) {
+			@SuppressWarnings("unchecked")
+			Computation<Void>[] tasks = (Computation<Void>[]) new Computation<?>[100];
+			for (int i = 0; i < tasks.length; ++i) {
+				tasks[i] = i % 2 == 0 ? failing(counter, 3) : task(counter, 3);
+			}
+			try {
+				Coroutines.executeParallel(4, tasks);
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+			}
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testWorkersReused() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		for (int round = 0; round < 10; ++round) {
+			Coroutines.executeParallel(3, task(counter, 10), task(counter, 10));
+		}
+		Assert.assertEquals(200, counter.get());
+
+		int workers = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith("Coroutine worker 3-")) {
+				workers++;
+			}
+		}
+		Assert.assertEquals(3, workers);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testResumedByOtherExecution() throws Exception {
+		AtomicInteger counter = new AtomicInteger();
+		final Gate gate = new Gate();
+		final Computation<Void> awaiting = awaiting(gate, counter);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread other = new Thread() {
+			@Override
+			@SuppressWarnings("unchecked")
+			public void run() {
+				try {
+					Coroutines.executeParallel(1, awaiting);
+				} catch (Throwable t) {
+					failure.set(t);
+				}
+			}
+		};
+		other.setDaemon(true);
+		other.start();
+		gate.awaited.await();
+
+		// Coroutine is resumed by the job of the failing execution, but still
+		// belongs to its own one
+		try {
+			Coroutines.executeParallel(1, releasing(gate));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertEquals("released", e.getCause().getMessage());
+		}
+		other.join(10000);
+		Assert.assertFalse(other.isAlive());
+		Assert.assertNull(failure.get());
+		Assert.assertEquals(3, counter.get());
+	}
+
+	@IsCoroutine
+	public Computation<Void> awaiting(Gate gate, AtomicInteger counter) {
+		Async.await(gate);
+		for (int i = 0; i < 3; i++) {
+			step(counter);
+		}
+		return Async.areturn();
+	}
+
+	@IsCoroutine
+	public Computation<Void> releasing(Gate gate) {
+		if (gate.release()) {
+			// Fail before the resumed coroutine is run
+			throw new IllegalStateException("released");
+		}
+		return Async.areturn();
+	}
+
+	/**
+	 * Computation completed by other coroutine.
+	 */
+	static class Gate implements Computation<Void> {
+		final CountDownLatch awaited = new CountDownLatch(1);
+		private volatile Continuation<? super Void> cont;
+
+		@Override
+		public void execute(Continuation<? super Void> c) {
+			cont = c;
+			awaited.countDown();
+		}
+
+		boolean release() {
+			cont.invoke(null);
+			return true;
+		}
+	}
+
+	@IsCoroutine
+	public Computation<Void> task(AtomicInteger counter, int steps) {
+		for (int i = 0; i < steps; i++) {
+			step(counter);
+		}
+		return Async.areturn();
+	}
+
+	@IsCoroutine
+	public Computation<Void> failing(AtomicInteger counter, int steps) {
+		for (int i = 0; i < steps; i++) {
+			step(counter);
+		}
+		throw new IllegalStateException("failed");
+	}
+
+	void step(AtomicInteger counter) {
+		counter.incrementAndGet();
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.DoubleComputation;
+import com.google.code.jconts.DoubleContinuation;
+import com.google.code.jconts.DoubleGenerator;
+import com.google.code.jconts.IntComputation;
+import com.google.code.jconts.IntContinuation;
+import com.google.code.jconts.IntGenerator;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.LongComputation;
+import com.google.code.jconts.LongContinuation;
+import com.google.code.jconts.LongGenerator;
+
+/**
+ * Awaits and generators of primitive values.
+ */
+public class PrimitiveAwaitIT {
+
+	private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void testAwaitInt() throws Exception {
+		Assert.assertEquals(Integer.valueOf(4950), Async.waitCompleted(sum(
+				100, false)));
+		Assert.assertEquals(Integer.valueOf(4950), Async.waitCompleted(sum(
+				100, true)));
+	}
+
+	@IsAsync
+	public Computation<Integer> sum(int count, boolean pooled) {
+		int sum = 0;
+		for (int i = 0; i < count; ++i) {
+			int value = Async.awaitInt(intValue(i, pooled));
+			sum += value;
+		}
+		return Async.areturn(sum);
+	}
+
+	@Test
+	public void testAwaitWide() throws Exception {
+		Assert.assertEquals("4294967296:2.5", Async.waitCompleted(wide(true)));
+		Assert.assertEquals("4294967296:2.5", Async.waitCompleted(wide(false)));
+	}
+
+	@IsAsync
+	public Computation<String> wide(boolean pooled) {
+		long l = Async.awaitLong(longValue(1L << 32, pooled));
+		double d = Async.awaitDouble(doubleValue(2.5, pooled));
+		return Async.areturn(l + ":" + d);
+	}
+
+	@Test
+	public void testBoxed() throws Exception {
+		// Primitive computations could be awaited as regular ones
+		Assert.assertEquals(Integer.valueOf(7), Async.waitCompleted(intValue(
+				7, true)));
+		Assert.assertEquals(Integer.valueOf(8), Async.waitCompleted(boxed()));
+	}
+
+	@IsAsync
+	public Computation<Integer> boxed() {
+		Integer value = Async.await(intValue(8, true));
+		return Async.areturn(value);
+	}
+
+	@Test
+	public void testMixed() throws Exception {
+		Assert.assertEquals("1:2:3:4:5", Async.waitCompleted(mixed(false)));
+		Assert.assertEquals("1:2:3:4:5", Async.waitCompleted(mixed(true)));
+	}
+
+	@IsAsync
+	public Computation<String> mixed(boolean pooled) {
+		// Both kinds of awaits of the primitive computations in one method
+		int a = Async.awaitInt(intValue(1, pooled));
+		Integer b = Async.await(intValue(2, pooled));
+		long c = Async.awaitLong(longValue(3, pooled));
+		Long d = Async.await(longValue(4, pooled));
+		// Primitive await completed via boxed invoke
+		int e = Async.awaitInt(new IntComputation() {
+			@Override
+			public void executeInt(IntContinuation k) {
+				k.invoke(5);
+			}
+		});
+		return Async.areturn(a + ":" + b + ":" + c + ":" + d + ":" + e);
+	}
+
+	@Test
+	public void testException() throws Exception {
+		Assert.assertEquals("failed", Async.waitCompleted(failing()));
+	}
+
+	@IsAsync
+	public Computation<String> failing() {
+		try {
+			Async.awaitInt(new IntComputation() {
+				@Override
+				public void executeInt(IntContinuation c) {
+					c.setException(new IllegalStateException("failed"));
+				}
+			});
+			return Async.areturn("completed");
+		} catch (IllegalStateException e) {
+			return Async.areturn(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testGenerators() {
+		IntGenerator ints = new IntGenerator() {
+			@IsAsync
+			protected Computation<Void> generate() {
+				for (int i = 0; i < 1000; ++i) {
+					Async.await(this.yield(i));
+				}
+				return Async.areturn();
+			}
+		};
+		int expected = 0;
+		while (ints.hasNext()) {
+			Assert.assertEquals(expected++, ints.nextInt());
+		}
+		Assert.assertEquals(1000, expected);
+
+		LongGenerator longs = new LongGenerator() {
+			@IsAsync
+			protected Computation<Void> generate() {
+				Async.await(this.yield(1L << 40));
+				return Async.areturn();
+			}
+		};
+		Assert.assertEquals(1L << 40, longs.nextLong());
+		Assert.assertFalse(longs.hasNext());
+
+		DoubleGenerator doubles = new DoubleGenerator() {
+			@IsAsync
+			protected Computation<Void> generate() {
+				Async.await(this.yield(0.5));
+				Async.await(this.yield(1.5));
+				return Async.areturn();
+			}
+		};
+		Assert.assertEquals(0.5, doubles.nextDouble(), 0);
+		Assert.assertEquals(1.5, doubles.nextDouble(), 0);
+		Assert.assertFalse(doubles.hasNext());
+	}
+
+	private IntComputation intValue(final int value, final boolean pooled) {
+		return new IntComputation() {
+			@Override
+			public void executeInt(final IntContinuation c) {
+				run(pooled, new Runnable() {
+					@Override
+					public void run() {
+						c.invokeInt(value);
+					}
+				});
+			}
+		};
+	}
+
+	private LongComputation longValue(final long value, final boolean pooled) {
+		return new LongComputation() {
+			@Override
+			public void executeLong(final LongContinuation c) {
+				run(pooled, new Runnable() {
+					@Override
+					public void run() {
+						c.invokeLong(value);
+					}
+				});
+			}
+		};
+	}
+
+	private DoubleComputation doubleValue(final double value,
+			final boolean pooled) {
+		return new DoubleComputation() {
+			@Override
+			public void executeDouble(final DoubleContinuation c) {
+				run(pooled, new Runnable() {
+					@Override
+					public void run() {
+						c.invokeDouble(value);
+					}
+				});
+			}
+		};
+	}
+
+	private void run(boolean pooled, Runnable task) {
+		if (pooled) {
+			pool.execute(task);
+		} else {
+			task.run();
+		}
+	}
+}
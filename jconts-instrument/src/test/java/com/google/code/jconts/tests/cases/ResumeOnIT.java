@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IntComputation;
+import com.google.code.jconts.IntContinuation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.LongComputation;
+import com.google.code.jconts.LongContinuation;
+import com.google.code.jconts.util.CompletedComputation;
+
+/**
+ * Asynchronous methods continuing on the given executor.
+ */
+public class ResumeOnIT {
+
+	static final Executor COMPUTE = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "compute");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	@Test
+	public void testResumeOn() throws Exception {
+		Assert.assertEquals("compute compute true",
+				Async.waitCompleted(hopping()));
+	}
+
+	@IsAsync
+	public Computation<String> hopping() {
+		Async.await(Async.resumeOn(COMPUTE));
+		String first = Thread.currentThread().getName();
+
+		// Already there
+		boolean inline = Async.resumeOn(COMPUTE) instanceof CompletedComputation;
+		Async.await(Async.resumeOn(COMPUTE));
+		String second = Thread.currentThread().getName();
+		return Async.areturn(first + " " + second + " " + inline);
+	}
+
+	@Test
+	public void testDefaultExecutor() throws Exception {
+		Assert.assertEquals("compute compute", Async.waitCompleted(sleeping()));
+	}
+
+	@IsAsync(resumeOn = "COMPUTE")
+	public Computation<String> sleeping() {
+		Async.await(Async.sleep(1));
+		String first = Thread.currentThread().getName();
+		Async.await(Async.sleep(1));
+		String second = Thread.currentThread().getName();
+		return Async.areturn(first + " " + second);
+	}
+
+	@Test
+	public void testQualifiedExecutor() throws Exception {
+		Assert.assertEquals("compute", Async.waitCompleted(qualified()));
+	}
+
+	@IsAsync(resumeOn = "com.google.code.jconts.tests.cases.ResumeOnIT.COMPUTE")
+	public static Computation<String> qualified() {
+		Async.await(Async.sleep(1));
+		return Async.areturn(Thread.currentThread().getName());
+	}
+
+	@Test
+	public void testPrimitiveAwaits() throws Exception {
+		Assert.assertEquals("3 compute 7 compute",
+				Async.waitCompleted(primitive()));
+	}
+
+	@IsAsync(resumeOn = "COMPUTE")
+	public Computation<String> primitive() {
+		int first = Async.awaitInt(otherThread(3));
+		String firstThread = Thread.currentThread().getName();
+		long second = Async.awaitLong(new LongComputation() {
+			@Override
+			public void executeLong(LongContinuation c) {
+				c.invokeLong(7);
+			}
+		});
+		String secondThread = Thread.currentThread().getName();
+		return Async.areturn(first + " " + firstThread + " " + second + " "
+				+ secondThread);
+	}
+
+	/**
+	 * Completes the computation by the new thread, without boxing the value.
+	 */
+	private static IntComputation otherThread(final int value) {
+		return new IntComputation() {
+			@Override
+			public void executeInt(final IntContinuation c) {
+				new Thread() {
+					@Override
+					public void run() {
+						c.invokeInt(value);
+					}
+				}.start();
+			}
+		};
+	}
+
+	@Test
+	public void testPrimitiveNotBoxed() throws Exception {
+		final BlockingQueue<String> result = new LinkedBlockingQueue<String>();
+		Async.resumeOn(otherThread(5), COMPUTE).executeInt(
+				new IntContinuation() {
+					@Override
+					public void invokeInt(int data) {
+						result.add(data + " "
+								+ Thread.currentThread().getName());
+					}
+
+					@Override
+					public void invoke(Integer data) {
+						result.add("boxed");
+					}
+
+					@Override
+					public void setException(Throwable t) {
+						result.add(t.toString());
+					}
+				});
+		Assert.assertEquals("5 compute", result.poll(5, TimeUnit.SECONDS));
+	}
+}
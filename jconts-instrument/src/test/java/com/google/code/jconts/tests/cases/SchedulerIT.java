@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Coroutines;
+import com.google.code.jconts.IsCoroutine;
+import com.google.code.jconts.Scheduler;
+import com.google.code.jconts.util.FifoScheduler;
+import com.google.code.jconts.util.LifoScheduler;
+import com.google.code.jconts.util.RandomScheduler;
+
+/**
+ * Coroutines are switched in the order defined by the scheduler.
+ */
+public class SchedulerIT {
+
+	@Test
+	public void testFifo() throws Exception {
+		Assert.assertEquals(
+				Arrays.asList("a0", "b0", "a1", "b1", "a2", "b2"),
+				run(new FifoScheduler(1)));
+	}
+
+	@Test
+	public void testLifo() throws Exception {
+		Assert.assertEquals(
+				Arrays.asList("a0", "b0", "b1", "b2", "a1", "a2"),
+				run(new LifoScheduler()));
+	}
+
+	@Test
+	public void testRandom() throws Exception {
+		List<String> steps = run(new RandomScheduler(new Random(42)));
+		Assert.assertEquals(6, steps.size());
+		Assert.assertTrue(steps.indexOf("a0") < steps.indexOf("a1"));
+		Assert.assertTrue(steps.indexOf("a1") < steps.indexOf("a2"));
+		Assert.assertTrue(steps.indexOf("b0") < steps.indexOf("b1"));
+		Assert.assertTrue(steps.indexOf("b1") < steps.indexOf("b2"));
+	}
+
+	@Test
+	public void testConcurrentGroups() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+			for (int i = 0; i < 100; ++i) {
+				results.add(executor.submit(new Callable<List<String>>() {
+					@Override
+					public List<String> call() throws Exception {
+						return run(new FifoScheduler());
+					}
+				}));
+			}
+			for (Future<List<String>> result : results) {
+				Assert.assertEquals(
+						Arrays.asList("a0", "b0", "a1", "b1", "a2", "b2"),
+						result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testYieldOutsideOfExecute() {
+		Coroutines.yield().execute(null);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<String> run(Scheduler scheduler) {
+		List<String> steps = new ArrayList<String>();
+		Coroutines.execute(scheduler, task("a", steps), task("b", steps));
+		return steps;
+	}
+
+	@IsCoroutine
+	public Computation<Void> task(String name, List<String> steps) {
+		for (int i = 0; i < 3; i++) {
+			record(steps, name + i);
+		}
+		return Async.areturn();
+	}
+
+	void record(List<String> steps, String step) {
+		steps.add(step);
+	}
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.instrument.Transformer;
+import com.google.code.jconts.tests.Computations;
+
+/**
+ * Single class generated for each asynchronous method.
+ */
+public class SingleClassIT {
+
+	private static final String SINGLE_CLASS = "jconts.singleClass";
+
+	@Test
+	public void testGeneratedClasses() throws Exception {
+		String name = Type.getInternalName(Sample.class);
+		Map<String, byte[]> classes;
+		String previous = System.setProperty(SINGLE_CLASS, "true");
+		try {
+			classes = Transformer.transformClass(bytecode(name),
+					SingleClassIT.class.getClassLoader());
+		} finally {
+			restore(previous);
+		}
+		Assert.assertEquals(new TreeSet<String>(Arrays.asList(name, name
+				+ "$execute_State")), new TreeSet<String>(classes.keySet()));
+	}
+
+	@Test
+	public void testAwaits() throws Exception {
+		String name = Sample.class.getName();
+		SampleLoader loader = new SampleLoader();
+		Class<?> sample;
+		String previous = System.setProperty(SINGLE_CLASS, "true");
+		try {
+			// Transformed by the agent while defined
+			sample = loader.define(name, bytecode(Type
+					.getInternalName(Sample.class)));
+		} finally {
+			restore(previous);
+		}
+		Assert.assertNotNull(loader.loaded(name + "$execute_State"));
+		Assert.assertNull(loader.loaded(name + "$execute_Computation"));
+		Assert.assertNull(loader.loaded(name + "$execute_Continuation"));
+
+		Computation<?> computation = (Computation<?>) sample.getMethod(
+				"execute", int.class).invoke(sample.newInstance(), 3);
+		Assert.assertEquals("0:1:2:done", Async.waitCompleted(computation));
+	}
+
+	private static byte[] bytecode(String name) throws IOException {
+		InputStream in = SingleClassIT.class.getClassLoader()
+				.getResourceAsStream(name + ".class");
+		try {
+			return new ClassReader(in).b;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void restore(String previous) {
+		if (previous != null) {
+			System.setProperty(SINGLE_CLASS, previous);
+		} else {
+			System.clearProperty(SINGLE_CLASS);
+		}
+	}
+
+	/**
+	 * Loads the sample class once more, so it is transformed in single class
+	 * mode.
+	 */
+	private static final class SampleLoader extends ClassLoader {
+
+		SampleLoader() {
+			super(SingleClassIT.class.getClassLoader());
+		}
+
+		Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+
+		Class<?> loaded(String name) {
+			return findLoadedClass(name);
+		}
+	}
+
+	public static class Sample {
+		@IsAsync
+		public Computation<String> execute(int count) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < count; ++i) {
+				Integer value = Async.await(Computations.immediate(i));
+				sb.append(value).append(':');
+				Async.await(Async.sleep(1));
+			}
+			return Async.areturn(sb.append("done").toString());
+		}
+	}
+}
@@ -0,0 +1,449 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodAdapter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.instrument.Transformer;
+import com.google.code.jconts.tests.Computations;
+
+/**
+ * Methods too large after the transformation are split.
+ */
+public class SplitIT {
+
+	private static final String MAX_METHOD_SIZE = "jconts.maxMethodSize";
+	private static final int MAX_SIZE = 8000;
+
+	@Test
+	public void testLargeMethod() throws Exception {
+		long expected = compute(7);
+		Assert.assertEquals(Long.valueOf(expected),
+				Async.waitCompleted(executeLarge(7, false)));
+		Assert.assertEquals(Long.valueOf(expected),
+				Async.waitCompleted(executeLarge(7, true)));
+		assertSegments("executeLarge");
+	}
+
+	@IsAsync
+	public Computation<Long> executeLarge(long seed, boolean sleep) {
+		this.sleep = sleep;
+		long a = seed + 0;
+		long b = seed + 1;
+		long c = seed + 2;
+		long d = seed + 3;
+		long e = seed + 4;
+		long f = seed + 5;
+		long g = seed + 6;
+		long h = seed + 7;
+		long i = seed + 8;
+		long j = seed + 9;
+		long k = seed + 10;
+		long l = seed + 11;
+		a = Async.await(value(a + f * 3 - h));
+		b = Async.await(value(b + g * 4 - i));
+		c = Async.await(value(c + h * 5 - j));
+		d = Async.await(value(d + i * 6 - k));
+		e = Async.await(value(e + j * 7 - l));
+		f = Async.await(value(f + k * 8 - a));
+		g = Async.await(value(g + l * 9 - b));
+		h = Async.await(value(h + a * 10 - c));
+		i = Async.await(value(i + b * 11 - d));
+		j = Async.await(value(j + c * 12 - e));
+		k = Async.await(value(k + d * 13 - f));
+		l = Async.await(value(l + e * 14 - g));
+		a = Async.await(value(a + f * 15 - h));
+		b = Async.await(value(b + g * 16 - i));
+		c = Async.await(value(c + h * 17 - j));
+		d = Async.await(value(d + i * 18 - k));
+		e = Async.await(value(e + j * 19 - l));
+		f = Async.await(value(f + k * 20 - a));
+		g = Async.await(value(g + l * 21 - b));
+		h = Async.await(value(h + a * 22 - c));
+		i = Async.await(value(i + b * 23 - d));
+		j = Async.await(value(j + c * 24 - e));
+		k = Async.await(value(k + d * 25 - f));
+		l = Async.await(value(l + e * 26 - g));
+		a = Async.await(value(a + f * 27 - h));
+		b = Async.await(value(b + g * 28 - i));
+		c = Async.await(value(c + h * 29 - j));
+		d = Async.await(value(d + i * 30 - k));
+		e = Async.await(value(e + j * 31 - l));
+		f = Async.await(value(f + k * 32 - a));
+		g = Async.await(value(g + l * 33 - b));
+		h = Async.await(value(h + a * 34 - c));
+		i = Async.await(value(i + b * 35 - d));
+		j = Async.await(value(j + c * 36 - e));
+		k = Async.await(value(k + d * 37 - f));
+		l = Async.await(value(l + e * 38 - g));
+		a = Async.await(value(a + f * 39 - h));
+		b = Async.await(value(b + g * 40 - i));
+		c = Async.await(value(c + h * 41 - j));
+		d = Async.await(value(d + i * 42 - k));
+		e = Async.await(value(e + j * 43 - l));
+		f = Async.await(value(f + k * 44 - a));
+		g = Async.await(value(g + l * 45 - b));
+		h = Async.await(value(h + a * 46 - c));
+		i = Async.await(value(i + b * 47 - d));
+		j = Async.await(value(j + c * 48 - e));
+		k = Async.await(value(k + d * 49 - f));
+		l = Async.await(value(l + e * 50 - g));
+		return Async.areturn(a ^ b ^ c ^ d ^ e ^ f ^ g ^ h ^ i ^ j ^ k ^ l);
+	}
+
+	@Test
+	public void testManyCompleted() throws Exception {
+		int a = 3;
+		int b = 5;
+		for (int i = 0; i < 75; ++i) {
+			a = a + b;
+			b = b ^ a;
+		}
+		Assert.assertEquals(Integer.valueOf(a ^ b),
+				Async.waitCompleted(executeCompleted(3, 5)));
+		assertSegments("executeCompleted");
+	}
+
+	/**
+	 * Completed computations continue in the same segment unless they are
+	 * handled as resumed ones.
+	 */
+	@IsAsync
+	public Computation<Integer> executeCompleted(int a, int b) {
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		a = Async.await(Async.completed(a + b));
+		b = Async.await(Async.completed(b ^ a));
+		return Async.areturn(a ^ b);
+	}
+
+	@Test
+	public void testLoopAndException() throws Exception {
+		Assert.assertEquals("caught 10 after 45",
+				Async.waitCompleted(executeLoop(10)));
+	}
+
+	@IsAsync
+	public Computation<String> executeLoop(int count) {
+		long sum = 0;
+		try {
+			for (int i = 0; i < count; ++i) {
+				long value = Async.await(value(i));
+				sum += value;
+				Async.await(Async.sleep(1));
+			}
+			throw new IllegalStateException("after " + sum);
+		} catch (IllegalStateException ex) {
+			return Async.areturn("caught " + count + " " + ex.getMessage());
+		}
+	}
+
+	private boolean sleep;
+
+	private Computation<Long> value(long value) {
+		if (sleep && value % 3 == 0) {
+			return Computations.onNewThread(value);
+		}
+		return Computations.immediate(value);
+	}
+
+	/**
+	 * Checks method is split into segments that fit into the default maximum
+	 * method size.
+	 */
+	private static void assertSegments(String method) throws IOException {
+		String name = Type.getInternalName(SplitIT.class);
+		ClassLoader loader = SplitIT.class.getClassLoader();
+		InputStream in = loader.getResourceAsStream(name + ".class");
+		byte[] bytecode;
+		try {
+			bytecode = new ClassReader(in).b;
+		} finally {
+			in.close();
+		}
+
+		Map<String, byte[]> classes;
+		String previous = System.setProperty(MAX_METHOD_SIZE, String
+				.valueOf(MAX_SIZE));
+		try {
+			classes = Transformer.transformClass(bytecode, loader);
+		} finally {
+			if (previous != null) {
+				System.setProperty(MAX_METHOD_SIZE, previous);
+			} else {
+				System.clearProperty(MAX_METHOD_SIZE);
+			}
+		}
+
+		ClassNode node = new ClassNode();
+		new ClassReader(classes.get(name)).accept(node, 0);
+		int segments = 0;
+		for (Object m : node.methods) {
+			MethodNode mn = (MethodNode) m;
+			if (mn.name.startsWith(method + "$async$")) {
+				segments++;
+				int size = codeSize(mn);
+				Assert.assertTrue(mn.name + ": " + size, size <= MAX_SIZE);
+			}
+		}
+		Assert.assertTrue(segments > 1);
+	}
+
+	private static int codeSize(MethodNode method) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_6, 0, "Size", null, "java/lang/Object", null);
+		final Label end = new Label();
+		method.accept(new MethodAdapter(cw.visitMethod(method.access,
+				method.name, method.desc, null, null)) {
+			@Override
+			public void visitMaxs(int maxStack, int maxLocals) {
+				super.visitLabel(end);
+				super.visitMaxs(maxStack, maxLocals);
+			}
+		});
+		return end.getOffset();
+	}
+
+	/**
+	 * Same computation as {@link #executeLarge(long, boolean)}, without
+	 * awaits.
+	 */
+	private static long compute(long seed) {
+		long a = seed + 0;
+		long b = seed + 1;
+		long c = seed + 2;
+		long d = seed + 3;
+		long e = seed + 4;
+		long f = seed + 5;
+		long g = seed + 6;
+		long h = seed + 7;
+		long i = seed + 8;
+		long j = seed + 9;
+		long k = seed + 10;
+		long l = seed + 11;
+		a = a + f * 3 - h;
+		b = b + g * 4 - i;
+		c = c + h * 5 - j;
+		d = d + i * 6 - k;
+		e = e + j * 7 - l;
+		f = f + k * 8 - a;
+		g = g + l * 9 - b;
+		h = h + a * 10 - c;
+		i = i + b * 11 - d;
+		j = j + c * 12 - e;
+		k = k + d * 13 - f;
+		l = l + e * 14 - g;
+		a = a + f * 15 - h;
+		b = b + g * 16 - i;
+		c = c + h * 17 - j;
+		d = d + i * 18 - k;
+		e = e + j * 19 - l;
+		f = f + k * 20 - a;
+		g = g + l * 21 - b;
+		h = h + a * 22 - c;
+		i = i + b * 23 - d;
+		j = j + c * 24 - e;
+		k = k + d * 25 - f;
+		l = l + e * 26 - g;
+		a = a + f * 27 - h;
+		b = b + g * 28 - i;
+		c = c + h * 29 - j;
+		d = d + i * 30 - k;
+		e = e + j * 31 - l;
+		f = f + k * 32 - a;
+		g = g + l * 33 - b;
+		h = h + a * 34 - c;
+		i = i + b * 35 - d;
+		j = j + c * 36 - e;
+		k = k + d * 37 - f;
+		l = l + e * 38 - g;
+		a = a + f * 39 - h;
+		b = b + g * 40 - i;
+		c = c + h * 41 - j;
+		d = d + i * 42 - k;
+		e = e + j * 43 - l;
+		f = f + k * 44 - a;
+		g = g + l * 45 - b;
+		h = h + a * 46 - c;
+		i = i + b * 47 - d;
+		j = j + c * 48 - e;
+		k = k + d * 49 - f;
+		l = l + e * 50 - g;
+		return a ^ b ^ c ^ d ^ e ^ f ^ g ^ h ^ i ^ j ^ k ^ l;
+	}
+}
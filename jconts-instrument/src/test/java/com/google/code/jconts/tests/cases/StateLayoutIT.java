@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.objectweb.asm.Type;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.instrument.context.MethodStateContext;
+
+/**
+ * Locals of different types stored in the state across awaits.
+ */
+public class StateLayoutIT {
+
+	@Test
+	public void testMixedLocals() throws Exception {
+		Assert.assertEquals("a:2.5:-0.25:true:[1, 2]:7:x",
+				Async.waitCompleted(executeMixed(2.5f, -0.25, "a")));
+	}
+
+	@Test
+	public void testCompactFields() {
+		MethodStateContext context = new MethodStateContext(true);
+		String[] first = context.stateFields(Type.getType(String.class),
+				Type.BOOLEAN_TYPE, Type.FLOAT_TYPE, Type.DOUBLE_TYPE, Type
+						.getType(int[].class));
+		String[] second = context.stateFields(Type.LONG_TYPE,
+				Type.CHAR_TYPE, Type.getType(StringBuilder.class));
+
+		// Only Object, int and long fields are used for locals
+		Type object = Type.getType(Object.class);
+		Assert.assertEquals(Arrays.asList(object, Type.INT_TYPE,
+				Type.INT_TYPE, Type.LONG_TYPE, object), context
+				.getFieldTypes());
+		// and shared by locals of different types
+		Assert.assertEquals(Arrays.asList(first[3], first[1], first[0]),
+				Arrays.asList(second));
+	}
+
+	@IsAsync
+	public Computation<String> executeMixed(float f, double d, String s) {
+		boolean flag = f > 0;
+		int[] array = { 1, 2 };
+		Async.await(Async.sleep(1));
+		long count = array.length + 5;
+		char c = 'x';
+		Async.await(Async.sleep(1));
+		StringBuilder sb = new StringBuilder();
+		sb.append(s).append(':').append(f).append(':').append(d);
+		Async.await(Async.sleep(1));
+		sb.append(':').append(flag).append(':');
+		sb.append(Arrays.toString(array));
+		sb.append(':').append(count).append(':').append(c);
+		return Async.areturn(sb.toString());
+	}
+
+	@Test
+	public void testNullLocal() throws Exception {
+		Assert.assertEquals("null:set", Async.waitCompleted(executeNull(true)));
+		Assert.assertEquals("null:null", Async
+				.waitCompleted(executeNull(false)));
+		Assert.assertEquals("nullnull", Async
+				.waitCompleted(executeNullInLoop(2)));
+	}
+
+	@IsAsync
+	public Computation<String> executeNull(boolean set) {
+		String first = null;
+		StringBuilder second = null;
+		Async.await(Async.sleep(1));
+		if (set) {
+			second = new StringBuilder("set");
+		}
+		Async.await(Async.sleep(1));
+		return Async.areturn(first + ":" + second);
+	}
+
+	/**
+	 * Local holding null gets its type from the frame at the loop start.
+	 */
+	@IsAsync
+	public Computation<String> executeNullInLoop(int count) {
+		StringBuilder sb = null;
+		String result = "";
+		for (int i = 0; i < count; ++i) {
+			Async.await(Async.sleep(1));
+			result += describe(sb);
+		}
+		return Async.areturn(result);
+	}
+
+	private static String describe(StringBuilder sb) {
+		return String.valueOf(sb);
+	}
+}
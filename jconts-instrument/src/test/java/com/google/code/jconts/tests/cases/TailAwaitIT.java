@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Awaits which result is immediately returned.
+ */
+public class TailAwaitIT {
+
+	@Test
+	public void testChain() throws Exception {
+		Assert.assertEquals("done 100",
+				Async.waitCompleted(executeChain(100)));
+	}
+
+	@IsAsync
+	public Computation<String> executeChain(int depth) {
+		if (depth == 0) {
+			Async.await(Async.sleep(1));
+			return Async.areturn("done");
+		}
+		String prefix = depth == 100 ? "" : null;
+		if (prefix != null) {
+			String result = Async.await(executeChain(depth - 1));
+			return Async.areturn(result + " " + depth);
+		}
+		return Async.areturn(Async.await(executeChain(depth - 1)));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testException() throws Throwable {
+		try {
+			Async.waitCompleted(executeFailure(10));
+		} catch (Exception ex) {
+			throw ex.getCause();
+		}
+	}
+
+	@IsAsync
+	public Computation<Integer> executeFailure(int depth) {
+		if (depth == 0) {
+			Async.await(Async.sleep(1));
+			throw new IllegalStateException();
+		}
+		return Async.areturn(Async.await(executeFailure(depth - 1)));
+	}
+
+	@Test
+	public void testInTry() throws Exception {
+		Assert.assertEquals(Integer.valueOf(-1),
+				Async.waitCompleted(executeInTry()));
+	}
+
+	@IsAsync
+	public Computation<Integer> executeInTry() {
+		try {
+			// Not a tail await, exception must be caught here
+			return Async.areturn(Async.await(executeFailure(3)));
+		} catch (IllegalStateException ex) {
+			return Async.areturn(-1);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Awaits bounded by the timeout.
+ */
+public class TimeoutIT {
+
+	private static final Computation<String> NEVER = new Computation<String>() {
+		@Override
+		public void execute(Continuation<? super String> c) {
+			// Never completes
+		}
+	};
+
+	@Test
+	public void testTimeout() throws Exception {
+		Assert.assertEquals("timed out",
+				Async.waitCompleted(awaiting(NEVER, 20)));
+	}
+
+	@Test
+	public void testCompletedInTime() throws Exception {
+		Assert.assertEquals("result",
+				Async.waitCompleted(awaiting(delayed("result", 10), 5000)));
+	}
+
+	@IsAsync
+	public Computation<String> awaiting(Computation<String> task, long timeout) {
+		try {
+			String result = Async.await(Async.withTimeout(task, timeout,
+					TimeUnit.MILLISECONDS));
+			return Async.areturn(result);
+		} catch (Exception e) {
+			Assert.assertTrue(e instanceof TimeoutException);
+			return Async.areturn("timed out");
+		}
+	}
+
+	@IsAsync
+	public Computation<String> delayed(String value, long millis) {
+		Async.await(Async.sleep(millis));
+		return Async.areturn(value);
+	}
+
+	@Test
+	public void testDeliveredOnce() throws Exception {
+		final AtomicInteger results = new AtomicInteger();
+		final AtomicInteger timeouts = new AtomicInteger();
+		Continuation<String> counting = new Continuation<String>() {
+			@Override
+			public void invoke(String data) {
+				results.incrementAndGet();
+			}
+
+			@Override
+			public void setException(Throwable t) {
+				timeouts.incrementAndGet();
+			}
+		};
+		for (int i = 0; i < 100; ++i) {
+			Async.withTimeout(delayed("result", i % 30), 15,
+					TimeUnit.MILLISECONDS).execute(counting);
+		}
+		Thread.sleep(200);
+		Assert.assertEquals(100, results.get() + timeouts.get());
+		Assert.assertTrue(results.get() > 0);
+		Assert.assertTrue(timeouts.get() > 0);
+	}
+
+	@Test
+	public void testTaskCancelledOnTimeout() throws Exception {
+		AtomicInteger ticks = new AtomicInteger();
+		Assert.assertEquals("timed out",
+				Async.waitCompleted(awaiting(ticking(ticks), 20)));
+
+		// Task stops at the first await after the timeout
+		int stopped = ticks.get();
+		Thread.sleep(100);
+		Assert.assertTrue(ticks.get() <= stopped + 1);
+	}
+
+	@IsAsync
+	public Computation<String> ticking(AtomicInteger ticks) {
+		while (true) {
+			Async.await(Async.sleep(5));
+			ticks.incrementAndGet();
+		}
+	}
+
+	@Test
+	public void testContinuationReleased() throws Exception {
+		final Continuation<?>[] captured = new Continuation<?>[1];
+		Computation<String> capturing = new Computation<String>() {
+			@Override
+			public void execute(Continuation<? super String> c) {
+				// Keeps the continuation, like never completed task would do
+				captured[0] = c;
+			}
+		};
+		Continuation<String> c = new Continuation<String>() {
+			@Override
+			public void invoke(String data) {
+			}
+
+			@Override
+			public void setException(Throwable t) {
+			}
+		};
+		WeakReference<Continuation<String>> ref = new WeakReference<Continuation<String>>(
+				c);
+		Async.withTimeout(capturing, 10, TimeUnit.MILLISECONDS).execute(c);
+		c = null;
+		Thread.sleep(100);
+
+		for (int i = 0; i < 10 && ref.get() != null; ++i) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		Assert.assertNotNull(captured[0]);
+		Assert.assertNull(ref.get());
+	}
+}
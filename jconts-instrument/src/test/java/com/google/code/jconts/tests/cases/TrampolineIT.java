@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.AsyncGenerator;
+import com.google.code.jconts.AsyncIterator;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.tests.Computations;
+
+/**
+ * Awaiting computations that complete synchronously.
+ */
+public class TrampolineIT {
+
+	@Test
+	public void testManySynchronousAwaits() throws Exception {
+		// Would overflow the stack without trampolining
+		Assert.assertEquals(Long.valueOf(4999950000L),
+				Async.waitCompleted(executeSum(100000)));
+	}
+
+	@IsAsync
+	public Computation<Long> executeSum(int count) {
+		long sum = 0;
+		for (int i = 0; i < count; ++i) {
+			int value = Async.await(Computations.immediate(i));
+			sum += value;
+		}
+		return Async.areturn(sum);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testSynchronousException() throws Throwable {
+		try {
+			Async.waitCompleted(executeFailure());
+		} catch (Exception ex) {
+			throw ex.getCause();
+		}
+	}
+
+	@IsAsync
+	public Computation<Void> executeFailure() {
+		for (int i = 0; i < 100000; ++i) {
+			Async.await(Computations.immediate(i));
+		}
+		Async.await(new Computation<Void>() {
+			@Override
+			public void execute(Continuation<? super Void> c) {
+				c.setException(new IllegalStateException());
+			}
+		});
+		return Async.areturn();
+	}
+
+	@Test
+	public void testSynchronousIterator() throws Exception {
+		// Producer and consumer take turns without growing the stack
+		AsyncIterator<Integer> range = new AsyncGenerator<Integer>() {
+			@IsAsync
+			protected Computation<Void> generate() {
+				for (int i = 0; i < 100000; ++i) {
+					Async.await(this.yield(i));
+				}
+				return Async.areturn();
+			}
+		};
+		Assert.assertEquals(Long.valueOf(4999950000L),
+				Async.waitCompleted(executeIteratorSum(range)));
+	}
+
+	@IsAsync
+	public Computation<Long> executeIteratorSum(AsyncIterator<Integer> it) {
+		long sum = 0;
+		while (Async.await(it.next())) {
+			sum += it.current();
+		}
+		return Async.areturn(sum);
+	}
+
+	@Test
+	public void testCompletedByOtherThread() throws Exception {
+		// Result is delivered while awaiting frame is still active, method
+		// continues on the thread that delivered it
+		Assert.assertNotSame(Thread.currentThread(),
+				Async.waitCompleted(executeOtherThread()));
+	}
+
+	@IsAsync
+	public Computation<Thread> executeOtherThread() {
+		Async.await(completedByOtherThread());
+		return Async.areturn(Thread.currentThread());
+	}
+
+	private static Computation<Void> completedByOtherThread() {
+		return new Computation<Void>() {
+			@Override
+			public void execute(final Continuation<? super Void> c) {
+				Thread thread = new Thread() {
+					@Override
+					public void run() {
+						c.invoke(null);
+					}
+				};
+				thread.start();
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+	}
+}
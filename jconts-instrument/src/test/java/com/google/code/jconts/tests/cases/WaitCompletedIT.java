@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.tests.cases;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Blocking on the result of the computation from non-instrumented code.
+ */
+public class WaitCompletedIT {
+
+	@Test
+	public void testSynchronous() throws Exception {
+		Assert.assertEquals("value", Async.waitCompleted(Async
+				.completed("value")));
+		Assert.assertEquals("value", Async.waitCompleted(Async
+				.completed("value"), 0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testAsynchronous() throws Exception {
+		Assert.assertEquals(Integer.valueOf(3), Async.waitCompleted(sleeping(3)));
+		Assert.assertEquals(Integer.valueOf(3), Async.waitCompleted(
+				sleeping(3), 10, TimeUnit.SECONDS));
+	}
+
+	@IsAsync
+	public Computation<Integer> sleeping(int count) {
+		int i = 0;
+		while (i < count) {
+			Async.await(Async.sleep(5));
+			i++;
+		}
+		return Async.areturn(i);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		try {
+			Async.waitCompleted(sleeping(100), 20, TimeUnit.MILLISECONDS);
+			Assert.fail();
+		} catch (TimeoutException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testError() throws Exception {
+		final Error error = new AssertionError("failed");
+		try {
+			Async.waitCompleted(new Computation<Void>() {
+				@Override
+				public void execute(Continuation<? super Void> c) {
+					c.setException(error);
+				}
+			});
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertSame(error, e.getCause());
+		}
+	}
+}
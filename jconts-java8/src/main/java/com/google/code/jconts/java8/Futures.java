@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.java8;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.function.BiConsumer;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.util.CompletedComputation;
+
+/**
+ * Conversions between computations and {@link CompletionStage}s.
+ * <p>
+ * Conversions do not switch threads: continuation of the computation created
+ * from the stage is invoked by the thread that completes the stage, and the
+ * future created from the computation is completed by the thread that
+ * completes the computation.
+ */
+public final class Futures {
+
+	/**
+	 * Awaits the stage in the instrumented method, like
+	 * {@link Async#await(Computation)} awaits the computation.
+	 */
+	public static <T> T await(CompletionStage<T> stage) {
+		throw new IllegalStateException(
+				"This method should not be invoked directly!");
+	}
+
+	/**
+	 * Creates computation that completes when the stage completes. If stage is
+	 * a future that is already completed normally, computation is already
+	 * completed too, so awaiting it does not suspend the method.
+	 */
+	public static <T> Computation<T> fromFuture(CompletionStage<T> stage) {
+		if (stage instanceof CompletableFuture) {
+			CompletableFuture<T> future = (CompletableFuture<T>) stage;
+			if (future.isDone() && !future.isCompletedExceptionally()) {
+				return Async.completed(future.join());
+			}
+		}
+		return new StageComputation<T>(stage);
+	}
+
+	/**
+	 * Executes the computation and returns the future completed with its
+	 * result. Cancelling the future cancels the computation via
+	 * {@link CancellationToken}.
+	 */
+	public static <T> CompletableFuture<T> toFuture(Computation<T> task) {
+		if (task instanceof CompletedComputation) {
+			return CompletableFuture
+					.completedFuture(((CompletedComputation<T>) task)
+							.getValue());
+		}
+		FutureContinuation<T> future = new FutureContinuation<T>();
+		task.execute(future);
+		return future;
+	}
+
+	private static final class StageComputation<T> implements Computation<T> {
+		private final CompletionStage<T> stage;
+
+		StageComputation(CompletionStage<T> stage) {
+			this.stage = stage;
+		}
+
+		@Override
+		public void execute(final Continuation<? super T> c) {
+			// No lambdas, instrumentation agent does not read invokedynamic
+			stage.whenComplete(new BiConsumer<T, Throwable>() {
+				@Override
+				public void accept(T value, Throwable exception) {
+					if (exception == null) {
+						c.invoke(value);
+					} else if (exception instanceof CompletionException
+							&& exception.getCause() != null) {
+						c.setException(exception.getCause());
+					} else {
+						c.setException(exception);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Future that is the continuation of the computation itself.
+	 */
+	private static final class FutureContinuation<T> extends
+			CompletableFuture<T> implements Continuation<T>,
+			CancellationToken.Holder {
+		private final CancellationToken token = new CancellationToken();
+
+		@Override
+		public CancellationToken getCancellationToken() {
+			return token;
+		}
+
+		@Override
+		public void invoke(T data) {
+			complete(data);
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			completeExceptionally(t);
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			token.cancel();
+			return super.cancel(mayInterruptIfRunning);
+		}
+	}
+
+	private Futures() {
+		// No instances
+	}
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.java8;
+
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.code.jconts.DoubleGenerator;
+import com.google.code.jconts.Generator;
+import com.google.code.jconts.IntGenerator;
+import com.google.code.jconts.LongGenerator;
+
+/**
+ * Spliterators and streams over generators.
+ * <p>
+ * Generator itself is sequential: spliterator resumes it on the thread that
+ * owns the spliterator at the moment. Splitting hands out arrays of the values
+ * generated so far, in batches of increasing size (see
+ * {@link Spliterators.AbstractSpliterator}), so the rest of the parallel
+ * pipeline runs on the other threads while the owner keeps generating.
+ */
+public final class Generators {
+
+	/** Generated values come in order, their count is not known */
+	private static final int CHARACTERISTICS = Spliterator.ORDERED;
+
+	public static <T> Spliterator<T> spliterator(Generator<T> generator) {
+		final Iterator<T> it = generator.iterator();
+		return new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE,
+				CHARACTERISTICS) {
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				if (!it.hasNext()) {
+					return false;
+				}
+				action.accept(it.next());
+				return true;
+			}
+		};
+	}
+
+	public static Spliterator.OfInt spliterator(final IntGenerator generator) {
+		return new Spliterators.AbstractIntSpliterator(Long.MAX_VALUE,
+				CHARACTERISTICS) {
+			@Override
+			public boolean tryAdvance(IntConsumer action) {
+				if (!generator.hasNext()) {
+					return false;
+				}
+				action.accept(generator.nextInt());
+				return true;
+			}
+		};
+	}
+
+	public static Spliterator.OfLong spliterator(final LongGenerator generator) {
+		return new Spliterators.AbstractLongSpliterator(Long.MAX_VALUE,
+				CHARACTERISTICS) {
+			@Override
+			public boolean tryAdvance(LongConsumer action) {
+				if (!generator.hasNext()) {
+					return false;
+				}
+				action.accept(generator.nextLong());
+				return true;
+			}
+		};
+	}
+
+	public static Spliterator.OfDouble spliterator(
+			final DoubleGenerator generator) {
+		return new Spliterators.AbstractDoubleSpliterator(Long.MAX_VALUE,
+				CHARACTERISTICS) {
+			@Override
+			public boolean tryAdvance(DoubleConsumer action) {
+				if (!generator.hasNext()) {
+					return false;
+				}
+				action.accept(generator.nextDouble());
+				return true;
+			}
+		};
+	}
+
+	public static <T> Stream<T> stream(Generator<T> generator,
+			boolean parallel) {
+		return StreamSupport.stream(spliterator(generator), parallel);
+	}
+
+	public static IntStream stream(IntGenerator generator, boolean parallel) {
+		return StreamSupport.intStream(spliterator(generator), parallel);
+	}
+
+	public static LongStream stream(LongGenerator generator, boolean parallel) {
+		return StreamSupport.longStream(spliterator(generator), parallel);
+	}
+
+	public static DoubleStream stream(DoubleGenerator generator,
+			boolean parallel) {
+		return StreamSupport.doubleStream(spliterator(generator), parallel);
+	}
+
+	private Generators() {
+		// No instances
+	}
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.java8;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Awaiting completion stages and exposing computations as futures.
+ */
+public class FuturesIT {
+
+	private final AtomicInteger steps = new AtomicInteger();
+
+	@Test
+	public void testAwaitCompleted() throws Exception {
+		Computation<String> task = concat(
+				CompletableFuture.completedFuture("a"),
+				CompletableFuture.completedFuture("b"));
+		// Completed futures do not suspend the method
+		CompletableFuture<String> future = Futures.toFuture(task);
+		Assert.assertTrue(future.isDone());
+		Assert.assertEquals("ab", future.get());
+	}
+
+	@Test
+	public void testAwaitPending() throws Exception {
+		CompletableFuture<String> first = new CompletableFuture<String>();
+		final CompletableFuture<String> second = new CompletableFuture<String>();
+		CompletableFuture<String> future = Futures.toFuture(concat(first,
+				second));
+		first.complete("a");
+		Assert.assertFalse(future.isDone());
+		new Thread() {
+			@Override
+			public void run() {
+				second.complete("b");
+			}
+		}.start();
+		Assert.assertEquals("ab", future.get());
+	}
+
+	@IsAsync
+	public Computation<String> concat(CompletableFuture<String> first,
+			CompletableFuture<String> second) {
+		String a = Futures.await(first);
+		String b = Futures.await(second);
+		return Async.areturn(a + b);
+	}
+
+	@Test
+	public void testAwaitFailed() throws Exception {
+		final IllegalStateException error = new IllegalStateException("failed");
+		CompletableFuture<String> failed = new CompletableFuture<String>();
+		failed.completeExceptionally(error);
+		Assert.assertEquals("failed", Async.waitCompleted(catching(failed)));
+
+		// Exception is unwrapped when thrown by dependent stage
+		CompletableFuture<String> dependent = CompletableFuture
+				.completedFuture("a").thenApply(new Function<String, String>() {
+					@Override
+					public String apply(String value) {
+						throw error;
+					}
+				});
+		Assert.assertEquals("failed", Async.waitCompleted(catching(dependent)));
+	}
+
+	@IsAsync
+	public Computation<String> catching(CompletableFuture<String> stage) {
+		try {
+			return Async.areturn(Futures.await(stage));
+		} catch (IllegalStateException e) {
+			return Async.areturn(e.getMessage());
+		}
+	}
+
+	@Test
+	public void testToFutureFailed() throws Exception {
+		CompletableFuture<String> failed = new CompletableFuture<String>();
+		failed.completeExceptionally(new IllegalStateException("failed"));
+		try {
+			Futures.toFuture(Futures.fromFuture(failed)).get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		CompletableFuture<Integer> future = Futures.toFuture(sleeping(100));
+		Thread.sleep(30);
+		Assert.assertTrue(future.cancel(false));
+		Assert.assertTrue(future.isCancelled());
+		int stopped = steps.get();
+		Assert.assertTrue(stopped < 100);
+
+		// Computation does not continue after cancellation
+		Thread.sleep(50);
+		Assert.assertTrue(steps.get() <= stopped + 1);
+	}
+
+	@IsAsync
+	public Computation<Integer> sleeping(int count) {
+		int i = 0;
+		while (i < count) {
+			Async.await(Async.sleep(5));
+			steps.incrementAndGet();
+			i++;
+		}
+		return Async.areturn(i);
+	}
+}
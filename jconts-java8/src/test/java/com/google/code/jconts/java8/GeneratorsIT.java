@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.java8;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.IntConsumer;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Generator;
+import com.google.code.jconts.IntGenerator;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Generators consumed by (parallel) streams.
+ */
+public class GeneratorsIT {
+
+	static final class Range extends IntGenerator {
+		private final int count;
+
+		Range(int count) {
+			this.count = count;
+		}
+
+		@IsAsync
+		protected Computation<Void> generate() {
+			for (int i = 0; i < count; ++i) {
+				Async.await(this.yield(i));
+			}
+			return Async.areturn();
+		}
+	}
+
+	static final class Names extends Generator<String> {
+		private final int count;
+
+		Names(int count) {
+			this.count = count;
+		}
+
+		@IsAsync
+		protected Computation<Void> generate() {
+			for (int i = 0; i < count; ++i) {
+				Async.await(this.yield("name" + i));
+			}
+			return Async.areturn();
+		}
+	}
+
+	static final class Letters extends Generator<String> {
+		private final int count;
+
+		Letters(int count) {
+			this.count = count;
+		}
+
+		@IsAsync
+		protected Computation<Void> generate() {
+			for (int i = 0; i < count; ++i) {
+				Async.await(this.yield(String.valueOf((char) ('a' + i))));
+			}
+			return Async.areturn();
+		}
+	}
+
+	/**
+	 * Generators of different classes meet at the same point, so their common
+	 * super class is needed to compute the stack map frame.
+	 */
+	static final class Concat extends Generator<String> {
+		@IsAsync
+		protected Computation<Void> generate() {
+			for (int i = 0; i < 2; ++i) {
+				Generator<String> inner = i == 0 ? new Names(2)
+						: new Letters(2);
+				for (String value : inner) {
+					Async.await(this.yield(value));
+				}
+			}
+			return Async.areturn();
+		}
+	}
+
+	@Test
+	public void testMergedGenerators() {
+		Assert.assertEquals(Arrays.asList("name0", "name1", "a", "b"),
+				Generators.stream(new Concat(), false).collect(
+						Collectors.toList()));
+	}
+
+	@Test
+	public void testParallelSum() {
+		Assert.assertEquals(4999950000L, Generators.stream(new Range(100000),
+				true).asLongStream().sum());
+	}
+
+	@Test
+	public void testParallelOrder() {
+		List<String> names = Generators.stream(new Names(10000), true)
+				.collect(Collectors.toList());
+		Assert.assertEquals(10000, names.size());
+		for (int i = 0; i < names.size(); ++i) {
+			Assert.assertEquals("name" + i, names.get(i));
+		}
+	}
+
+	@Test
+	public void testSplit() {
+		Spliterator.OfInt spliterator = Generators.spliterator(new Range(
+				5000));
+		Assert.assertTrue(spliterator.hasCharacteristics(Spliterator.ORDERED));
+
+		// First batch is taken from the generator
+		Spliterator.OfInt batch = spliterator.trySplit();
+		Assert.assertEquals(1024, batch.estimateSize());
+		Assert.assertEquals(1024, batch.getExactSizeIfKnown());
+		Assert.assertEquals(5000 - 1024, countRemaining(spliterator));
+
+		Assert.assertEquals(0, Generators.stream(new Range(0), true).count());
+	}
+
+	private static long countRemaining(Spliterator.OfInt spliterator) {
+		final long[] count = { 0 };
+		spliterator.forEachRemaining(new IntConsumer() {
+			@Override
+			public void accept(int value) {
+				count[0]++;
+			}
+		});
+		return count[0];
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.loom;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.util.BlockingContinuation;
+
+/**
+ * Runs blocking code as computations on virtual threads.
+ * <p>
+ * Virtual threads are looked up reflectively, so module could be built and
+ * used on JDKs without them. On such JDKs every blocking body gets its own
+ * platform daemon thread instead (see {@link #isSupported()}).
+ */
+public final class VirtualThreads {
+
+	private static final ThreadFactory FACTORY;
+	private static final MethodHandle IS_VIRTUAL;
+
+	static {
+		ThreadFactory factory = null;
+		MethodHandle isVirtual = null;
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			factory = (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory").invoke(builder);
+			isVirtual = MethodHandles.publicLookup().unreflect(
+					Thread.class.getMethod("isVirtual"));
+		} catch (Exception e) {
+			factory = new PlatformThreadFactory();
+			isVirtual = null;
+		}
+		FACTORY = factory;
+		IS_VIRTUAL = isVirtual;
+	}
+
+	/**
+	 * @return <code>true</code> if bodies are run on virtual threads
+	 */
+	public static boolean isSupported() {
+		return IS_VIRTUAL != null;
+	}
+
+	/**
+	 * @return <code>true</code> if given thread is virtual one
+	 */
+	public static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return (boolean) IS_VIRTUAL.invokeExact(thread);
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Creates computation that runs blocking body on the new virtual thread.
+	 * Continuation is invoked by that thread once body is finished. Body is not
+	 * started if computation is already cancelled when executed.
+	 */
+	public static <T> Computation<T> onVirtualThread(final Callable<T> body) {
+		return new Computation<T>() {
+			@Override
+			public void execute(final Continuation<? super T> c) {
+				CancellationException cancelled = CancellationToken
+						.cancellation(CancellationToken.of(c));
+				if (cancelled != null) {
+					c.setException(cancelled);
+					return;
+				}
+				FACTORY.newThread(new Runnable() {
+					@Override
+					public void run() {
+						T result;
+						try {
+							result = body.call();
+						} catch (Throwable t) {
+							c.setException(t);
+							return;
+						}
+						c.invoke(result);
+					}
+				}).start();
+			}
+		};
+	}
+
+	/**
+	 * Same as {@link Async#waitCompleted(Computation)}, but virtual threads
+	 * park immediately instead of spinning, so they release their carrier
+	 * thread as soon as possible.
+	 */
+	public static <T> T waitCompleted(Computation<T> task)
+			throws InterruptedException, ExecutionException {
+		BlockingContinuation<T> result = new BlockingContinuation<T>(
+				!isVirtual(Thread.currentThread()));
+		task.execute(result);
+		return result.get();
+	}
+
+	/**
+	 * @see #waitCompleted(Computation)
+	 * @see Async#waitCompleted(Computation, long, TimeUnit)
+	 */
+	public static <T> T waitCompleted(Computation<T> task, long timeout,
+			TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		BlockingContinuation<T> result = new BlockingContinuation<T>(
+				!isVirtual(Thread.currentThread()));
+		task.execute(result);
+		return result.get(timeout, unit);
+	}
+
+	/**
+	 * Fallback for JDKs without virtual threads.
+	 */
+	private static final class PlatformThreadFactory implements ThreadFactory {
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "jconts-blocking-"
+					+ counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	private VirtualThreads() {
+		// No instances
+	}
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.loom;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.IsAsync;
+
+/**
+ * Blocking bodies executed as computations.
+ */
+public class VirtualThreadsIT {
+
+	@Test
+	public void testBlockingBody() throws Exception {
+		Assert.assertEquals("a:b", VirtualThreads.waitCompleted(joined()));
+	}
+
+	@IsAsync
+	public Computation<String> joined() {
+		String a = Async.await(VirtualThreads.onVirtualThread(blocking("a")));
+		String b = Async.await(VirtualThreads.onVirtualThread(blocking("b")));
+		return Async.areturn(a + ':' + b);
+	}
+
+	private static Callable<String> blocking(final String value) {
+		return new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				Thread.sleep(5);
+				Assert.assertEquals(VirtualThreads.isSupported(),
+						VirtualThreads.isVirtual(Thread.currentThread()));
+				return value;
+			}
+		};
+	}
+
+	@Test
+	public void testException() throws Exception {
+		final IllegalStateException error = new IllegalStateException();
+		try {
+			VirtualThreads.waitCompleted(VirtualThreads
+					.onVirtualThread(new Callable<Void>() {
+						@Override
+						public Void call() {
+							throw error;
+						}
+					}));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertSame(error, e.getCause());
+		}
+	}
+
+	@Test
+	public void testCancelledBeforeStart() throws Exception {
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		try {
+			Async.waitCompleted(Async.withCancellation(
+					VirtualThreads.onVirtualThread(blocking("a")), token));
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof CancellationException);
+		}
+	}
+
+	@Test
+	public void testWaitFromBlockingBody() throws Exception {
+		// Blocking body could itself wait for the asynchronous method
+		Assert.assertEquals("a:b", VirtualThreads.waitCompleted(VirtualThreads
+				.onVirtualThread(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return VirtualThreads.waitCompleted(joined());
+					}
+				})));
+	}
+
+	@Test
+	public void testPlatformThread() {
+		Assert.assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+	}
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.loom.bench;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import com.google.code.jconts.Async;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.IsAsync;
+import com.google.code.jconts.loom.VirtualThreads;
+
+/**
+ * Runs the same workload (many concurrent tasks, each sleeping a few times) as
+ * generated state machines and as blocking bodies on virtual threads, and
+ * reports time taken and heap used while all tasks are in flight.
+ * <p>
+ * Should be run with the instrumentation agent, see <code>benchmark</code>
+ * task and README of the module (virtual threads need JDK 21). On JDKs
+ * without virtual threads the second mode runs on platform threads.
+ */
+public final class VirtualThreadBenchmark {
+
+	private static final long SLEEP = 10;
+
+	@IsAsync
+	public Computation<Integer> sleeping(int count) {
+		int i = 0;
+		while (i < count) {
+			Async.await(Async.sleep(SLEEP));
+			i++;
+		}
+		return Async.areturn(i);
+	}
+
+	private static Callable<Integer> blocking(final int count) {
+		return new Callable<Integer>() {
+			@Override
+			public Integer call() throws Exception {
+				int i = 0;
+				while (i < count) {
+					Thread.sleep(SLEEP);
+					i++;
+				}
+				return i;
+			}
+		};
+	}
+
+	private static void run(String mode, Computation<Integer>[] tasks)
+			throws InterruptedException {
+		final CountDownLatch latch = new CountDownLatch(tasks.length);
+		Continuation<Integer> done = new Continuation<Integer>() {
+			@Override
+			public void invoke(Integer data) {
+				latch.countDown();
+			}
+
+			@Override
+			public void setException(Throwable t) {
+				t.printStackTrace();
+				latch.countDown();
+			}
+		};
+		System.gc();
+		long before = usedHeap();
+		long start = System.nanoTime();
+		for (Computation<Integer> task : tasks) {
+			task.execute(done);
+		}
+		long inFlight = usedHeap() - before;
+		latch.await();
+		long elapsed = System.nanoTime() - start;
+		System.out.println(String.format(
+				"%-16s %d tasks, %d ms, ~%d bytes per task in flight", mode,
+				tasks.length, elapsed / 1000000, inFlight / tasks.length));
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@SuppressWarnings("unchecked")
+	public static void main(String[] args) throws Exception {
+		int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int sleeps = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		VirtualThreadBenchmark benchmark = new VirtualThreadBenchmark();
+		String threads = VirtualThreads.isSupported() ? "virtual threads"
+				: "platform threads";
+
+		for (int round = 0; round < 3; ++round) {
+			Computation<Integer>[] machines = new Computation[tasks];
+			Computation<Integer>[] blocking = new Computation[tasks];
+			for (int i = 0; i < tasks; ++i) {
+				machines[i] = benchmark.sleeping(sleeps);
+				blocking[i] = VirtualThreads.onVirtualThread(blocking(sleeps));
+			}
+			run("state machines", machines);
+			run(threads, blocking);
+		}
+	}
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives the asynchronous method of the generator from the consumer thread.
+ * Subclasses keep the yielded value, so primitive values are not boxed.
+ *
+ * @see Generator
+ */
+abstract class AbstractGenerator {
+
+	private static final int RUNNING = 0;
+	private static final int YIELDED = 1;
+	private static final int FINISHED = 2;
+
+	private final Computation<Void> resume = new Computation<Void>() {
+		@Override
+		public void execute(Continuation<? super Void> c) {
+			next = c;
+			produced(YIELDED);
+		}
+	};
+
+	private final Continuation<Void> done = new Continuation<Void>() {
+		@Override
+		public void invoke(Void data) {
+			produced(FINISHED);
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			exception = t;
+			produced(FINISHED);
+		}
+	};
+
+	/** Set by the method resumed by other thread */
+	private volatile int state = RUNNING;
+	private volatile Thread waiter;
+	/** Set by the method running on the consumer thread */
+	private int local = RUNNING;
+	private Thread consumer;
+	private boolean started;
+	private boolean ready;
+	private Continuation<? super Void> next;
+	private Throwable exception;
+
+	/**
+	 * Asynchronous method that produces the values.
+	 */
+	protected abstract Computation<Void> generate();
+
+	/**
+	 * @return computation that suspends the method until consumer asks for
+	 *         the next value
+	 */
+	final Computation<Void> resume() {
+		return resume;
+	}
+
+	/**
+	 * Resumes the method until it yields the next value or finishes, unless
+	 * the value yielded before is not consumed yet.
+	 *
+	 * @return <code>false</code> if method has finished
+	 */
+	final boolean advance() {
+		if (ready) {
+			return true;
+		}
+		if (local == FINISHED || state == FINISHED) {
+			return finished();
+		}
+		local = RUNNING;
+		if (state != RUNNING) {
+			state = RUNNING;
+		}
+		consumer = Thread.currentThread();
+		if (!started) {
+			started = true;
+			generate().execute(done);
+		} else {
+			Continuation<? super Void> c = next;
+			next = null;
+			c.invoke(null);
+		}
+		int produced = local;
+		if (produced == RUNNING) {
+			produced = park();
+		}
+		if (produced == FINISHED) {
+			return finished();
+		}
+		ready = true;
+		return true;
+	}
+
+	/**
+	 * Marks the yielded value as consumed.
+	 */
+	final void consumed() {
+		ready = false;
+	}
+
+	private boolean finished() {
+		Throwable t = exception;
+		if (t != null) {
+			exception = null;
+			if (t instanceof RuntimeException) {
+				throw (RuntimeException) t;
+			}
+			if (t instanceof Error) {
+				throw (Error) t;
+			}
+			throw new RuntimeException(t);
+		}
+		return false;
+	}
+
+	private void produced(int value) {
+		// Consumer is not waiting if method runs on its thread, so no need
+		// to publish the state
+		if (consumer == Thread.currentThread()) {
+			local = value;
+			return;
+		}
+		state = value;
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Waits for the method resumed by other thread to yield or finish.
+	 */
+	private int park() {
+		boolean interrupted = false;
+		waiter = Thread.currentThread();
+		int produced;
+		while ((produced = state) == RUNNING) {
+			LockSupport.park(this);
+			interrupted |= Thread.interrupted();
+		}
+		waiter = null;
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return produced;
+	}
+}
@@ -15,13 +15,21 @@
  */
 package com.google.code.jconts;
 
-import java.lang.reflect.InvocationTargetException;
 import java.util.List;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.FutureTask;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import com.google.code.jconts.util.BlockingContinuation;
+import com.google.code.jconts.util.BoundedWaitComputation;
+import com.google.code.jconts.util.CancellableContinuation;
+import com.google.code.jconts.util.CompletedComputation;
+import com.google.code.jconts.util.DelayComputation;
+import com.google.code.jconts.util.HashedWheelTimer;
 import com.google.code.jconts.util.MultiWaitComputation;
+import com.google.code.jconts.util.ResumeOnComputation;
+import com.google.code.jconts.util.TimeoutComputation;
 
 public final class Async {
 
@@ -30,6 +38,30 @@ public final class Async {
 				"This method should not be invoked directly!");
 	}
 
+	/**
+	 * Same as {@link #await(Computation)}, but the result is not boxed.
+	 */
+	public static int awaitInt(final IntComputation task) {
+		throw new IllegalStateException(
+				"This method should not be invoked directly!");
+	}
+
+	/**
+	 * Same as {@link #await(Computation)}, but the result is not boxed.
+	 */
+	public static long awaitLong(final LongComputation task) {
+		throw new IllegalStateException(
+				"This method should not be invoked directly!");
+	}
+
+	/**
+	 * Same as {@link #await(Computation)}, but the result is not boxed.
+	 */
+	public static double awaitDouble(final DoubleComputation task) {
+		throw new IllegalStateException(
+				"This method should not be invoked directly!");
+	}
+
 	public static <T> Computation<T> areturn(final T value) {
 		throw new IllegalStateException(
 				"This method should not be invoked directly!");
@@ -39,10 +71,159 @@ public final class Async {
 		return areturn(null);
 	}
 
+	/**
+	 * Creates computation that is already completed with given value. Awaiting
+	 * such computation does not suspend the method.
+	 * 
+	 * @param <T>
+	 * @param value
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Computation<T> completed(final T value) {
+		if (value == null) {
+			return (Computation<T>) CompletedComputation.NULL;
+		}
+		return new CompletedComputation<T>(value);
+	}
+
 	public static Computation<List<Object>> multiAwait(Computation<?>... tasks) {
 		return new MultiWaitComputation(tasks);
 	}
 
+	/**
+	 * Creates computation that executes given tasks, at most
+	 * <code>parallelism</code> of them at the same time, and finishes with
+	 * their results in iteration order. Tasks are taken from the iterable only
+	 * when there is a free slot, so it could produce them lazily. First failed
+	 * task fails the computation and cancels the running ones.
+	 * 
+	 * @param tasks
+	 * @param parallelism
+	 *            maximum amount of the running tasks, must be positive
+	 * @return
+	 */
+	public static Computation<List<Object>> multiAwait(
+			Iterable<? extends Computation<?>> tasks, int parallelism) {
+		return new BoundedWaitComputation(tasks, parallelism);
+	}
+
+	/**
+	 * Creates computation that completes after given delay. All delays are
+	 * served by the single shared timer thread, which also resumes the
+	 * awaiting method.
+	 * 
+	 * @param delay
+	 * @param unit
+	 * @return
+	 */
+	public static Computation<Void> delay(long delay, TimeUnit unit) {
+		return new DelayComputation(HashedWheelTimer.getDefault(), delay, unit);
+	}
+
+	/**
+	 * Creates computation that completes after given amount of milliseconds.
+	 * 
+	 * @see #delay(long, TimeUnit)
+	 */
+	public static Computation<Void> sleep(long millis) {
+		return delay(millis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Creates computation that completes with the result of given one, or with
+	 * {@link java.util.concurrent.TimeoutException} if it does not complete
+	 * in given time. Result arriving after the timeout is ignored.
+	 * 
+	 * @param <T>
+	 * @param task
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 */
+	public static <T> Computation<T> withTimeout(Computation<T> task,
+			long timeout, TimeUnit unit) {
+		return new TimeoutComputation<T>(HashedWheelTimer.getDefault(), task,
+				timeout, unit);
+	}
+
+	/**
+	 * Creates computation that executes given one with the cancellation token.
+	 * Token is propagated to the asynchronous methods awaited by the
+	 * computation.
+	 * 
+	 * @param <T>
+	 * @param task
+	 * @param token
+	 * @return
+	 */
+	public static <T> Computation<T> withCancellation(
+			final Computation<T> task, final CancellationToken token) {
+		return new Computation<T>() {
+			@Override
+			public void execute(Continuation<? super T> c) {
+				task.execute(new CancellableContinuation<T>(c, token));
+			}
+		};
+	}
+
+	/**
+	 * Creates computation that continues the awaiting method on the given
+	 * executor. If method is already running on that executor (was resumed by
+	 * it), computation is already completed, so awaiting it costs nothing.
+	 * 
+	 * @param executor
+	 * @return
+	 */
+	public static Computation<Void> resumeOn(Executor executor) {
+		return resumeOn(completed((Void) null), executor);
+	}
+
+	/**
+	 * Creates computation that completes with the result of the given one, but
+	 * delivers it on the given executor. Result available while already
+	 * running on the executor is delivered inline.
+	 * 
+	 * @param <T>
+	 * @param task
+	 * @param executor
+	 * @return
+	 */
+	public static <T> Computation<T> resumeOn(Computation<T> task,
+			Executor executor) {
+		if (task instanceof CompletedComputation
+				&& ResumeOnComputation.isCurrent(executor)) {
+			return task;
+		}
+		return new ResumeOnComputation<T>(task, executor);
+	}
+
+	/**
+	 * Same as {@link #resumeOn(Computation, Executor)}, but the result is not
+	 * boxed. Used for {@link #awaitInt(IntComputation)} in methods resuming on
+	 * the executor.
+	 */
+	public static IntComputation resumeOn(IntComputation task,
+			Executor executor) {
+		return ResumeOnComputation.ofInt(task, executor);
+	}
+
+	/**
+	 * @see #resumeOn(IntComputation, Executor)
+	 */
+	public static LongComputation resumeOn(LongComputation task,
+			Executor executor) {
+		return ResumeOnComputation.ofLong(task, executor);
+	}
+
+	/**
+	 * @see #resumeOn(IntComputation, Executor)
+	 */
+	public static DoubleComputation resumeOn(DoubleComputation task,
+			Executor executor) {
+		return ResumeOnComputation.ofDouble(task, executor);
+	}
+
 	/**
 	 * This method returns the result of the computation. Despite the
 	 * {@link #await(Computation)} method, it waits for the computation to be
@@ -59,46 +240,32 @@ public final class Async {
 	 */
 	public static <T> T waitCompleted(final Computation<T> task)
 			throws InterruptedException, ExecutionException {
-
-		final Result<T> result = new Result<T>();
-		final FutureTask<T> future = new FutureTask<T>(result);
-
-		task.execute(new Continuation<T>() {
-			public void invoke(T data) {
-				result.setResult(data);
-				future.run();
-			};
-
-			@Override
-			public void setException(Throwable t) {
-				result.setThrowable(t);
-				future.run();
-			}
-		});
-
-		return future.get();
+		BlockingContinuation<T> result = new BlockingContinuation<T>();
+		task.execute(result);
+		return result.get();
 	}
 
-	static class Result<V> implements Callable<V> {
-		private V result;
-		private Throwable throwable;
-
-		public void setResult(V result) {
-			this.result = result;
-		}
-
-		public void setThrowable(Throwable throwable) {
-			this.throwable = throwable;
-		}
-
-		@Override
-		public V call() throws Exception {
-			if (throwable != null) {
-				throw throwable instanceof Exception ? (Exception) throwable
-						: new InvocationTargetException(throwable);
-			}
-			return result;
-		}
+	/**
+	 * Waits for the computation to be finished at most given time and returns
+	 * its result.
+	 * 
+	 * @see #waitCompleted(Computation)
+	 * @param <T>
+	 * @param task
+	 * @param timeout
+	 * @param unit
+	 * @return
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 * @throws TimeoutException
+	 *             if computation was not finished in time
+	 */
+	public static <T> T waitCompleted(final Computation<T> task, long timeout,
+			TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		BlockingContinuation<T> result = new BlockingContinuation<T>();
+		task.execute(result);
+		return result.get(timeout, unit);
 	}
 
 	private Async() {
@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+/**
+ * Asynchronous iterator over the values produced by the asynchronous method.
+ * <p>
+ * Unlike {@link Generator}, both the producing method and the consumer are
+ * asynchronous: {@link #generate()} could await other computations (fetch
+ * the next page, for example) between awaiting {@link #yield(Object)}, and
+ * the consumer awaits {@link #next()}. Producer and consumer take turns: the
+ * producer runs only while the consumer awaits the next element, and is
+ * suspended at <code>yield</code> until the consumer asks for the next one.
+ * <p>
+ * Generator could be iterated only once.
+ * 
+ * @param <T>
+ *            type of the produced values
+ */
+public abstract class AsyncGenerator<T> implements AsyncIterator<T> {
+
+	private final Computation<Boolean> next = new Computation<Boolean>() {
+		@Override
+		public void execute(Continuation<? super Boolean> c) {
+			if (finished) {
+				c.invoke(Boolean.FALSE);
+				return;
+			}
+			consumer = c;
+			if (!started) {
+				started = true;
+				generate().execute(done);
+			} else {
+				Continuation<? super Void> p = producer;
+				producer = null;
+				p.invoke(null);
+			}
+		}
+	};
+
+	private final Computation<Void> resume = new Computation<Void>() {
+		@Override
+		public void execute(Continuation<? super Void> c) {
+			producer = c;
+			take().invoke(Boolean.TRUE);
+		}
+	};
+
+	private final Done done = new Done();
+
+	private boolean started;
+	private boolean finished;
+	/** Consumer awaiting the next element */
+	private Continuation<? super Boolean> consumer;
+	/** Producer suspended at yield */
+	private Continuation<? super Void> producer;
+	private T current;
+
+	/**
+	 * Asynchronous method that produces the values.
+	 */
+	protected abstract Computation<Void> generate();
+
+	/**
+	 * Yields the value to the consumer. Method is resumed when consumer asks
+	 * for the next value. Value is taken when <code>yield</code> is invoked,
+	 * returned computation is the same for all values.
+	 */
+	protected Computation<Void> yield(T value) {
+		current = value;
+		return resume;
+	}
+
+	@Override
+	public Computation<Boolean> next() {
+		return next;
+	}
+
+	@Override
+	public T current() {
+		return current;
+	}
+
+	private Continuation<? super Boolean> take() {
+		Continuation<? super Boolean> c = consumer;
+		consumer = null;
+		return c;
+	}
+
+	/**
+	 * Completes the consumer awaiting the next element when producing method
+	 * is finished. Producing method gets cancellation token of that consumer.
+	 */
+	private final class Done implements Continuation<Void>,
+			CancellationToken.Holder {
+		@Override
+		public void invoke(Void data) {
+			finished = true;
+			current = null;
+			take().invoke(Boolean.FALSE);
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			finished = true;
+			current = null;
+			take().setException(t);
+		}
+
+		@Override
+		public CancellationToken getCancellationToken() {
+			return CancellationToken.of(consumer);
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+/**
+ * Iterator which fetches the elements asynchronously. Consumed by the
+ * asynchronous method like this:
+ * 
+ * <pre>
+ * while (Async.await(it.next())) {
+ * 	T element = it.current();
+ * 	...
+ * }
+ * </pre>
+ * 
+ * Next element is not requested until the previous one is consumed, so
+ * elements could be streamed with constant memory.
+ * 
+ * @param <T>
+ *            type of the elements
+ * @see AsyncGenerator
+ */
+public interface AsyncIterator<T> {
+
+	/**
+	 * Fetches the next element. Must not be executed again until the returned
+	 * computation is completed.
+	 * 
+	 * @return computation completed with <code>true</code> if the next
+	 *         element is available via {@link #current()} and
+	 *         <code>false</code> if there are no more elements
+	 */
+	Computation<Boolean> next();
+
+	/**
+	 * @return element fetched by the last {@link #next()}
+	 */
+	T current();
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Token used to request cooperative cancellation of the asynchronous methods.
+ * <p>
+ * Token is passed along with the continuation: instrumented method takes the
+ * token of the continuation it is executed with, and continuations it
+ * creates for its awaits carry the same token. So the token given to the
+ * outermost computation (see
+ * {@link Async#withCancellation(Computation, CancellationToken)}) reaches
+ * all of the asynchronous methods it awaits, directly or via
+ * {@link Async#multiAwait(Computation...)}.
+ * <p>
+ * Instrumented methods check the token when started and when resumed after
+ * each await. Once the token is cancelled, await throws
+ * {@link CancellationException} instead of returning the result.
+ * <p>
+ * Computations that wait for something other than the asynchronous method
+ * (like the timer) could register the callback to stop waiting when the
+ * token is cancelled, see {@link #onCancel(Runnable)}.
+ */
+public class CancellationToken {
+
+	/**
+	 * Continuation that carries the cancellation token.
+	 */
+	public interface Holder {
+		/**
+		 * @return token, or <code>null</code> if computation could not be
+		 *         cancelled
+		 */
+		CancellationToken getCancellationToken();
+	}
+
+	/**
+	 * Callback registered by {@link CancellationToken#onCancel(Runnable)}.
+	 */
+	public static final class Registration extends AtomicBoolean {
+		private static final long serialVersionUID = 1L;
+
+		private final CancellationToken token;
+		private final Runnable callback;
+
+		Registration(CancellationToken token, Runnable callback) {
+			this.token = token;
+			this.callback = callback;
+		}
+
+		/**
+		 * Removes the callback, so it is not run and not kept reachable by
+		 * the token. Should be invoked once the callback is no longer needed.
+		 */
+		public void unregister() {
+			if (compareAndSet(false, true)) {
+				detach();
+			}
+		}
+
+		void run() {
+			if (compareAndSet(false, true)) {
+				detach();
+				callback.run();
+			}
+		}
+
+		private void detach() {
+			for (CancellationToken t = token; t != null; t = t.parent) {
+				t.remove(this);
+			}
+		}
+	}
+
+	private final CancellationToken parent;
+	private volatile boolean cancelled;
+
+	/**
+	 * Registered callbacks, guarded by the token monitor. Created on the
+	 * first registration.
+	 */
+	private Set<Registration> registrations;
+
+	public CancellationToken() {
+		this(null);
+	}
+
+	/**
+	 * Creates token that is also cancelled when its parent is cancelled.
+	 */
+	public CancellationToken(CancellationToken parent) {
+		this.parent = parent;
+	}
+
+	public void cancel() {
+		cancelled = true;
+		Registration[] registered;
+		synchronized (this) {
+			if (registrations == null) {
+				return;
+			}
+			registered = registrations.toArray(new Registration[registrations
+					.size()]);
+			registrations = null;
+		}
+		for (Registration registration : registered) {
+			registration.run();
+		}
+	}
+
+	CancellationToken getParent() {
+		return parent;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || (parent != null && parent.isCancelled());
+	}
+
+	public void throwIfCancelled() {
+		if (isCancelled()) {
+			throw new CancellationException();
+		}
+	}
+
+	/**
+	 * Registers the callback to run once the token or any of its parents is
+	 * cancelled. Callback is run at most once, by the thread cancelling the
+	 * token, or immediately if the token is already cancelled.
+	 *
+	 * @return registration to remove the callback with
+	 */
+	public Registration onCancel(Runnable callback) {
+		Registration registration = new Registration(this, callback);
+		for (CancellationToken t = this; t != null; t = t.parent) {
+			t.add(registration);
+		}
+		// Cancellation could happen before the callback was added
+		if (isCancelled()) {
+			registration.run();
+		}
+		return registration;
+	}
+
+	private synchronized void add(Registration registration) {
+		if (cancelled) {
+			return;
+		}
+		if (registrations == null) {
+			registrations = Collections
+					.newSetFromMap(new IdentityHashMap<Registration, Boolean>());
+		}
+		registrations.add(registration);
+	}
+
+	private synchronized void remove(Registration registration) {
+		if (registrations != null) {
+			registrations.remove(registration);
+		}
+	}
+
+	/**
+	 * @return token carried by the continuation, or <code>null</code> if none
+	 */
+	public static CancellationToken of(Continuation<?> c) {
+		if (c instanceof Holder) {
+			return ((Holder) c).getCancellationToken();
+		}
+		return null;
+	}
+
+	/**
+	 * Used by the instrumented code to check the token.
+	 *
+	 * @return exception to complete the method with, or <code>null</code> if
+	 *         token is <code>null</code> or not cancelled
+	 */
+	public static CancellationException cancellation(CancellationToken token) {
+		if (token != null && token.isCancelled()) {
+			return new CancellationException();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded channel for passing values between asynchronous methods. Sender is
+ * suspended while the buffer is full, receiver is suspended while it is
+ * empty, so the fast producer is slowed down to the speed of the consumer.
+ * <p>
+ * Values are kept in the lock-free ring buffer, so while nobody is suspended,
+ * both sending and receiving complete synchronously without taking the lock.
+ * Suspended senders and receivers are queued under the lock; the side that
+ * makes the progress possible for them (receiver freeing the slot or sender
+ * filling it) resumes them.
+ * <p>
+ * Channel could be used by any number of senders and receivers. After the
+ * channel is closed, values sent before are still delivered, but no new
+ * values could be sent. Channel must not be closed concurrently with sending
+ * to it.
+ *
+ * @param <T>
+ *            type of the values, <code>null</code>s are not permitted
+ */
+public final class Channel<T> implements AsyncIterable<T> {
+
+	private final int capacity;
+
+	/** Ring buffer, each slot is guarded by its sequence number */
+	private final AtomicReferenceArray<T> items;
+	private final AtomicLongArray sequences;
+	/** Position of the next value to receive */
+	private final AtomicLong head = new AtomicLong();
+	/** Position of the next value to send */
+	private final AtomicLong tail = new AtomicLong();
+
+	private final Object lock = new Object();
+	private final ArrayDeque<Sender<T>> senders = new ArrayDeque<Sender<T>>();
+	private final ArrayDeque<Receiver<T>> receivers = new ArrayDeque<Receiver<T>>();
+	/**
+	 * Amount of the suspended senders and receivers. Written under the lock,
+	 * read by the fast paths.
+	 */
+	private volatile int waiting;
+	private volatile boolean closed;
+
+	private final Computation<T> receive = new Computation<T>() {
+		@Override
+		public void execute(Continuation<? super T> c) {
+			if (waiting == 0) {
+				T value = poll();
+				if (value != null) {
+					signal();
+					c.invoke(value);
+					return;
+				}
+			}
+			suspend(new ValueReceiver<T>(c));
+		}
+	};
+
+	/**
+	 * @param capacity
+	 *            maximum amount of the values sent but not received yet, must
+	 *            be positive
+	 */
+	public Channel(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: "
+					+ capacity);
+		}
+		this.capacity = capacity;
+		items = new AtomicReferenceArray<T>(capacity);
+		sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; ++i) {
+			sequences.set(i, i);
+		}
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Creates computation that sends given value to the channel. It completes
+	 * when value is put into the buffer, or with
+	 * {@link IllegalStateException} if channel is closed.
+	 */
+	public Computation<Void> send(final T value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		return new Computation<Void>() {
+			@Override
+			public void execute(Continuation<? super Void> c) {
+				if (waiting == 0 && !closed && offer(value)) {
+					signal();
+					c.invoke(null);
+					return;
+				}
+				suspend(new Sender<T>(value, c));
+			}
+		};
+	}
+
+	/**
+	 * @return computation that receives the next value from the channel. It
+	 *         completes with {@link NoSuchElementException} if channel is
+	 *         closed and all values sent before are received.
+	 */
+	public Computation<T> receive() {
+		return receive;
+	}
+
+	/**
+	 * Returns iterator over the values received from the channel. Iteration
+	 * finishes when channel is closed and all values sent before are received.
+	 * Several iterators receive values independently of each other.
+	 */
+	@Override
+	public AsyncIterator<T> asyncIterator() {
+		return new ChannelIterator();
+	}
+
+	/**
+	 * Closes the channel. Suspended senders are still resumed when there is
+	 * space for their values, suspended receivers are resumed as closed when
+	 * there are no values left.
+	 */
+	public void close() {
+		List<Waiter> completed;
+		synchronized (lock) {
+			closed = true;
+			completed = dispatch();
+		}
+		complete(completed);
+	}
+
+	public boolean isClosed() {
+		return closed;
+	}
+
+	private boolean offer(T value) {
+		long pos = tail.get();
+		while (true) {
+			int index = (int) (pos % capacity);
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					items.lazySet(index, value);
+					// Volatile store publishes the value before the sender
+					// checks for the suspended receivers
+					sequences.set(index, pos + 1);
+					return true;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				// Full, or receiver has not released the slot yet
+				return false;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	private T poll() {
+		long pos = head.get();
+		while (true) {
+			int index = (int) (pos % capacity);
+			long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1)) {
+					T value = items.get(index);
+					items.lazySet(index, null);
+					sequences.set(index, pos + capacity);
+					return value;
+				}
+				pos = head.get();
+			} else if (diff < 0) {
+				// Empty, or sender has not published the value yet
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Resumes senders and receivers that could proceed after the fast path
+	 * has changed the buffer. Waiter count is read after the buffer is
+	 * updated, and suspending side updates it before checking the buffer, so
+	 * at least one of them sees the other.
+	 */
+	private void signal() {
+		if (waiting != 0) {
+			List<Waiter> completed;
+			synchronized (lock) {
+				completed = dispatch();
+			}
+			complete(completed);
+		}
+	}
+
+	private void suspend(Sender<T> sender) {
+		List<Waiter> completed;
+		synchronized (lock) {
+			if (closed) {
+				sender.closed = true;
+				completed = new ArrayList<Waiter>(1);
+				completed.add(sender);
+			} else {
+				senders.add(sender);
+				waiting++;
+				completed = dispatch();
+			}
+		}
+		complete(completed);
+	}
+
+	private void suspend(Receiver<T> receiver) {
+		List<Waiter> completed;
+		synchronized (lock) {
+			receivers.add(receiver);
+			waiting++;
+			completed = dispatch();
+		}
+		complete(completed);
+	}
+
+	/**
+	 * Matches suspended receivers with the buffered values and moves values
+	 * of the suspended senders into the freed slots. Must be invoked under
+	 * the lock, returned waiters must be completed after it is released.
+	 */
+	private List<Waiter> dispatch() {
+		List<Waiter> completed = null;
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			while (!receivers.isEmpty()) {
+				T value = poll();
+				if (value == null) {
+					break;
+				}
+				Receiver<T> receiver = receivers.poll();
+				receiver.value = value;
+				completed = add(completed, receiver);
+				progress = true;
+			}
+			while (!senders.isEmpty() && offer(senders.peek().value)) {
+				completed = add(completed, senders.poll());
+				progress = true;
+			}
+		}
+		if (closed && senders.isEmpty() && head.get() == tail.get()) {
+			while (!receivers.isEmpty()) {
+				Receiver<T> receiver = receivers.poll();
+				receiver.closed = true;
+				completed = add(completed, receiver);
+			}
+		}
+		waiting = senders.size() + receivers.size();
+		return completed;
+	}
+
+	private static List<Waiter> add(List<Waiter> list, Waiter waiter) {
+		if (list == null) {
+			list = new ArrayList<Waiter>();
+		}
+		list.add(waiter);
+		return list;
+	}
+
+	private static void complete(List<Waiter> completed) {
+		if (completed != null) {
+			for (Waiter waiter : completed) {
+				waiter.complete();
+			}
+		}
+	}
+
+	private abstract static class Waiter {
+		boolean closed;
+
+		abstract void complete();
+	}
+
+	private static final class Sender<T> extends Waiter {
+		final T value;
+		final Continuation<? super Void> continuation;
+
+		Sender(T value, Continuation<? super Void> continuation) {
+			this.value = value;
+			this.continuation = continuation;
+		}
+
+		@Override
+		void complete() {
+			if (closed) {
+				continuation.setException(new IllegalStateException(
+						"Channel is closed"));
+			} else {
+				continuation.invoke(null);
+			}
+		}
+	}
+
+	private abstract static class Receiver<T> extends Waiter {
+		T value;
+	}
+
+	private static final class ValueReceiver<T> extends Receiver<T> {
+		final Continuation<? super T> continuation;
+
+		ValueReceiver(Continuation<? super T> continuation) {
+			this.continuation = continuation;
+		}
+
+		@Override
+		void complete() {
+			if (closed) {
+				continuation.setException(new NoSuchElementException(
+						"Channel is closed"));
+			} else {
+				continuation.invoke(value);
+			}
+		}
+	}
+
+	private final class ChannelIterator implements AsyncIterator<T> {
+
+		private T current;
+
+		private final Computation<Boolean> next = new Computation<Boolean>() {
+			@Override
+			public void execute(final Continuation<? super Boolean> c) {
+				if (waiting == 0) {
+					T value = poll();
+					if (value != null) {
+						current = value;
+						signal();
+						c.invoke(Boolean.TRUE);
+						return;
+					}
+				}
+				suspend(new Receiver<T>() {
+					@Override
+					void complete() {
+						if (closed) {
+							current = null;
+							c.invoke(Boolean.FALSE);
+						} else {
+							current = value;
+							c.invoke(Boolean.TRUE);
+						}
+					}
+				});
+			}
+		};
+
+		@Override
+		public Computation<Boolean> next() {
+			return next;
+		}
+
+		@Override
+		public T current() {
+			return current;
+		}
+	}
+}
@@ -1,50 +1,110 @@
 package com.google.code.jconts;
 
 import com.google.code.jconts.util.EmptyContinuation;
+import com.google.code.jconts.util.RandomScheduler;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
 public class Coroutines {
 
-  private static final List<Runnable> jobs = new ArrayList<Runnable>();
+  /**
+   * Scheduler of the innermost {@link #execute(Scheduler, Computation...)}
+   * running on the current thread, or of the worker thread of
+   * {@link #executeParallel(int, Computation...)}.
+   */
+  static final ThreadLocal<Scheduler> current = new ThreadLocal<Scheduler>();
 
+  /**
+   * Runs given coroutines until all of them are completed, switching between
+   * them in random order.
+   */
   public static void execute(Computation<Void>... tasks) {
-    Computation<List<Object>> multiTasks = Async.multiAwait(tasks);
-    multiTasks.execute(new EmptyContinuation<List<Object>>());
-    Random scheduler = new Random();
-    while (!jobs.isEmpty()) {
-      Runnable job = jobs.remove(scheduler.nextInt(jobs.size()));
-      job.run();
+    execute(new RandomScheduler(), tasks);
+  }
+
+  /**
+   * Runs given coroutines until all of them are completed, switching between
+   * them in the order defined by the scheduler. Scheduler is used only by
+   * this invocation, so independent groups of coroutines could be run
+   * concurrently on different threads.
+   */
+  public static void execute(Scheduler scheduler, Computation<Void>... tasks) {
+    Scheduler previous = current.get();
+    current.set(scheduler);
+    try {
+      Computation<List<Object>> multiTasks = Async.multiAwait(tasks);
+      multiTasks.execute(new EmptyContinuation<List<Object>>());
+      Runnable job;
+      while ((job = scheduler.next()) != null) {
+        job.run();
+      }
+    } finally {
+      if (previous != null) {
+        current.set(previous);
+      } else {
+        current.remove();
+      }
     }
   }
 
+  /**
+   * Runs given coroutines on the given amount of worker threads until all of
+   * them are completed. Yielded coroutine is resumed by the same worker,
+   * unless idle worker steals it. Worker threads are shared by the invocations
+   * with the same parallelism.
+   *
+   * @throws ExecutionException if any of coroutines has failed
+   */
+  public static void executeParallel(int parallelism, Computation<Void>... tasks)
+      throws InterruptedException, ExecutionException {
+    WorkStealingExecutor.forParallelism(parallelism).execute(tasks);
+  }
+
   public static Computation<Void> yield() {
-    return new Computation<Void>() {
-      @Override
-      public void execute(final Continuation<? super Void> cont) {
-        jobs.add(new Runnable() {
-          @Override
-          public void run() {
-            cont.invoke(null);
-          }
-        });
-      }
-    };
+    return yield(null);
   }
 
   public static <T> Computation<T> yield(final T result) {
     return new Computation<T>() {
       @Override
-      public void execute(final Continuation<? super T> cont) {
-        jobs.add(new Runnable() {
-          @Override
-          public void run() {
-            cont.invoke(result);
-          }
-        });
+      public void execute(Continuation<? super T> cont) {
+        scheduler().schedule(new Resume<T>(cont, result));
       }
     };
   }
+
+  /**
+   * Job resuming the yielded coroutine. Carries the token of the coroutine,
+   * so scheduler could tell which execution the coroutine belongs to.
+   */
+  private static final class Resume<T> implements Runnable,
+      CancellationToken.Holder {
+    private final Continuation<? super T> cont;
+    private final T result;
+
+    Resume(Continuation<? super T> cont, T result) {
+      this.cont = cont;
+      this.result = result;
+    }
+
+    @Override
+    public CancellationToken getCancellationToken() {
+      return CancellationToken.of(cont);
+    }
+
+    @Override
+    public void run() {
+      cont.invoke(result);
+    }
+  }
+
+  private static Scheduler scheduler() {
+    Scheduler scheduler = current.get();
+    if (scheduler == null) {
+      throw new IllegalStateException(
+          "Coroutines could yield only when run by Coroutines.execute");
+    }
+    return scheduler;
+  }
 }
@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+/**
+ * Continuation that receives <code>double</code> result without boxing it.
+ * <p>
+ * {@link DoubleComputation} must complete it via {@link #invokeDouble(double)}:
+ * continuations generated for the primitive awaits do not expect the boxed
+ * result.
+ */
+public interface DoubleContinuation extends Continuation<Double> {
+
+	void invokeDouble(double data);
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterable over the values produced by the asynchronous method.
+ * <p>
+ * Subclasses implement {@link #generate()} as an asynchronous method which
+ * awaits {@link #yield(Object)} for every value. Generator is driven by the
+ * consumer: {@link Iterator#hasNext()} resumes the method on the consumer
+ * thread, and the method runs until it yields the next value or finishes. If
+ * the method awaits computations completed by other threads in between,
+ * consumer parks until the value is yielded.
+ * <p>
+ * Generator could be iterated only once and only by a single thread at a time.
+ * 
+ * @param <T>
+ *            type of the produced values
+ * @see IntGenerator
+ * @see LongGenerator
+ * @see DoubleGenerator
+ */
+public abstract class Generator<T> extends AbstractGenerator implements
+		Iterable<T> {
+
+	private boolean iterated;
+	private T data;
+
+	/**
+	 * Yields the value to the consumer. Method is resumed when consumer asks
+	 * for the next value. Value is taken when <code>yield</code> is invoked,
+	 * returned computation is the same for all values.
+	 */
+	protected Computation<Void> yield(T value) {
+		data = value;
+		return resume();
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		if (iterated) {
+			throw new IllegalStateException(
+					"Generator could be iterated only once");
+		}
+		iterated = true;
+		return new Iterator<T>() {
+			@Override
+			public boolean hasNext() {
+				return advance();
+			}
+
+			@Override
+			public T next() {
+				if (!advance()) {
+					throw new NoSuchElementException();
+				}
+				consumed();
+				T value = data;
+				data = null;
+				return value;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+/**
+ * Computation producing <code>int</code> result. Awaited by
+ * {@link Async#awaitInt(IntComputation)} without boxing the result; could be
+ * awaited by {@link Async#await(Computation)} as a computation of
+ * <code>Integer</code> as well.
+ */
+public abstract class IntComputation implements Computation<Integer> {
+
+	/**
+	 * Executes the computation, which completes the continuation via
+	 * {@link IntContinuation#invokeInt(int)} or
+	 * {@link Continuation#setException(Throwable)}.
+	 */
+	public abstract void executeInt(IntContinuation c);
+
+	@Override
+	public final void execute(Continuation<? super Integer> c) {
+		if (c instanceof IntContinuation) {
+			executeInt((IntContinuation) c);
+		} else {
+			executeInt(new Boxing(c));
+		}
+	}
+
+	/**
+	 * Adapts continuation of boxed values.
+	 */
+	private static final class Boxing implements IntContinuation,
+			CancellationToken.Holder {
+		private final Continuation<? super Integer> c;
+
+		Boxing(Continuation<? super Integer> c) {
+			this.c = c;
+		}
+
+		@Override
+		public void invokeInt(int data) {
+			c.invoke(data);
+		}
+
+		@Override
+		public void invoke(Integer data) {
+			c.invoke(data);
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			c.setException(t);
+		}
+
+		@Override
+		public CancellationToken getCancellationToken() {
+			return CancellationToken.of(c);
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+import java.util.NoSuchElementException;
+
+/**
+ * {@link Generator} of <code>int</code> values, which are not boxed.
+ * Generator is iterated by itself, only once.
+ */
+public abstract class IntGenerator extends AbstractGenerator {
+
+	private int data;
+
+	/**
+	 * @see Generator#yield(Object)
+	 */
+	protected Computation<Void> yield(int value) {
+		data = value;
+		return resume();
+	}
+
+	public boolean hasNext() {
+		return advance();
+	}
+
+	public int nextInt() {
+		if (!advance()) {
+			throw new NoSuchElementException();
+		}
+		consumed();
+		return data;
+	}
+}
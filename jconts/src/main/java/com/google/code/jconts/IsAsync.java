@@ -23,4 +23,17 @@ import java.lang.annotation.Target;
 @Target(ElementType.METHOD)
 @Retention(RetentionPolicy.CLASS)
 public @interface IsAsync {
+
+	/**
+	 * Static field holding the executor method should be resumed on after
+	 * each await, see {@link Async#resumeOn(Computation, java.util.concurrent.Executor)}.
+	 * Either the name of the field of the declaring class, or binary name of
+	 * the class followed by the name of the field (like
+	 * <code>com.example.Pools.COMPUTE</code>). Field must be declared as
+	 * <code>java.util.concurrent.Executor</code>.
+	 * <p>
+	 * Empty by default, so method continues on the thread that completed the
+	 * awaited computation.
+	 */
+	String resumeOn() default "";
 }
@@ -0,0 +1,28 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+/**
+ * Continuation that receives <code>long</code> result without boxing it.
+ * <p>
+ * {@link LongComputation} must complete it via {@link #invokeLong(long)}:
+ * continuations generated for the primitive awaits do not expect the boxed
+ * result.
+ */
+public interface LongContinuation extends Continuation<Long> {
+
+	void invokeLong(long data);
+}
@@ -0,0 +1,38 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+/**
+ * Queue of jobs ready to run, which decides the order they are run in.
+ * <p>
+ * Scheduler is used by the single thread running
+ * {@link Coroutines#execute(Scheduler, Computation...)}, so implementations
+ * need not to be thread-safe.
+ */
+public interface Scheduler {
+
+	/**
+	 * Adds job to the queue.
+	 */
+	void schedule(Runnable job);
+
+	/**
+	 * Removes the next job to run from the queue.
+	 *
+	 * @return next job, or <code>null</code> if queue is empty
+	 */
+	Runnable next();
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.code.jconts.util.CancellableContinuation;
+
+/**
+ * Runs coroutines on the pool of worker threads. Pools are shared by all
+ * executions with the same parallelism, worker threads are started once and
+ * park while there are no jobs.
+ * <p>
+ * Every worker has its own lock-free queue of jobs. Only the worker pushes
+ * to it, so coroutine yielded by the worker is resumed by the same worker,
+ * unless it is stolen by the idle one. Both the worker and the thieves take
+ * jobs from the head, so coroutines are switched in FIFO order. Coroutines
+ * are started from the shared queue of submissions.
+ */
+final class WorkStealingExecutor {
+
+	private static final Map<Integer, WorkStealingExecutor> POOLS = new HashMap<Integer, WorkStealingExecutor>();
+
+	/**
+	 * Result of the execution that has completed successfully.
+	 */
+	private static final Throwable COMPLETED = new Throwable();
+
+	private final Worker[] workers;
+	private final ConcurrentLinkedQueue<Job> submissions = new ConcurrentLinkedQueue<Job>();
+	private final AtomicInteger idle = new AtomicInteger();
+
+	/**
+	 * @return pool with given amount of worker threads
+	 */
+	static synchronized WorkStealingExecutor forParallelism(int parallelism) {
+		WorkStealingExecutor executor = POOLS.get(parallelism);
+		if (executor == null) {
+			executor = new WorkStealingExecutor(parallelism);
+			POOLS.put(parallelism, executor);
+		}
+		return executor;
+	}
+
+	private WorkStealingExecutor(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be positive: "
+					+ parallelism);
+		}
+		workers = new Worker[parallelism];
+		for (int i = 0; i < parallelism; ++i) {
+			workers[i] = new Worker(parallelism, i);
+		}
+		for (Worker worker : workers) {
+			worker.start();
+		}
+	}
+
+	void execute(Computation<Void>[] tasks) throws InterruptedException,
+			ExecutionException {
+		final Execution execution = new Execution();
+		Computation<?>[] forked = new Computation<?>[tasks.length];
+		for (int i = 0; i < tasks.length; ++i) {
+			forked[i] = fork(execution, tasks[i]);
+		}
+		Async.multiAwait(forked).execute(new Continuation<List<Object>>() {
+			@Override
+			public void invoke(List<Object> data) {
+				execution.finish(null);
+			}
+
+			@Override
+			public void setException(Throwable t) {
+				execution.finish(t);
+			}
+		});
+
+		try {
+			while (!execution.isDone() || execution.running.get() > 0) {
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			// Remaining jobs are dropped by the workers
+			execution.finish(null);
+		}
+		Throwable failure = execution.result.get();
+		if (failure != COMPLETED) {
+			throw new ExecutionException(failure);
+		}
+	}
+
+	private Computation<Void> fork(final Execution execution,
+			final Computation<Void> task) {
+		return new Computation<Void>() {
+			@Override
+			public void execute(final Continuation<? super Void> cont) {
+				submissions.add(new Job(execution, new Runnable() {
+					@Override
+					public void run() {
+						// Coroutines carry the execution as their token
+					task.execute(new CancellableContinuation<Void>(cont,
+							execution));
+					}
+				}));
+				signal();
+			}
+		};
+	}
+
+	private Job steal(Worker thief) {
+		Job job = submissions.poll();
+		if (job != null) {
+			return job;
+		}
+		int start = thief.random.nextInt(workers.length);
+		for (int i = 0; i < workers.length; ++i) {
+			Worker victim = workers[(start + i) % workers.length];
+			if (victim != thief) {
+				job = victim.jobs.poll();
+				if (job != null) {
+					return job;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void signal() {
+		if (idle.get() > 0) {
+			for (Worker worker : workers) {
+				if (worker.parked.compareAndSet(true, false)) {
+					LockSupport.unpark(worker);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Single invocation of {@link #execute(Computation[])}. Result is set
+	 * once, by the first of the failures or by the completion of all tasks.
+	 * <p>
+	 * Execution is the cancellation token of its coroutines, so coroutine
+	 * resumed by the job of other execution is still scheduled as the part of
+	 * its own one.
+	 */
+	private static final class Execution extends CancellationToken {
+		final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+		final AtomicInteger running = new AtomicInteger();
+		final Thread caller = Thread.currentThread();
+
+		boolean isDone() {
+			return result.get() != null;
+		}
+
+		void finish(Throwable t) {
+			if (result.compareAndSet(null, t != null ? t : COMPLETED)) {
+				LockSupport.unpark(caller);
+			}
+		}
+
+		/**
+		 * @return execution given token belongs to, or <code>null</code>
+		 */
+		static Execution of(CancellationToken token) {
+			for (CancellationToken t = token; t != null; t = t.getParent()) {
+				if (t instanceof Execution) {
+					return (Execution) t;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static final class Job implements Runnable {
+		final Execution execution;
+		final Runnable body;
+
+		Job(Execution execution, Runnable body) {
+			this.execution = execution;
+			this.body = body;
+		}
+
+		@Override
+		public void run() {
+			execution.running.incrementAndGet();
+			try {
+				if (!execution.isDone()) {
+					body.run();
+				}
+			} catch (Throwable t) {
+				execution.finish(t);
+			} finally {
+				if (execution.running.decrementAndGet() == 0
+						&& execution.isDone()) {
+					LockSupport.unpark(execution.caller);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Array based queue of jobs. Jobs are pushed by the owner only, and are
+	 * taken from the head by anyone by advancing the head index with CAS.
+	 * <p>
+	 * Owner publishes the job by writing the tail index after storing it, so
+	 * job below the tail is always visible to the thread that has read the
+	 * tail. Slots are reused only once the head has moved past them, so
+	 * the job read at the head index is valid if the head is still the same.
+	 * When queue is full, owner copies jobs to the array twice as large.
+	 */
+	private static final class WorkQueue {
+		private static final int INITIAL_CAPACITY = 64;
+
+		private final AtomicInteger head = new AtomicInteger();
+		private volatile int tail;
+		private volatile AtomicReferenceArray<Job> array = new AtomicReferenceArray<Job>(
+				INITIAL_CAPACITY);
+
+		/**
+		 * Adds job to the tail, could be invoked only by the owner.
+		 */
+		void push(Job job) {
+			int t = tail;
+			AtomicReferenceArray<Job> a = array;
+			if (t - head.get() >= a.length()) {
+				a = grow(a, t);
+			}
+			a.lazySet(t & (a.length() - 1), job);
+			tail = t + 1;
+		}
+
+		/**
+		 * @return job taken from the head, or <code>null</code> if queue is
+		 *         empty
+		 */
+		Job poll() {
+			while (true) {
+				int h = head.get();
+				if (tail - h <= 0) {
+					return null;
+				}
+				AtomicReferenceArray<Job> a = array;
+				int index = h & (a.length() - 1);
+				Job job = a.get(index);
+				if (job != null && head.compareAndSet(h, h + 1)) {
+					a.compareAndSet(index, job, null);
+					return job;
+				}
+			}
+		}
+
+		private AtomicReferenceArray<Job> grow(AtomicReferenceArray<Job> a,
+				int t) {
+			AtomicReferenceArray<Job> grown = new AtomicReferenceArray<Job>(
+					a.length() * 2);
+			for (int i = head.get(); i != t; ++i) {
+				grown.lazySet(i & (grown.length() - 1), a.get(i
+						& (a.length() - 1)));
+			}
+			array = grown;
+			return grown;
+		}
+	}
+
+	private final class Worker extends Thread implements Scheduler {
+		final WorkQueue jobs = new WorkQueue();
+		final Random random = new Random();
+		final AtomicBoolean parked = new AtomicBoolean();
+
+		/**
+		 * Execution of the job being run.
+		 */
+		private Execution execution;
+
+		Worker(int parallelism, int index) {
+			super("Coroutine worker " + parallelism + "-" + index);
+			setDaemon(true);
+		}
+
+		@Override
+		public void schedule(Runnable job) {
+			jobs.push(new Job(owner(job), job));
+			signal();
+		}
+
+		/**
+		 * Finds the execution of the scheduled job. Coroutine could be resumed
+		 * by the job of other execution, so execution of the current job is
+		 * used only if job carries no execution.
+		 */
+		private Execution owner(Runnable job) {
+			if (job instanceof CancellationToken.Holder) {
+				Execution owner = Execution.of(((CancellationToken.Holder) job)
+						.getCancellationToken());
+				if (owner != null) {
+					return owner;
+				}
+			}
+			return execution;
+		}
+
+		@Override
+		public Job next() {
+			Job job = jobs.poll();
+			return job != null ? job : steal(this);
+		}
+
+		private void runJob(Job job) {
+			execution = job.execution;
+			try {
+				job.run();
+			} finally {
+				execution = null;
+			}
+		}
+
+		@Override
+		public void run() {
+			Coroutines.current.set(this);
+			while (true) {
+				Job job = next();
+				if (job != null) {
+					runJob(job);
+					continue;
+				}
+
+				// Publish that we are idle, then look for the jobs once again
+				// so jobs scheduled concurrently are not missed.
+				parked.set(true);
+				idle.incrementAndGet();
+				job = next();
+				if (job == null) {
+					LockSupport.park(this);
+				}
+				idle.decrementAndGet();
+				parked.set(false);
+				if (job != null) {
+					runJob(job);
+				}
+			}
+		}
+	}
+}
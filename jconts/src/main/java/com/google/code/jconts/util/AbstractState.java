@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Base class for the generated state classes. Used by the instrumented code
+ * to detect computations that complete synchronously, so the asynchronous
+ * method could continue in the same frame instead of re-entering itself
+ * recursively (trampolining).
+ * <p>
+ * The protocol is the following: the instrumented code calls
+ * {@link #beginAwait()} right before executing the awaited computation and
+ * {@link #suspend(int)} right after it. Continuation calls
+ * {@link #resume(int)} when the result is available and re-enters the method
+ * only if the awaiting frame has already exited.
+ * <p>
+ * Only computation completed by the awaiting thread itself is handed over to
+ * the awaiting frame. If it is completed by another thread, that thread
+ * re-enters the method by itself (so the method continues on the thread that
+ * completed the computation), and the awaiting frame just exits. Each await
+ * is numbered, so the late awaiting frame could not mistake the status of the
+ * next await for its own.
+ * <p>
+ * This class is not supposed to be used directly.
+ */
+public abstract class AbstractState {
+
+	/** No await is in progress */
+	private static final int RUNNING = 0;
+	/** Awaiting frame is still executing the computation */
+	private static final int AWAITING = 1;
+	/** Awaiting frame has exited, continuation should re-enter the method */
+	private static final int SUSPENDED = 2;
+	/** Computation was completed before awaiting frame has exited */
+	private static final int RESUMED = 3;
+	/**
+	 * Computation was completed by another thread before awaiting frame has
+	 * exited, that thread re-enters the method
+	 */
+	private static final int DETACHED = 4;
+
+	private static final int STATUS_BITS = 3;
+	private static final int STATUS_MASK = (1 << STATUS_BITS) - 1;
+
+	private static final AtomicIntegerFieldUpdater<AbstractState> STATUS = AtomicIntegerFieldUpdater
+			.newUpdater(AbstractState.class, "status");
+
+	/** Number of the current await and its status */
+	private volatile int status = RUNNING;
+	private int awaits;
+	private Thread awaitingThread;
+	private int resumeIndex;
+
+	protected AbstractState() {
+	}
+
+	/**
+	 * Marks the beginning of the await. Must be invoked before the awaited
+	 * computation is executed.
+	 *
+	 * @return number of the await to pass to {@link #suspend(int)}
+	 */
+	public final int beginAwait() {
+		int await = ++awaits;
+		awaitingThread = Thread.currentThread();
+		// Ordered store is enough: the computation hands itself over to other
+		// threads (if any) after this store, and suspend() is a full fence.
+		STATUS.lazySet(this, (await << STATUS_BITS) | AWAITING);
+		return await;
+	}
+
+	/**
+	 * Tries to suspend the awaiting frame.
+	 *
+	 * @param await
+	 *            number of the await returned by {@link #beginAwait()}
+	 * @return <code>-1</code> if awaiting frame should exit (continuation will
+	 *         re-enter the method later or has already re-entered it) or index
+	 *         to continue from in the same frame if computation was completed
+	 *         synchronously.
+	 */
+	public final int suspend(int await) {
+		int awaiting = (await << STATUS_BITS) | AWAITING;
+		if (STATUS.compareAndSet(this, awaiting, (await << STATUS_BITS)
+				| SUSPENDED)) {
+			return -1;
+		}
+		if (status == ((await << STATUS_BITS) | RESUMED)) {
+			return resumeIndex;
+		}
+		return -1;
+	}
+
+	/**
+	 * Notifies the state about the result being available.
+	 *
+	 * @param index
+	 *            index to continue execution from
+	 * @return <code>true</code> if caller must re-enter the method with given
+	 *         index, <code>false</code> if awaiting frame will continue the
+	 *         execution by itself.
+	 */
+	public final boolean resume(int index) {
+		int current = status;
+		if ((current & STATUS_MASK) != AWAITING) {
+			return true;
+		}
+		int await = current & ~STATUS_MASK;
+		if (awaitingThread == Thread.currentThread()) {
+			resumeIndex = index;
+			return !STATUS.compareAndSet(this, current, await | RESUMED);
+		}
+		STATUS.compareAndSet(this, current, await | DETACHED);
+		return true;
+	}
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.code.jconts.Continuation;
+
+/**
+ * One-shot latch continuation, which lets the non-instrumented code block
+ * until the computation is completed.
+ * <p>
+ * Result of the computation completed synchronously is returned without
+ * blocking. Otherwise, waiting thread spins for a short while (on
+ * multiprocessor machines) before parking.
+ * 
+ * @see com.google.code.jconts.Async#waitCompleted(com.google.code.jconts.Computation)
+ */
+public final class BlockingContinuation<T> implements Continuation<T> {
+
+	private static final int PENDING = 0;
+	private static final int COMPLETING = 1;
+	private static final int COMPLETED = 2;
+
+	private static final int SPINS = Runtime.getRuntime()
+			.availableProcessors() > 1 ? 1 << 10 : 0;
+
+	// Class literal of the generic class is raw
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<BlockingContinuation> STATE = AtomicIntegerFieldUpdater
+			.newUpdater(BlockingContinuation.class, "state");
+
+	private final int spins;
+	private volatile int state = PENDING;
+	private volatile Thread waiter;
+	private T result;
+	private Throwable exception;
+
+	public BlockingContinuation() {
+		this(true);
+	}
+
+	/**
+	 * @param spin
+	 *            if waiting thread should spin before parking. Threads that
+	 *            are cheap to park (like virtual ones) should not spin.
+	 */
+	public BlockingContinuation(boolean spin) {
+		this.spins = spin ? SPINS : 0;
+	}
+
+	@Override
+	public void invoke(T data) {
+		if (STATE.compareAndSet(this, PENDING, COMPLETING)) {
+			result = data;
+			complete();
+		}
+	}
+
+	@Override
+	public void setException(Throwable t) {
+		if (STATE.compareAndSet(this, PENDING, COMPLETING)) {
+			exception = t;
+			complete();
+		}
+	}
+
+	private void complete() {
+		state = COMPLETED;
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Waits for the computation to complete.
+	 * 
+	 * @return result of the computation
+	 * @throws ExecutionException
+	 *             with the exception computation has failed with as a cause
+	 */
+	public T get() throws InterruptedException, ExecutionException {
+		if (state != COMPLETED && !spin()) {
+			waiter = Thread.currentThread();
+			while (state != COMPLETED) {
+				LockSupport.park(this);
+				if (Thread.interrupted()) {
+					waiter = null;
+					throw new InterruptedException();
+				}
+			}
+			waiter = null;
+		}
+		return report();
+	}
+
+	/**
+	 * Waits for the computation to complete, at most given time.
+	 * 
+	 * @return result of the computation
+	 * @throws ExecutionException
+	 *             with the exception computation has failed with as a cause
+	 * @throws TimeoutException
+	 *             if computation was not completed in time
+	 */
+	public T get(long timeout, TimeUnit unit) throws InterruptedException,
+			ExecutionException, TimeoutException {
+		if (state != COMPLETED && !spin()) {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			waiter = Thread.currentThread();
+			while (state != COMPLETED) {
+				long remaining = deadline - System.nanoTime();
+				if (remaining <= 0) {
+					waiter = null;
+					throw new TimeoutException();
+				}
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted()) {
+					waiter = null;
+					throw new InterruptedException();
+				}
+			}
+			waiter = null;
+		}
+		return report();
+	}
+
+	/**
+	 * @return <code>true</code> if computation was completed while spinning
+	 */
+	private boolean spin() {
+		for (int i = 0; i < spins; ++i) {
+			if (state == COMPLETED) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private T report() throws ExecutionException {
+		if (exception != null) {
+			throw new ExecutionException(exception);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+
+/**
+ * Computation that executes given tasks with at most given amount of them
+ * running at the same time, and finishes when all of them are finished.
+ * <p>
+ * Tasks are taken from the iterable lazily, new task is taken only when one of
+ * the running tasks is finished. The first failed task fails the whole
+ * computation: no more tasks are started and the running ones are cancelled
+ * via {@link CancellationToken}.
+ * <p>
+ * Tasks that complete synchronously do not recurse: the thread that launches
+ * tasks keeps launching them in a loop, while other threads only record their
+ * results and hand the launching over if nobody is launching at the moment.
+ */
+public class BoundedWaitComputation implements Computation<List<Object>> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Iterable<? extends Computation<?>> tasks;
+	private final int parallelism;
+
+	public BoundedWaitComputation(Iterable<? extends Computation<?>> tasks,
+			int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be positive: "
+					+ parallelism);
+		}
+		this.tasks = tasks;
+		this.parallelism = parallelism;
+	}
+
+	@Override
+	public void execute(Continuation<? super List<Object>> finish) {
+		int capacity = tasks instanceof Collection ? ((Collection<?>) tasks)
+				.size() : INITIAL_CAPACITY;
+		new Scope(finish, tasks.iterator(), capacity).drain();
+	}
+
+	/**
+	 * State of the single execution. All fields are guarded by the scope
+	 * monitor. Iterator is used by the draining thread only, so it is invoked
+	 * outside of the monitor, as are the tasks and the continuation.
+	 */
+	private final class Scope {
+		private final Continuation<? super List<Object>> finish;
+		private final Iterator<? extends Computation<?>> iterator;
+		private final CancellationToken token;
+
+		private Object[] results;
+		private int launched;
+		private int running;
+		private boolean draining;
+		private boolean exhausted;
+		private boolean finished;
+
+		Scope(Continuation<? super List<Object>> finish,
+				Iterator<? extends Computation<?>> iterator, int capacity) {
+			this.finish = finish;
+			this.iterator = iterator;
+			this.token = new CancellationToken(CancellationToken.of(finish));
+			this.results = new Object[capacity];
+		}
+
+		/**
+		 * Launches tasks while there are free slots. Returns immediately if
+		 * other thread is already launching them.
+		 */
+		void drain() {
+			synchronized (this) {
+				if (draining) {
+					return;
+				}
+				draining = true;
+			}
+			while (reserve()) {
+				Computation<?> task;
+				try {
+					token.throwIfCancelled();
+					task = iterator.hasNext() ? iterator.next() : null;
+				} catch (Throwable t) {
+					fail(t);
+					return;
+				}
+				Child child;
+				synchronized (this) {
+					if (task == null) {
+						exhausted = true;
+						running--;
+						continue;
+					}
+					child = new Child(this, launched);
+					if (launched == results.length) {
+						results = Arrays.copyOf(results, Math.max(
+								INITIAL_CAPACITY, results.length * 2));
+					}
+					launched++;
+				}
+				try {
+					task.execute(child);
+				} catch (Throwable t) {
+					fail(t);
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Reserves the slot for the next task. Stops draining if there are no
+		 * free slots or no more tasks, and finishes the computation once all
+		 * tasks are finished.
+		 *
+		 * @return <code>true</code> if the next task should be launched
+		 */
+		private boolean reserve() {
+			Object[] values;
+			synchronized (this) {
+				if (!finished && !exhausted && running < parallelism) {
+					running++;
+					return true;
+				}
+				draining = false;
+				if (finished || !exhausted || running > 0) {
+					return false;
+				}
+				finished = true;
+				values = Arrays.copyOf(results, launched);
+			}
+			finish.invoke(Arrays.asList(values));
+			return false;
+		}
+
+		void complete(int index, Object value) {
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				results[index] = value;
+				running--;
+			}
+			drain();
+		}
+
+		void fail(Throwable t) {
+			synchronized (this) {
+				if (finished) {
+					return;
+				}
+				finished = true;
+			}
+			// Running tasks are cancelled when they resume
+			token.cancel();
+			finish.setException(t);
+		}
+	}
+
+	/**
+	 * Continuation for the single task.
+	 */
+	private static final class Child implements Continuation<Object>,
+			CancellationToken.Holder {
+		private final Scope scope;
+		private final int index;
+
+		Child(Scope scope, int index) {
+			this.scope = scope;
+			this.index = index;
+		}
+
+		@Override
+		public CancellationToken getCancellationToken() {
+			return scope.token;
+		}
+
+		@Override
+		public void invoke(Object data) {
+			scope.complete(index, data);
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			scope.fail(t);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Continuation;
+
+/**
+ * Continuation that carries the cancellation token and delegates to the
+ * other continuation.
+ * 
+ * @see com.google.code.jconts.Async#withCancellation(com.google.code.jconts.Computation,
+ *      CancellationToken)
+ */
+public final class CancellableContinuation<T> implements Continuation<T>,
+		CancellationToken.Holder {
+
+	private final Continuation<? super T> c;
+	private final CancellationToken token;
+
+	public CancellableContinuation(Continuation<? super T> c,
+			CancellationToken token) {
+		this.c = c;
+		this.token = token;
+	}
+
+	@Override
+	public CancellationToken getCancellationToken() {
+		return token;
+	}
+
+	@Override
+	public void invoke(T data) {
+		c.invoke(data);
+	}
+
+	@Override
+	public void setException(Throwable t) {
+		c.setException(t);
+	}
+}
@@ -13,33 +13,36 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package com.google.code.jconts.tests;
-
-import java.util.Timer;
-import java.util.TimerTask;
+package com.google.code.jconts.util;
 
 import com.google.code.jconts.Computation;
 import com.google.code.jconts.Continuation;
 
-public final class AsyncSleep {
+/**
+ * Computation that is already completed with a value.
+ * <p>
+ * Instrumented code checks for this class when awaiting and takes the value
+ * directly, without saving the state and suspending the method.
+ * 
+ * @see com.google.code.jconts.Async#completed(Object)
+ */
+public final class CompletedComputation<T> implements Computation<T> {
+
+	public static final CompletedComputation<Object> NULL = new CompletedComputation<Object>(
+			null);
+
+	private final T value;
+
+	public CompletedComputation(T value) {
+		this.value = value;
+	}
 
-	public static Computation<Void> sleep(final long delay) {
-		return new Computation<Void>() {
-			@Override
-			public void execute(final Continuation<? super Void> c) {
-				final Timer timer = new Timer(false);
-				timer.schedule(new TimerTask() {
-					@Override
-					public void run() {
-						c.invoke(null);
-						timer.cancel();
-					}
-				}, delay);
-			}
-		};
+	public T getValue() {
+		return value;
 	}
 
-	private AsyncSleep() {
-		// No instances
+	@Override
+	public void execute(Continuation<? super T> c) {
+		c.invoke(value);
 	}
 }
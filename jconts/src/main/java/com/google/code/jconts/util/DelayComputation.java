@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+
+/**
+ * Computation that completes after given delay. Continuation is invoked by
+ * the timer thread.
+ * <p>
+ * If the token of the continuation is cancelled before the delay expires,
+ * the timeout is cancelled and the continuation gets
+ * {@link CancellationException} from the cancelling thread.
+ * 
+ * @see com.google.code.jconts.Async#delay(long, TimeUnit)
+ */
+public final class DelayComputation implements Computation<Void> {
+
+	private final HashedWheelTimer timer;
+	private final long delay;
+	private final TimeUnit unit;
+
+	public DelayComputation(HashedWheelTimer timer, long delay, TimeUnit unit) {
+		this.timer = timer;
+		this.delay = delay;
+		this.unit = unit;
+	}
+
+	@Override
+	public void execute(final Continuation<? super Void> c) {
+		CancellationToken token = CancellationToken.of(c);
+		if (token == null) {
+			timer.newTimeout(new Runnable() {
+				@Override
+				public void run() {
+					c.invoke(null);
+				}
+			}, delay, unit);
+			return;
+		}
+
+		Sleep sleep = new Sleep(c);
+		sleep.timeout = timer.newTimeout(sleep, delay, unit);
+		sleep.registration = token.onCancel(sleep.new Cancel());
+		if (sleep.timeout.isExpired()) {
+			// Expired before the callback was registered
+			sleep.registration.unregister();
+		}
+	}
+
+	/**
+	 * Delay that could be cancelled by the token of the continuation.
+	 */
+	private static final class Sleep implements Runnable {
+		private final Continuation<? super Void> c;
+		volatile HashedWheelTimer.Timeout timeout;
+		volatile CancellationToken.Registration registration;
+
+		Sleep(Continuation<? super Void> c) {
+			this.c = c;
+		}
+
+		@Override
+		public void run() {
+			CancellationToken.Registration r = registration;
+			if (r != null) {
+				r.unregister();
+			}
+			c.invoke(null);
+		}
+
+		final class Cancel implements Runnable {
+			@Override
+			public void run() {
+				// Timeout is set before the callback is registered
+				if (timeout.cancel()) {
+					c.setException(new CancellationException());
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import com.google.code.jconts.Scheduler;
+
+/**
+ * Runs jobs in the order they were scheduled. Jobs are kept in the ring
+ * buffer, which grows when full.
+ */
+public final class FifoScheduler implements Scheduler {
+
+	private Runnable[] jobs;
+	private int head;
+	private int size;
+
+	public FifoScheduler() {
+		this(16);
+	}
+
+	public FifoScheduler(int capacity) {
+		jobs = new Runnable[Math.max(Integer.highestOneBit(capacity - 1) << 1,
+				2)];
+	}
+
+	@Override
+	public void schedule(Runnable job) {
+		if (size == jobs.length) {
+			grow();
+		}
+		jobs[(head + size) & (jobs.length - 1)] = job;
+		size++;
+	}
+
+	@Override
+	public Runnable next() {
+		if (size == 0) {
+			return null;
+		}
+		Runnable job = jobs[head];
+		jobs[head] = null;
+		head = (head + 1) & (jobs.length - 1);
+		size--;
+		return job;
+	}
+
+	private void grow() {
+		Runnable[] copy = new Runnable[jobs.length << 1];
+		int tail = jobs.length - head;
+		System.arraycopy(jobs, head, copy, 0, tail);
+		System.arraycopy(jobs, 0, copy, tail, head);
+		jobs = copy;
+		head = 0;
+	}
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Timer that runs tasks on its single thread, with the tick precision.
+ * <p>
+ * Pending timeouts are kept in the wheel of buckets, each bucket holds
+ * timeouts expiring at the same tick (modulo the wheel size). Adding and
+ * cancelling the timeout takes constant time, and every tick only timeouts of
+ * the single bucket are visited, so timer could handle millions of pending
+ * timeouts.
+ * <p>
+ * Tasks are run by the timer thread, so they should be short.
+ */
+public final class HashedWheelTimer {
+
+	private static final int TIMER_INIT = 0;
+	private static final int TIMER_STARTED = 1;
+	private static final int TIMER_STOPPED = 2;
+
+	private static final int INIT = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private final long tickDuration;
+	private final Bucket[] wheel;
+	private final int mask;
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+	private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<Timeout>();
+	private final AtomicInteger state = new AtomicInteger();
+	private final Thread worker;
+
+	/**
+	 * Opened once the start time is set. Start time is published by the latch
+	 * to the threads that have not started the timer.
+	 */
+	private final CountDownLatch started = new CountDownLatch(1);
+	private long startTime;
+
+	/**
+	 * Creates timer with given tick duration and amount of buckets in the
+	 * wheel. Amount of buckets is rounded up to the power of two.
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit,
+			int wheelSize) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration must be positive: "
+					+ tickDuration);
+		}
+		if (wheelSize <= 0 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("Invalid wheel size: "
+					+ wheelSize);
+		}
+		this.tickDuration = unit.toNanos(tickDuration);
+		int size = Integer.highestOneBit(wheelSize - 1) << 1;
+		wheel = new Bucket[Math.max(size, 1)];
+		for (int i = 0; i < wheel.length; ++i) {
+			wheel[i] = new Bucket();
+		}
+		mask = wheel.length - 1;
+
+		worker = new Thread(new Worker(), name);
+		worker.setDaemon(true);
+	}
+
+	/**
+	 * Timer shared by the delay computations, with 10 milliseconds tick.
+	 */
+	public static HashedWheelTimer getDefault() {
+		return DefaultHolder.TIMER;
+	}
+
+	/**
+	 * Schedules the task to be run after given delay. Timer thread is started
+	 * by the first invocation.
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new NullPointerException("task");
+		}
+		start();
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0))
+				- startTime;
+		Timeout timeout = new Timeout(this, task, deadline);
+		added.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the timer thread. Pending timeouts are never expired.
+	 */
+	public void stop() {
+		if (state.getAndSet(TIMER_STOPPED) == TIMER_STARTED) {
+			worker.interrupt();
+		}
+	}
+
+	private void start() {
+		if (state.get() == TIMER_INIT
+				&& state.compareAndSet(TIMER_INIT, TIMER_STARTED)) {
+			startTime = System.nanoTime();
+			started.countDown();
+			worker.start();
+		} else if (state.get() == TIMER_STOPPED) {
+			throw new IllegalStateException("Timer is stopped");
+		}
+		// Started concurrently, wait for the start time to be published
+		boolean interrupted = false;
+		while (started.getCount() > 0) {
+			try {
+				started.await();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class DefaultHolder {
+		static final HashedWheelTimer TIMER = new HashedWheelTimer(
+				"jconts timer", 10, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * Pending task of the timer.
+	 */
+	public static final class Timeout extends AtomicInteger {
+		private static final long serialVersionUID = 1L;
+
+		private final HashedWheelTimer timer;
+		private Runnable task;
+		private final long deadline;
+		private long remainingRounds;
+
+		private Bucket bucket;
+		private Timeout next;
+		private Timeout prev;
+
+		Timeout(HashedWheelTimer timer, Runnable task, long deadline) {
+			this.timer = timer;
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the timeout, so its task will not be run. Task is released
+		 * immediately, timeout itself is removed from the wheel by the next
+		 * tick.
+		 *
+		 * @return <code>false</code> if timeout is already expired or cancelled
+		 */
+		public boolean cancel() {
+			if (!compareAndSet(INIT, CANCELLED)) {
+				return false;
+			}
+			// Timer thread reads the task only after expiring the timeout
+			task = null;
+			timer.cancelled.add(this);
+			return true;
+		}
+
+		public boolean isCancelled() {
+			return get() == CANCELLED;
+		}
+
+		public boolean isExpired() {
+			return get() == EXPIRED;
+		}
+	}
+
+	/**
+	 * Doubly linked list of timeouts, accessed by the timer thread only.
+	 */
+	private static final class Bucket {
+		private Timeout head;
+		private Timeout tail;
+
+		void add(Timeout timeout) {
+			timeout.bucket = this;
+			if (head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		Timeout remove(Timeout timeout) {
+			Timeout next = timeout.next;
+			if (timeout.prev != null) {
+				timeout.prev.next = next;
+			} else {
+				head = next;
+			}
+			if (next != null) {
+				next.prev = timeout.prev;
+			} else {
+				tail = timeout.prev;
+			}
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+			timeout.task = null;
+			return next;
+		}
+
+		void expire(long deadline) {
+			Timeout timeout = head;
+			while (timeout != null) {
+				if (timeout.isCancelled()) {
+					timeout = remove(timeout);
+				} else if (timeout.remainingRounds <= 0
+						&& timeout.deadline <= deadline) {
+					boolean expired = timeout.compareAndSet(INIT, EXPIRED);
+					Runnable task = timeout.task;
+					timeout = remove(timeout);
+					if (expired) {
+						run(task);
+					}
+				} else {
+					timeout.remainingRounds--;
+					timeout = timeout.next;
+				}
+			}
+		}
+
+		private static void run(Runnable task) {
+			try {
+				task.run();
+			} catch (Throwable t) {
+				Thread thread = Thread.currentThread();
+				thread.getUncaughtExceptionHandler().uncaughtException(thread,
+						t);
+			}
+		}
+	}
+
+	private final class Worker implements Runnable {
+		private long tick;
+
+		@Override
+		public void run() {
+			while (state.get() == TIMER_STARTED) {
+				long deadline = waitForNextTick();
+				if (deadline < 0) {
+					break;
+				}
+				removeCancelled();
+				transferAdded();
+				wheel[(int) (tick & mask)].expire(deadline);
+				tick++;
+			}
+		}
+
+		private void removeCancelled() {
+			Timeout timeout;
+			while ((timeout = cancelled.poll()) != null) {
+				if (timeout.bucket != null) {
+					timeout.bucket.remove(timeout);
+				}
+			}
+		}
+
+		/**
+		 * Moves timeouts added since the last tick into their buckets.
+		 */
+		private void transferAdded() {
+			Timeout timeout;
+			while ((timeout = added.poll()) != null) {
+				if (timeout.isCancelled()) {
+					continue;
+				}
+				long expireTick = timeout.deadline / tickDuration;
+				timeout.remainingRounds = (expireTick - tick) / wheel.length;
+				// Timeouts that should have already expired go to the current
+				// bucket
+				long target = Math.max(expireTick, tick);
+				wheel[(int) (target & mask)].add(timeout);
+			}
+		}
+
+		/**
+		 * @return time of the next tick since the timer start, or
+		 *         <code>-1</code> if timer was stopped
+		 */
+		private long waitForNextTick() {
+			long deadline = tickDuration * (tick + 1);
+			while (true) {
+				long current = System.nanoTime() - startTime;
+				long sleep = deadline - current;
+				if (sleep <= 0) {
+					return current;
+				}
+				LockSupport.parkNanos(this, sleep);
+				if (Thread.interrupted() || state.get() != TIMER_STARTED) {
+					return -1;
+				}
+			}
+		}
+	}
+}
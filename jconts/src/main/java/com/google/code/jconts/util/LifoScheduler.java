@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.Arrays;
+
+import com.google.code.jconts.Scheduler;
+
+/**
+ * Runs the most recently scheduled job first.
+ */
+public final class LifoScheduler implements Scheduler {
+
+	private Runnable[] jobs = new Runnable[16];
+	private int size;
+
+	@Override
+	public void schedule(Runnable job) {
+		if (size == jobs.length) {
+			jobs = Arrays.copyOf(jobs, size << 1);
+		}
+		jobs[size++] = job;
+	}
+
+	@Override
+	public Runnable next() {
+		if (size == 0) {
+			return null;
+		}
+		Runnable job = jobs[--size];
+		jobs[size] = null;
+		return job;
+	}
+}
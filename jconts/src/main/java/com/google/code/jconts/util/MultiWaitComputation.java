@@ -15,54 +15,130 @@
  */
 package com.google.code.jconts.util;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import com.google.code.jconts.CancellationToken;
 import com.google.code.jconts.Computation;
 import com.google.code.jconts.Continuation;
 
+/**
+ * Computation that executes all given tasks and finishes when all of them are
+ * finished (or when first of them fails).
+ * <p>
+ * Each execution has its own set of counters, so same instance could be
+ * executed several times. Tasks that complete synchronously (while
+ * {@link #execute(Continuation)} is still launching the tasks) are not counted
+ * at all; only tasks that complete asynchronously touch the shared counter.
+ */
 public class MultiWaitComputation implements Computation<List<Object>> {
 
-	private volatile int count;
 	private final Computation<?>[] tasks;
-	private final List<Object> results;
-	private AtomicBoolean finished = new AtomicBoolean();
 
 	public MultiWaitComputation(Computation<?>... tasks) {
-		this.count = tasks.length;
-		this.results = new ArrayList<Object>();
 		this.tasks = tasks;
-		for (int i = 0; i < tasks.length; ++i) {
-			results.add(null);
-		}
 	}
 
 	@Override
 	public void execute(final Continuation<? super List<Object>> finish) {
+		Join join = new Join(finish, tasks.length);
+
+		int async = 0;
 		for (int i = 0; i < tasks.length; ++i) {
-			final int index = i;
-			tasks[i].execute(new Continuation<Object>() {
-				@Override
-				public void invoke(Object data) {
-					// FIXME: thread safety...
-					results.set(index, data);
-					count--;
-					if (count == 0) {
-						if (finished.compareAndSet(false, true)) {
-							finish.invoke(results);
-						}
-					}
-				}
+			Child child = new Child(join, i);
+			tasks[i].execute(child);
+			if (child.detach()) {
+				async++;
+			}
+		}
 
-				@Override
-				public void setException(Throwable t) {
-					if (finished.compareAndSet(false, true)) {
-						finish.setException(t);
-					}
+		// Tasks finished asynchronously so far made the counter negative, so
+		// adding the amount of detached tasks gives us the remaining amount.
+		if (async == 0 || join.pending.addAndGet(async) == 0) {
+			join.finish();
+		}
+	}
+
+	/**
+	 * Shared state of the single execution.
+	 */
+	private static final class Join {
+		final Continuation<? super List<Object>> finish;
+		final AtomicReferenceArray<Object> results;
+		final AtomicInteger pending = new AtomicInteger();
+		final AtomicBoolean finished = new AtomicBoolean();
+
+		Join(Continuation<? super List<Object>> finish, int count) {
+			this.finish = finish;
+			this.results = new AtomicReferenceArray<Object>(count);
+		}
+
+		void finish() {
+			if (finished.compareAndSet(false, true)) {
+				Object[] values = new Object[results.length()];
+				for (int i = 0; i < values.length; ++i) {
+					values[i] = results.get(i);
 				}
-			});
+				finish.invoke(Arrays.asList(values));
+			}
+		}
+
+		void fail(Throwable t) {
+			if (finished.compareAndSet(false, true)) {
+				finish.setException(t);
+			}
 		}
 	}
 
+	/**
+	 * Continuation for the single task. State is <code>0</code> while task is
+	 * being launched, <code>1</code> if task was completed synchronously and
+	 * <code>2</code> if launching thread has moved on.
+	 */
+	private static final class Child extends AtomicInteger implements
+			Continuation<Object>, CancellationToken.Holder {
+		private static final long serialVersionUID = 1L;
+
+		private static final int LAUNCHING = 0;
+		private static final int COMPLETED = 1;
+		private static final int DETACHED = 2;
+
+		private final Join join;
+		private final int index;
+
+		Child(Join join, int index) {
+			this.join = join;
+			this.index = index;
+		}
+
+		/**
+		 * @return <code>true</code> if task is still running and will update
+		 *         the counter when finished.
+		 */
+		boolean detach() {
+			return compareAndSet(LAUNCHING, DETACHED);
+		}
+
+		@Override
+		public CancellationToken getCancellationToken() {
+			return CancellationToken.of(join.finish);
+		}
+
+		@Override
+		public void invoke(Object data) {
+			join.results.set(index, data);
+			if (!compareAndSet(LAUNCHING, COMPLETED)
+					&& join.pending.decrementAndGet() == 0) {
+				join.finish();
+			}
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			join.fail(t);
+		}
+	}
 }
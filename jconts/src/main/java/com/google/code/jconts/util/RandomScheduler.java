@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import com.google.code.jconts.Scheduler;
+
+/**
+ * Runs scheduled jobs in random order. Picked job is replaced by the last one,
+ * so every operation takes constant time.
+ */
+public final class RandomScheduler implements Scheduler {
+
+	private final Random random;
+	private Runnable[] jobs = new Runnable[16];
+	private int size;
+
+	public RandomScheduler() {
+		this(new Random());
+	}
+
+	public RandomScheduler(Random random) {
+		this.random = random;
+	}
+
+	@Override
+	public void schedule(Runnable job) {
+		if (size == jobs.length) {
+			jobs = Arrays.copyOf(jobs, size << 1);
+		}
+		jobs[size++] = job;
+	}
+
+	@Override
+	public Runnable next() {
+		if (size == 0) {
+			return null;
+		}
+		int index = random.nextInt(size);
+		Runnable job = jobs[index];
+		jobs[index] = jobs[--size];
+		jobs[size] = null;
+		return job;
+	}
+}
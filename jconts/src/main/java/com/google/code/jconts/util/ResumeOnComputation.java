@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+import com.google.code.jconts.DoubleComputation;
+import com.google.code.jconts.DoubleContinuation;
+import com.google.code.jconts.IntComputation;
+import com.google.code.jconts.IntContinuation;
+import com.google.code.jconts.LongComputation;
+import com.google.code.jconts.LongContinuation;
+
+/**
+ * Computation that delivers the result of the given one on the executor.
+ * <p>
+ * Continuations run by the executor are marked, so if the result is
+ * available while already running on the target executor, it is delivered
+ * inline, without submitting a task.
+ * 
+ * @see com.google.code.jconts.Async#resumeOn(Executor)
+ * @see com.google.code.jconts.Async#resumeOn(Computation, Executor)
+ */
+public final class ResumeOnComputation<T> implements Computation<T> {
+
+	private static final ThreadLocal<Executor> CURRENT = new ThreadLocal<Executor>();
+
+	private final Computation<T> task;
+	private final Executor executor;
+
+	public ResumeOnComputation(Computation<T> task, Executor executor) {
+		this.task = task;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return <code>true</code> if current thread is running the continuation
+	 *         resumed on given executor
+	 */
+	public static boolean isCurrent(Executor executor) {
+		return CURRENT.get() == executor;
+	}
+
+	@Override
+	public void execute(Continuation<? super T> c) {
+		task.execute(new Hop<T>(c, executor));
+	}
+
+	/**
+	 * Same as {@link ResumeOnComputation}, but the result is not boxed.
+	 */
+	public static IntComputation ofInt(final IntComputation task,
+			final Executor executor) {
+		return new IntComputation() {
+			@Override
+			public void executeInt(IntContinuation c) {
+				task.executeInt(new IntHop(c, executor));
+			}
+		};
+	}
+
+	/**
+	 * Same as {@link ResumeOnComputation}, but the result is not boxed.
+	 */
+	public static LongComputation ofLong(final LongComputation task,
+			final Executor executor) {
+		return new LongComputation() {
+			@Override
+			public void executeLong(LongContinuation c) {
+				task.executeLong(new LongHop(c, executor));
+			}
+		};
+	}
+
+	/**
+	 * Same as {@link ResumeOnComputation}, but the result is not boxed.
+	 */
+	public static DoubleComputation ofDouble(final DoubleComputation task,
+			final Executor executor) {
+		return new DoubleComputation() {
+			@Override
+			public void executeDouble(DoubleContinuation c) {
+				task.executeDouble(new DoubleHop(c, executor));
+			}
+		};
+	}
+
+	/**
+	 * Delivers the result inline if already running on the executor, submits
+	 * itself to the executor otherwise. Subclasses keep the result.
+	 */
+	private static abstract class AbstractHop implements
+			CancellationToken.Holder, Runnable {
+		private final Continuation<?> c;
+		private final Executor executor;
+		private Throwable exception;
+
+		AbstractHop(Continuation<?> c, Executor executor) {
+			this.c = c;
+			this.executor = executor;
+		}
+
+		/**
+		 * Delivers the kept result to the continuation.
+		 */
+		abstract void deliver();
+
+		@Override
+		public CancellationToken getCancellationToken() {
+			return CancellationToken.of(c);
+		}
+
+		final void resume() {
+			if (isCurrent(executor)) {
+				deliver();
+			} else {
+				submit();
+			}
+		}
+
+		public void setException(Throwable t) {
+			if (isCurrent(executor)) {
+				c.setException(t);
+			} else {
+				exception = t;
+				submit();
+			}
+		}
+
+		private void submit() {
+			try {
+				executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				c.setException(e);
+			}
+		}
+
+		@Override
+		public void run() {
+			Executor previous = CURRENT.get();
+			CURRENT.set(executor);
+			try {
+				if (exception != null) {
+					c.setException(exception);
+				} else {
+					deliver();
+				}
+			} finally {
+				CURRENT.set(previous);
+			}
+		}
+	}
+
+	private static final class Hop<T> extends AbstractHop implements
+			Continuation<T> {
+		private final Continuation<? super T> c;
+		private T result;
+
+		Hop(Continuation<? super T> c, Executor executor) {
+			super(c, executor);
+			this.c = c;
+		}
+
+		@Override
+		public void invoke(T data) {
+			result = data;
+			resume();
+		}
+
+		@Override
+		void deliver() {
+			c.invoke(result);
+		}
+	}
+
+	private static final class IntHop extends AbstractHop implements
+			IntContinuation {
+		private final IntContinuation c;
+		private int result;
+
+		IntHop(IntContinuation c, Executor executor) {
+			super(c, executor);
+			this.c = c;
+		}
+
+		@Override
+		public void invokeInt(int data) {
+			result = data;
+			resume();
+		}
+
+		@Override
+		public void invoke(Integer data) {
+			invokeInt(data);
+		}
+
+		@Override
+		void deliver() {
+			c.invokeInt(result);
+		}
+	}
+
+	private static final class LongHop extends AbstractHop implements
+			LongContinuation {
+		private final LongContinuation c;
+		private long result;
+
+		LongHop(LongContinuation c, Executor executor) {
+			super(c, executor);
+			this.c = c;
+		}
+
+		@Override
+		public void invokeLong(long data) {
+			result = data;
+			resume();
+		}
+
+		@Override
+		public void invoke(Long data) {
+			invokeLong(data);
+		}
+
+		@Override
+		void deliver() {
+			c.invokeLong(result);
+		}
+	}
+
+	private static final class DoubleHop extends AbstractHop implements
+			DoubleContinuation {
+		private final DoubleContinuation c;
+		private double result;
+
+		DoubleHop(DoubleContinuation c, Executor executor) {
+			super(c, executor);
+			this.c = c;
+		}
+
+		@Override
+		public void invokeDouble(double data) {
+			result = data;
+			resume();
+		}
+
+		@Override
+		public void invoke(Double data) {
+			invokeDouble(data);
+		}
+
+		@Override
+		void deliver() {
+			c.invokeDouble(result);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2011 Ivan Dubrov
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.code.jconts.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.code.jconts.CancellationToken;
+import com.google.code.jconts.Computation;
+import com.google.code.jconts.Continuation;
+
+/**
+ * Computation that completes with the result of the given one, or with
+ * {@link TimeoutException} if the result is not available in time.
+ * <p>
+ * Whichever comes first wins, the other one is ignored. If the result comes
+ * first, the pending timeout is cancelled. If the timeout comes first, the
+ * cancellation token of the task is cancelled, so asynchronous methods stop
+ * at their next await.
+ * 
+ * @see com.google.code.jconts.Async#withTimeout(Computation, long, TimeUnit)
+ */
+public final class TimeoutComputation<T> implements Computation<T> {
+
+	private final HashedWheelTimer timer;
+	private final Computation<T> task;
+	private final long timeout;
+	private final TimeUnit unit;
+
+	public TimeoutComputation(HashedWheelTimer timer, Computation<T> task,
+			long timeout, TimeUnit unit) {
+		this.timer = timer;
+		this.task = task;
+		this.timeout = timeout;
+		this.unit = unit;
+	}
+
+	@Override
+	public void execute(Continuation<? super T> c) {
+		Guard<T> guard = new Guard<T>(c, timeout, unit);
+		guard.timeout = timer.newTimeout(guard, timeout, unit);
+		task.execute(guard);
+	}
+
+	/**
+	 * Delivers either the result or the timeout to the continuation. The
+	 * continuation is taken by the first of them, so it is not kept reachable
+	 * (by the timer or by the task) once delivered.
+	 * <p>
+	 * Task gets its own token, which is cancelled when timeout expires (and
+	 * when the token of the continuation is cancelled).
+	 */
+	private static final class Guard<T> extends
+			AtomicReference<Continuation<? super T>> implements
+			Continuation<T>, CancellationToken.Holder, Runnable {
+		private static final long serialVersionUID = 1L;
+
+		private final CancellationToken token;
+		private final long delay;
+		private final TimeUnit unit;
+		volatile HashedWheelTimer.Timeout timeout;
+
+		Guard(Continuation<? super T> c, long delay, TimeUnit unit) {
+			super(c);
+			this.token = new CancellationToken(CancellationToken.of(c));
+			this.delay = delay;
+			this.unit = unit;
+		}
+
+		@Override
+		public CancellationToken getCancellationToken() {
+			return token;
+		}
+
+		@Override
+		public void invoke(T data) {
+			Continuation<? super T> c = getAndSet(null);
+			if (c != null) {
+				cancelTimeout();
+				c.invoke(data);
+			}
+		}
+
+		@Override
+		public void setException(Throwable t) {
+			Continuation<? super T> c = getAndSet(null);
+			if (c != null) {
+				cancelTimeout();
+				c.setException(t);
+			}
+		}
+
+		@Override
+		public void run() {
+			Continuation<? super T> c = getAndSet(null);
+			if (c != null) {
+				token.cancel();
+				c.setException(new TimeoutException("Timed out after "
+						+ delay + " " + unit.toString().toLowerCase()));
+			}
+		}
+
+		private void cancelTimeout() {
+			// Timeout is always set before the task is executed
+			timeout.cancel();
+		}
+	}
+}